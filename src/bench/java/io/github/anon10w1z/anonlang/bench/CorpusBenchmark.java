@@ -0,0 +1,318 @@
+package io.github.anon10w1z.anonlang.bench;
+
+import io.github.anon10w1z.anonlang.AnonLang;
+import io.github.anon10w1z.anonlang.GlobalVariableStore;
+import io.github.anon10w1z.anonlang.StatementCache;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a corpus of AnonLang programs, checks the output of each against its golden output, and records its wall time,
+ * throughput and allocation to a results file. <br>
+ * Every program {@code name.anon} in the corpus directory has its golden output in {@code name.expected}.
+ * If a baseline is given, programs whose minimum wall time or allocation grew by more than its tolerance are flagged as regressions.
+ * Wall time varies much more between runs than allocation does, so it is compared with a wider tolerance.
+ */
+public final class CorpusBenchmark {
+	/**
+	 * The header of results and baseline files
+	 */
+	private static final String HEADER = "program,status,median_ms,min_ms,statements,statements_per_second,allocated_bytes,regression";
+
+	/**
+	 * The bean allocation is measured with, or null if the JVM cannot measure the allocation of a thread
+	 */
+	private static final com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+
+	private CorpusBenchmark() {
+
+	}
+
+	/**
+	 * Runs the corpus and exits with status 1 if a program printed the wrong output or regressed
+	 * @param arguments {@code [--warmup N] [--iterations N] [--time-tolerance PERCENT] [--allocation-tolerance PERCENT] [--baseline FILE] [--update-baseline] <corpus directory> <results file>}
+	 * @throws IOException If the corpus could not be read or the results could not be written
+	 */
+	public static void main(String[] arguments) throws IOException {
+		int warmupRuns = 3;
+		int measuredRuns = 10;
+		double timeTolerance = 50;
+		double allocationTolerance = 10;
+		Path baselinePath = null;
+		boolean updateBaseline = false;
+		List<String> paths = new ArrayList<>();
+		for (int i = 0; i < arguments.length; ++i) {
+			switch (arguments[i]) {
+				case "--warmup":
+					warmupRuns = Integer.parseInt(getValue(arguments, ++i));
+					break;
+				case "--iterations":
+					measuredRuns = Integer.parseInt(getValue(arguments, ++i));
+					break;
+				case "--time-tolerance":
+					timeTolerance = Double.parseDouble(getValue(arguments, ++i));
+					break;
+				case "--allocation-tolerance":
+					allocationTolerance = Double.parseDouble(getValue(arguments, ++i));
+					break;
+				case "--baseline":
+					baselinePath = Paths.get(getValue(arguments, ++i));
+					break;
+				case "--update-baseline":
+					updateBaseline = true;
+					break;
+				default:
+					paths.add(arguments[i]);
+			}
+		}
+		if (paths.size() != 2 || measuredRuns <= 0)
+			throw new IllegalArgumentException("Usage: CorpusBenchmark [--warmup N] [--iterations N] [--time-tolerance PERCENT] [--allocation-tolerance PERCENT] [--baseline FILE] [--update-baseline] <corpus directory> <results file>");
+		if (updateBaseline && baselinePath == null)
+			throw new IllegalArgumentException("--update-baseline requires --baseline");
+		Path corpusDirectory = Paths.get(paths.get(0));
+		Path resultsPath = Paths.get(paths.get(1));
+		Map<String, String[]> baseline = baselinePath != null && !updateBaseline && Files.exists(baselinePath) ? readResults(baselinePath) : Collections.emptyMap();
+		List<Path> programs;
+		try (Stream<Path> files = Files.list(corpusDirectory)) {
+			programs = files.filter(path -> path.toString().endsWith(".anon")).sorted().collect(Collectors.toList());
+		}
+		if (programs.isEmpty())
+			throw new IllegalArgumentException("No AnonLang programs in " + corpusDirectory);
+		List<String> rows = new ArrayList<>();
+		boolean failed = false;
+		for (Path program : programs) {
+			ProgramResult result = runProgram(program, warmupRuns, measuredRuns);
+			String regression = result.isCorrect() ? findRegression(result, baseline.get(result.name), timeTolerance, allocationTolerance) : "";
+			failed |= !result.isCorrect() || !regression.isEmpty();
+			String row = result.name + ',' + result.status + ',' + toMilliseconds(result.medianTime) + ',' + toMilliseconds(result.minimumTime) + ','
+					+ result.statements + ',' + result.getStatementsPerSecond() + ',' + result.allocatedBytes + ',' + regression;
+			rows.add(row);
+			System.out.println(row);
+		}
+		writeResults(resultsPath, rows);
+		System.out.println("Results written to " + resultsPath);
+		if (updateBaseline) {
+			writeResults(baselinePath, rows);
+			System.out.println("Baseline written to " + baselinePath);
+		} else if (failed) {
+			System.out.println("The corpus failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the value of an option
+	 * @param arguments The command line arguments
+	 * @param index     The index of the value
+	 * @return The value
+	 */
+	private static String getValue(String[] arguments, int index) {
+		if (index >= arguments.length)
+			throw new IllegalArgumentException("No value specified for " + arguments[index - 1]);
+		return arguments[index];
+	}
+
+	/**
+	 * Runs a program the given number of times, checking its output every time
+	 * @param program      The path to the program
+	 * @param warmupRuns   The number of runs that are not measured
+	 * @param measuredRuns The number of measured runs
+	 * @return The result of the program
+	 * @throws IOException If the program or its golden output could not be read
+	 */
+	private static ProgramResult runProgram(Path program, int warmupRuns, int measuredRuns) throws IOException {
+		String fileName = program.getFileName().toString();
+		String name = fileName.substring(0, fileName.length() - ".anon".length());
+		Path expectedPath = program.resolveSibling(name + ".expected");
+		if (!Files.exists(expectedPath))
+			return new ProgramResult(name, "MISSING_EXPECTED_OUTPUT");
+		String expectedOutput = normalizeLineSeparators(new String(Files.readAllBytes(expectedPath), StandardCharsets.UTF_8));
+		List<String> lines = AnonLang.readLines(program);
+		long[] times = new long[measuredRuns];
+		ProgramResult result = new ProgramResult(name, "PASS");
+		for (int run = -warmupRuns; run < measuredRuns; ++run) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			long allocatedBefore = getAllocatedBytes();
+			long startTime = System.nanoTime();
+			try (PrintStream out = new PrintStream(output, false, "UTF-8")) {
+				AnonLang anonLang = new AnonLang(program.toString(), lines, new GlobalVariableStore(), new StatementCache(), new BufferedReader(new StringReader("")), out);
+				anonLang.run();
+				result.statements = anonLang.getExecutionMeter().getStatementsExecuted();
+			} catch (RuntimeException e) {
+				System.out.println(name + ": " + e);
+				return new ProgramResult(name, "ERROR");
+			}
+			long time = System.nanoTime() - startTime;
+			long allocatedBytes = allocationBean == null ? -1 : getAllocatedBytes() - allocatedBefore;
+			if (!normalizeLineSeparators(new String(output.toByteArray(), StandardCharsets.UTF_8)).equals(expectedOutput))
+				return new ProgramResult(name, "WRONG_OUTPUT");
+			if (run >= 0) {
+				times[run] = time;
+				result.allocatedBytes = run == 0 ? allocatedBytes : Math.min(result.allocatedBytes, allocatedBytes);
+			}
+		}
+		Arrays.sort(times);
+		result.minimumTime = times[0];
+		result.medianTime = times[measuredRuns / 2];
+		return result;
+	}
+
+	/**
+	 * Compares a result with its baseline
+	 * @param result              The result
+	 * @param baseline            The baseline row of the program, or null if the program has no baseline
+	 * @param timeTolerance       The percentage by which the minimum wall time may grow
+	 * @param allocationTolerance The percentage by which allocation may grow
+	 * @return A description of the regression, or an empty string if there is none
+	 */
+	private static String findRegression(ProgramResult result, String[] baseline, double timeTolerance, double allocationTolerance) {
+		if (baseline == null)
+			return "";
+		List<String> regressions = new ArrayList<>();
+		double baselineTime = Double.parseDouble(baseline[3]);
+		double time = result.minimumTime / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		if (time > baselineTime * (1 + timeTolerance / 100))
+			regressions.add(String.format("time +%.0f%%", (time / baselineTime - 1) * 100));
+		long baselineAllocation = Long.parseLong(baseline[6]);
+		if (baselineAllocation >= 0 && result.allocatedBytes > baselineAllocation * (1 + allocationTolerance / 100))
+			regressions.add(String.format("allocation +%.0f%%", (result.allocatedBytes / (double) baselineAllocation - 1) * 100));
+		return String.join(" ", regressions);
+	}
+
+	/**
+	 * Reads a results file
+	 * @param path The path to the results file
+	 * @return A map of program names to their rows, split into columns
+	 * @throws IOException If the file could not be read
+	 */
+	private static Map<String, String[]> readResults(Path path) throws IOException {
+		Map<String, String[]> nameToRowMap = new HashMap<>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+			if (!line.isEmpty() && !line.equals(HEADER)) {
+				String[] columns = line.split(",", -1);
+				if (columns[1].equals("PASS"))
+					nameToRowMap.put(columns[0], columns);
+			}
+		return nameToRowMap;
+	}
+
+	/**
+	 * Writes a results file
+	 * @param path The path to the results file
+	 * @param rows The rows of the results
+	 * @throws IOException If the file could not be written
+	 */
+	private static void writeResults(Path path, List<String> rows) throws IOException {
+		if (path.toAbsolutePath().getParent() != null)
+			Files.createDirectories(path.toAbsolutePath().getParent());
+		List<String> lines = new ArrayList<>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		Files.write(path, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of bytes the current thread has allocated so far
+	 * @return The number of bytes, or -1 if the JVM cannot measure them
+	 */
+	private static long getAllocatedBytes() {
+		return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the bean allocation is measured with
+	 * @return The bean, or null if the JVM cannot measure the allocation of a thread
+	 */
+	private static com.sun.management.ThreadMXBean getAllocationBean() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!allocationBean.isThreadAllocatedMemorySupported())
+			return null;
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		return allocationBean;
+	}
+
+	/**
+	 * Replaces every {@code \r\n} in the given string with {@code \n}
+	 * @param string The string
+	 * @return The string with normalized line separators
+	 */
+	private static String normalizeLineSeparators(String string) {
+		return string.replace("\r\n", "\n");
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds with three decimals
+	 * @param nanoseconds The nanoseconds
+	 * @return The milliseconds
+	 */
+	private static String toMilliseconds(long nanoseconds) {
+		return String.format(Locale.ROOT, "%.3f", nanoseconds / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	/**
+	 * The result of running a single program of the corpus
+	 */
+	private static final class ProgramResult {
+		/**
+		 * The name of the program
+		 */
+		private final String name;
+		/**
+		 * PASS if every run printed the golden output, or why the program failed
+		 */
+		private final String status;
+		/**
+		 * The median wall time of the measured runs, in nanoseconds
+		 */
+		private long medianTime;
+		/**
+		 * The minimum wall time of the measured runs, in nanoseconds
+		 */
+		private long minimumTime;
+		/**
+		 * The number of statements a run executed
+		 */
+		private long statements;
+		/**
+		 * The fewest bytes a measured run allocated, or -1 if allocation could not be measured
+		 */
+		private long allocatedBytes = -1;
+
+		/**
+		 * Constructs a result
+		 * @param name   The name of the program
+		 * @param status PASS if every run printed the golden output, or why the program failed
+		 */
+		private ProgramResult(String name, String status) {
+			this.name = name;
+			this.status = status;
+		}
+
+		/**
+		 * Returns whether or not every run printed the golden output
+		 * @return Whether or not every run printed the golden output
+		 */
+		private boolean isCorrect() {
+			return status.equals("PASS");
+		}
+
+		/**
+		 * Returns the number of statements executed per second at the median wall time
+		 * @return The throughput of the program, or 0 if it did not run
+		 */
+		private long getStatementsPerSecond() {
+			return medianTime == 0 ? 0 : statements * TimeUnit.SECONDS.toNanos(1) / medianTime;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package io.github.anon10w1z.anonlang.bench;
+
+import io.github.anon10w1z.anonlang.AnonLang;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a new JVM takes to print the first output of a trivial AnonLang file
+ */
+public final class StartupBenchmark {
+	/**
+	 * The number of runs that are not measured, so that the operating system has the JDK and the classes in its cache
+	 */
+	private static final int WARMUP_RUNS = 3;
+
+	private StartupBenchmark() {
+
+	}
+
+	/**
+	 * Measures the default startup, the fast start mode, and the fast start mode with a class data sharing archive if one is given,
+	 * and prints the minimum, median and 90th percentile time to first output of each
+	 * @param arguments The number of measured runs, the class path of the interpreter, the AnonLang file,
+	 *                  the line the file prints first, and optionally the class data sharing archive
+	 * @throws IOException          If a JVM could not be started
+	 * @throws InterruptedException If interrupted while waiting for a JVM
+	 */
+	public static void main(String[] arguments) throws IOException, InterruptedException {
+		if (arguments.length < 4)
+			throw new IllegalArgumentException("Usage: StartupBenchmark <runs> <class path> <file> <first output line> [archive]");
+		int runs = Integer.parseInt(arguments[0]);
+		String classPath = arguments[1];
+		String fileName = arguments[2];
+		String firstOutput = arguments[3];
+		String fastStart = "-D" + AnonLang.FAST_START_PROPERTY + "=true";
+		System.out.println("Time to first output of " + fileName + " over " + runs + " runs:");
+		benchmark("default", runs, classPath, fileName, firstOutput);
+		benchmark("fast start", runs, classPath, fileName, firstOutput, fastStart);
+		if (arguments.length > 4) {
+			if (!new File(arguments[4]).isFile())
+				throw new IllegalArgumentException("The archive " + arguments[4] + " does not exist");
+			benchmark("fast start with archive", runs, classPath, fileName, firstOutput, fastStart, "-XX:SharedArchiveFile=" + arguments[4]);
+		}
+	}
+
+	/**
+	 * Measures the time to first output with the given JVM options and prints its minimum, median and 90th percentile
+	 * @param name        The name of the configuration
+	 * @param runs        The number of measured runs
+	 * @param classPath   The class path of the interpreter
+	 * @param fileName    The AnonLang file
+	 * @param firstOutput The line the file prints first
+	 * @param jvmOptions  The options to pass to the JVMs
+	 * @throws IOException          If a JVM could not be started
+	 * @throws InterruptedException If interrupted while waiting for a JVM
+	 */
+	private static void benchmark(String name, int runs, String classPath, String fileName, String firstOutput, String... jvmOptions) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(Arrays.asList(jvmOptions));
+		command.add("-cp");
+		command.add(classPath);
+		command.add(AnonLang.class.getName());
+		command.add(fileName);
+		for (int i = 0; i < WARMUP_RUNS; ++i)
+			measure(command, firstOutput);
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; ++i)
+			times[i] = measure(command, firstOutput);
+		Arrays.sort(times);
+		System.out.println("\t" + name + ": min " + toMilliseconds(times[0]) + " ms, median " + toMilliseconds(times[runs / 2])
+				+ " ms, p90 " + toMilliseconds(times[Math.min(runs - 1, runs * 9 / 10)]) + " ms");
+	}
+
+	/**
+	 * Starts a JVM and measures how long it takes to print the given line
+	 * @param command     The command that starts the JVM
+	 * @param firstOutput The line to wait for
+	 * @return The time until the line was printed, in nanoseconds
+	 * @throws IOException          If the JVM could not be started
+	 * @throws InterruptedException If interrupted while waiting for the JVM
+	 */
+	private static long measure(List<String> command, String firstOutput) throws IOException, InterruptedException {
+		long startTime = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		long time = -1;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (time == -1 && line.equals(firstOutput))
+					time = System.nanoTime() - startTime;
+		}
+		process.waitFor();
+		if (time == -1)
+			throw new IllegalStateException("The file did not print " + firstOutput);
+		return time;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds with one decimal
+	 * @param nanoseconds The nanoseconds
+	 * @return The milliseconds
+	 */
+	private static String toMilliseconds(long nanoseconds) {
+		return String.format("%.1f", nanoseconds / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -0,0 +1,323 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.AnonLangException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a batch of AnonLang files in one JVM and writes a report of the results. <br>
+ * Every file gets its own global variables, an empty input and a buffer its output is captured in,
+ * so files do not affect each other however many are run at once. <br>
+ * Files run as sessions of an {@link AnonSessionScheduler}, so on virtual threads when the JDK has them.
+ */
+public final class AnonBatchRunner {
+	private AnonBatchRunner() {
+
+	}
+
+	/**
+	 * Runs every AnonLang file in a directory or listed in a manifest. <br>
+	 * Accepts the options {@code --jobs N} (the number of files to run at once) and {@code --report FILE}
+	 * (where to write the report, as JSON if the name ends with {@code .json} and as CSV otherwise). <br>
+	 * {@code --workers N} runs the files in N worker JVMs instead of in this one (see {@link WorkerPool}), in which case
+	 * {@code --worker-heap SIZE} sets the maximum heap size of each worker and {@code --timeout MILLISECONDS} fails
+	 * every file that runs for longer and kills its worker.
+	 * A manifest is a text file with one path per line, relative to the manifest; empty lines and lines starting with # are ignored.
+	 * @param arguments The options followed by the path to a directory or manifest
+	 */
+	public static void main(String[] arguments) {
+		int jobs = Runtime.getRuntime().availableProcessors();
+		Path reportPath = Paths.get("anonlang-report.csv");
+		Path batchPath = null;
+		int workers = 0;
+		String workerHeap = null;
+		long timeoutMillis = 0;
+		for (int i = 0; i < arguments.length; ++i) {
+			if (arguments[i].equals("--jobs") && i + 1 < arguments.length)
+				jobs = Integer.parseInt(arguments[++i]);
+			else if (arguments[i].equals("--report") && i + 1 < arguments.length)
+				reportPath = Paths.get(arguments[++i]);
+			else if (arguments[i].equals("--workers") && i + 1 < arguments.length)
+				workers = Integer.parseInt(arguments[++i]);
+			else if (arguments[i].equals("--worker-heap") && i + 1 < arguments.length)
+				workerHeap = arguments[++i];
+			else if (arguments[i].equals("--timeout") && i + 1 < arguments.length)
+				timeoutMillis = Long.parseLong(arguments[++i]);
+			else batchPath = Paths.get(arguments[i]);
+		}
+		if (batchPath == null)
+			throw new IllegalArgumentException("No directory or manifest specified");
+		try {
+			List<Path> scripts = findScripts(batchPath);
+			List<ScriptResult> results = workers > 0 ? WorkerPool.run(scripts, workers, workerHeap, timeoutMillis) : run(scripts, jobs);
+			writeReport(results, reportPath);
+			long failed = results.stream().filter(result -> !result.isSuccessful()).count();
+			System.out.println("Ran " + results.size() + " file(s): " + (results.size() - failed) + " succeeded, " + failed + " failed; report written to " + reportPath);
+			if (failed > 0)
+				System.exit(1);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Batch " + batchPath + " failed");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Finds the AnonLang files of a batch
+	 * @param batchPath The path to a directory, which is searched for {@code .anon} files, or to a manifest
+	 * @return The paths to the files, sorted if they were found in a directory and in manifest order otherwise
+	 * @throws IOException If the directory or manifest could not be read
+	 */
+	public static List<Path> findScripts(Path batchPath) throws IOException {
+		if (Files.isDirectory(batchPath)) {
+			try (Stream<Path> paths = Files.walk(batchPath)) {
+				return paths.filter(path -> path.toString().endsWith(".anon") && Files.isRegularFile(path)).sorted().collect(Collectors.toList());
+			}
+		}
+		Path directory = batchPath.toAbsolutePath().getParent();
+		List<Path> scripts = new ArrayList<>();
+		for (String line : Files.readAllLines(batchPath)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#"))
+				scripts.add(directory.resolve(line));
+		}
+		return scripts;
+	}
+
+	/**
+	 * Runs the given AnonLang files
+	 * @param scripts The paths to the files
+	 * @param jobs    The number of files to run at once
+	 * @return The result of each file, in the order the files were given
+	 */
+	public static List<ScriptResult> run(List<Path> scripts, int jobs) {
+		StatementCache statementCache = new StatementCache();
+		try (AnonSessionScheduler scheduler = new AnonSessionScheduler(new GlobalVariableStore(), jobs)) {
+			List<Future<ScriptResult>> futures = new ArrayList<>(scripts.size());
+			for (Path script : scripts)
+				futures.add(scheduler.submit(() -> runScript(script, statementCache)));
+			List<ScriptResult> results = new ArrayList<>(scripts.size());
+			for (int i = 0; i < futures.size(); ++i) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) { //a file that fails outside its interpreter only fails itself
+					results.add(ScriptResult.failed(scripts.get(i), e.getCause().toString(), 0));
+				}
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Runs a single AnonLang file with its own global variables, input and output
+	 * @param script         The path to the file
+	 * @param statementCache The statement cache shared by the batch
+	 * @return The result of the file
+	 */
+	static ScriptResult runScript(Path script, StatementCache statementCache) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		long startTime = System.nanoTime();
+		long statementsExecuted = 0;
+		String error = null;
+		try (PrintStream out = new PrintStream(output, false, "UTF-8")) {
+			AnonLang anonLang = new AnonLang(script.toString(), AnonLang.readLines(script), new GlobalVariableStore(), statementCache, new BufferedReader(new StringReader("")), out);
+			try {
+				anonLang.run();
+			} catch (AnonLangException e) {
+				error = e.getReport();
+			} catch (Throwable e) { //errors such as StackOverflowError fail only this file
+				error = e.toString();
+			} finally {
+				statementsExecuted = anonLang.getExecutionMeter().getStatementsExecuted();
+			}
+		} catch (IOException e) {
+			error = e.toString();
+		}
+		long duration = System.nanoTime() - startTime;
+		return new ScriptResult(script, error, duration, statementsExecuted, new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a report of the given results, as JSON if the report's name ends with {@code .json} and as CSV otherwise
+	 * @param results    The results
+	 * @param reportPath The path to the report
+	 * @throws IOException If the report could not be written
+	 */
+	public static void writeReport(List<ScriptResult> results, Path reportPath) throws IOException {
+		boolean json = reportPath.toString().toLowerCase().endsWith(".json");
+		try (Writer writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+			if (json) {
+				writer.write("[\n");
+				for (int i = 0; i < results.size(); ++i) {
+					ScriptResult result = results.get(i);
+					writer.write("  {\"file\": " + quoteJson(result.getScript().toString()) + ", \"status\": \"" + result.getStatus() + "\", \"durationMilliseconds\": "
+							+ result.getDurationMilliseconds() + ", \"statements\": " + result.getStatementsExecuted() + ", \"error\": "
+							+ (result.getError() == null ? "null" : quoteJson(result.getError())) + ", \"output\": " + quoteJson(result.getOutput()) + "}");
+					writer.write(i + 1 < results.size() ? ",\n" : "\n");
+				}
+				writer.write("]\n");
+			} else {
+				writer.write("file,status,duration_ms,statements,error,output\n");
+				for (ScriptResult result : results)
+					writer.write(quoteCsv(result.getScript().toString()) + ',' + result.getStatus() + ',' + result.getDurationMilliseconds() + ','
+							+ result.getStatementsExecuted() + ',' + quoteCsv(result.getError() == null ? "" : result.getError()) + ',' + quoteCsv(result.getOutput()) + '\n');
+			}
+		}
+	}
+
+	/**
+	 * Quotes a string as a CSV field
+	 * @param string The string
+	 * @return The quoted string
+	 */
+	private static String quoteCsv(String string) {
+		return '"' + string.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Quotes a string as a JSON string
+	 * @param string The string
+	 * @return The quoted string
+	 */
+	private static String quoteJson(String string) {
+		StringBuilder quoted = new StringBuilder(string.length() + 2).append('"');
+		for (int i = 0; i < string.length(); ++i) {
+			char character = string.charAt(i);
+			if (character == '"' || character == '\\')
+				quoted.append('\\').append(character);
+			else if (character == '\n')
+				quoted.append("\\n");
+			else if (character == '\r')
+				quoted.append("\\r");
+			else if (character == '\t')
+				quoted.append("\\t");
+			else if (character < ' ')
+				quoted.append(String.format("\\u%04x", (int) character));
+			else quoted.append(character);
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * The result of running a single AnonLang file
+	 */
+	public static final class ScriptResult {
+		/**
+		 * The path to the file
+		 */
+		private final Path script;
+		/**
+		 * The report of the failure of the file, or null if it succeeded
+		 */
+		private final String error;
+		/**
+		 * How long the file took to run, in nanoseconds
+		 */
+		private final long durationNanoseconds;
+		/**
+		 * The number of statements the file executed
+		 */
+		private final long statementsExecuted;
+		/**
+		 * The output of the file
+		 */
+		private final String output;
+
+		ScriptResult(Path script, String error, long durationNanoseconds, long statementsExecuted, String output) {
+			this.script = script;
+			this.error = error;
+			this.durationNanoseconds = durationNanoseconds;
+			this.statementsExecuted = statementsExecuted;
+			this.output = output;
+		}
+
+		/**
+		 * Returns the result of a file that failed without producing any output
+		 * @param script              The path to the file
+		 * @param error               The report of the failure
+		 * @param durationNanoseconds How long the file ran before it failed, in nanoseconds
+		 * @return The result
+		 */
+		static ScriptResult failed(Path script, String error, long durationNanoseconds) {
+			return new ScriptResult(script, error, durationNanoseconds, 0, "");
+		}
+
+		/**
+		 * Returns the path to the file
+		 * @return The path to the file
+		 */
+		public Path getScript() {
+			return script;
+		}
+
+		/**
+		 * Returns whether or not the file succeeded
+		 * @return Whether or not the file succeeded
+		 */
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		/**
+		 * Returns the status of the file as it appears in reports
+		 * @return {@code OK} or {@code FAILED}
+		 */
+		public String getStatus() {
+			return isSuccessful() ? "OK" : "FAILED";
+		}
+
+		/**
+		 * Returns the report of the failure of the file
+		 * @return The report of the failure, or null if the file succeeded
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * Returns how long the file took to run
+		 * @return How long the file took to run, in milliseconds
+		 */
+		public double getDurationMilliseconds() {
+			return durationNanoseconds / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		/**
+		 * Returns how long the file took to run
+		 * @return How long the file took to run, in nanoseconds
+		 */
+		public long getDurationNanoseconds() {
+			return durationNanoseconds;
+		}
+
+		/**
+		 * Returns the number of statements the file executed
+		 * @return The number of statements the file executed
+		 */
+		public long getStatementsExecuted() {
+			return statementsExecuted;
+		}
+
+		/**
+		 * Returns the output of the file
+		 * @return The output of the file
+		 */
+		public String getOutput() {
+			return output;
+		}
+	}
+}
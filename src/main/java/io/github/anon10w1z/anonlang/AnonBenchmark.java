@@ -0,0 +1,171 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs AnonLang files many times in one JVM and reports how long they take once the JIT has warmed up. <br>
+ * Every run gets its own global variables and statement cache, so each run does the same work a fresh JVM would,
+ * without the startup of the JVM being measured.
+ */
+public final class AnonBenchmark {
+	/**
+	 * The bean allocation is measured with, or null if the JVM cannot measure the allocation of a thread
+	 */
+	private static final com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+
+	private AnonBenchmark() {
+
+	}
+
+	/**
+	 * Runs each of the given files the given number of times and prints the latency of the runs after the warm-up runs. <br>
+	 * Accepts the options {@code --warmup N} (the number of runs to discard, a fifth of the runs by default),
+	 * {@code --input FILE} (the input every run reads, which is empty by default) and {@code --quiet} (discards the output
+	 * of the runs so that printing does not distort the latency).
+	 * @param arguments The number of runs, followed by the options and the paths to AnonLang files
+	 */
+	public static void main(String[] arguments) {
+		if (arguments.length == 0)
+			throw new IllegalArgumentException("No number of runs specified");
+		int runs = Integer.parseInt(arguments[0]);
+		if (runs <= 0)
+			throw new IllegalArgumentException("The number of runs must be positive");
+		int warmupRuns = -1;
+		String input = "";
+		boolean quiet = false;
+		List<Path> filePaths = new ArrayList<>();
+		for (int i = 1; i < arguments.length; ++i) {
+			if (arguments[i].equals("--warmup") && i + 1 < arguments.length)
+				warmupRuns = Integer.parseInt(arguments[++i]);
+			else if (arguments[i].equals("--input") && i + 1 < arguments.length) {
+				try {
+					input = new String(Files.readAllBytes(Paths.get(arguments[++i])), StandardCharsets.UTF_8);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else if (arguments[i].equals("--quiet"))
+				quiet = true;
+			else filePaths.add(Paths.get(arguments[i]));
+		}
+		if (filePaths.isEmpty())
+			throw new IllegalArgumentException("No AnonLang files specified");
+		if (warmupRuns < 0)
+			warmupRuns = runs / 5;
+		if (warmupRuns >= runs)
+			throw new IllegalArgumentException("The number of warm-up runs must be less than the number of runs");
+		PrintStream out = quiet ? new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+
+			}
+		}) : System.out;
+		for (Path filePath : filePaths)
+			benchmark(filePath, runs, warmupRuns, input, out);
+	}
+
+	/**
+	 * Runs the given file the given number of times and prints the latency of the runs after the warm-up runs
+	 * @param filePath   The path to the file
+	 * @param runs       The number of runs, including the warm-up runs
+	 * @param warmupRuns The number of runs to discard
+	 * @param input      The input every run reads
+	 * @param out        The stream the runs write their output to
+	 */
+	private static void benchmark(Path filePath, int runs, int warmupRuns, String input, PrintStream out) {
+		System.out.println("Starting benchmark of file " + filePath + " (" + runs + " runs, " + warmupRuns + " warm-up)");
+		long[] latencies = new long[runs - warmupRuns];
+		long statements = 0;
+		long allocatedBytes = 0;
+		AnonLang anonLang = null;
+		try {
+			List<String> lines = AnonLang.readLines(filePath);
+			for (int run = 0; run < runs; ++run) {
+				anonLang = new AnonLang(filePath.toString(), lines, new GlobalVariableStore(), new StatementCache(), new BufferedReader(new StringReader(input)), out);
+				long startAllocatedBytes = getAllocatedBytes();
+				long startTime = System.nanoTime();
+				anonLang.run();
+				long latency = System.nanoTime() - startTime;
+				long runAllocatedBytes = getAllocatedBytes() - startAllocatedBytes;
+				out.flush();
+				if (run < warmupRuns)
+					continue;
+				latencies[run - warmupRuns] = latency;
+				statements += anonLang.getExecutionMeter().getStatementsExecuted();
+				allocatedBytes += runAllocatedBytes;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (anonLang != null)
+				anonLang.getExecutionTrace().dump(System.err);
+			System.out.println("Benchmark of " + filePath + " failed");
+			return;
+		}
+		long totalLatency = 0;
+		for (long latency : latencies)
+			totalLatency += latency;
+		Arrays.sort(latencies);
+		System.out.println();
+		System.out.println("Finished benchmark of file " + filePath);
+		System.out.println("  latency: min " + formatMilliseconds(latencies[0]) + ", median " + formatMilliseconds(getPercentile(latencies, 50))
+				+ ", p99 " + formatMilliseconds(getPercentile(latencies, 99)) + ", max " + formatMilliseconds(latencies[latencies.length - 1]));
+		System.out.println("  statements per second: " + (totalLatency == 0 ? "n/a" : String.valueOf(Math.round(statements * 1e9 / totalLatency))));
+		System.out.println("  allocated bytes per run: " + (allocationBean == null ? "n/a" : String.valueOf(allocatedBytes / latencies.length)));
+	}
+
+	/**
+	 * Returns the given percentile of the given latencies, by the nearest-rank method
+	 * @param sortedLatencies The latencies, in ascending order
+	 * @param percentile      The percentile, from 1 to 100
+	 * @return The latency at the percentile
+	 */
+	private static long getPercentile(long[] sortedLatencies, int percentile) {
+		int rank = (int) Math.ceil(sortedLatencies.length * percentile / 100.0);
+		return sortedLatencies[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Formats the given number of nanoseconds as milliseconds
+	 * @param nanoseconds The number of nanoseconds
+	 * @return The number of milliseconds, with three decimals
+	 */
+	private static String formatMilliseconds(long nanoseconds) {
+		return String.format("%.3f ms", nanoseconds / 1e6);
+	}
+
+	/**
+	 * Returns the number of bytes the current thread has allocated
+	 * @return The number of bytes, or -1 if it cannot be measured
+	 */
+	private static long getAllocatedBytes() {
+		return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the bean allocation is measured with
+	 * @return The bean, or null if the JVM cannot measure the allocation of a thread
+	 */
+	private static com.sun.management.ThreadMXBean getAllocationBean() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!allocationBean.isThreadAllocatedMemorySupported())
+			return null;
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		return allocationBean;
+	}
+}
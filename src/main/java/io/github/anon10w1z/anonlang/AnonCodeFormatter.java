@@ -1,53 +1,223 @@
 package io.github.anon10w1z.anonlang;
 
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Formats code written in AnonLang
  */
 public final class AnonCodeFormatter {
+	/**
+	 * The algorithm used to compare formatted output with the original source
+	 */
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
 	private AnonCodeFormatter() {
 
 	}
 
+	/**
+	 * Formats each of the given AnonLang files in parallel. <br>
+	 * Accepts the options {@code --check} (report files that need formatting without writing anything)
+	 * and {@code --jobs N} (the number of files to format at once).
+	 * @param arguments The options followed by the paths to AnonLang files
+	 */
 	public static void main(String[] arguments) {
-		if (arguments.length == 0)
+		boolean checkOnly = false;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		List<String> fileNames = new ArrayList<>();
+		for (int i = 0; i < arguments.length; ++i) {
+			if (arguments[i].equals("--check"))
+				checkOnly = true;
+			else if (arguments[i].equals("--jobs") && i + 1 < arguments.length)
+				jobs = Integer.parseInt(arguments[++i]);
+			else fileNames.add(arguments[i]);
+		}
+		if (fileNames.isEmpty())
 			throw new IllegalArgumentException("No AnonLang files specified");
-		for (String fileName : arguments) {
-			System.out.println("Starting formatting of file " + fileName);
-			try {
-				Path filePath = Paths.get(fileName);
-				String linesCombined = String.join("", Files.readAllLines(filePath));
-				String[] linesSplit = linesCombined.split(";");
-				List<String> linesList = new ArrayList<>();
-				for (String line : linesSplit)
-					linesList.add(line.trim());
-				PrintWriter writer = new PrintWriter(filePath.toFile());
-				writer.print(""); //empty the file
-				String lastWritten = "";
-				for (String line : linesList) {
-					String toWrite = line + ';';
-					if (lastWritten.trim().startsWith("repeat")) {
-						String tabs = "\t";
-						int tabCount = lastWritten.length() - lastWritten.replaceAll("\t", "").length();
-						for (int i = 0; i < tabCount; ++i)
-							tabs += '\t';
-						toWrite = tabs + line + ';';
+		int unformatted = format(fileNames, checkOnly, jobs);
+		if (checkOnly && unformatted > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Formats the given AnonLang files, reporting the result for each file in the order they were given
+	 * @param fileNames The paths to the AnonLang files
+	 * @param checkOnly Whether or not to only check the files instead of rewriting them
+	 * @param jobs      The number of files to format at once
+	 * @return The number of files that were not already formatted or could not be formatted
+	 */
+	public static int format(List<String> fileNames, boolean checkOnly, int jobs) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, fileNames.size())));
+		try {
+			List<Future<Boolean>> results = new ArrayList<>(fileNames.size());
+			for (String fileName : fileNames)
+				results.add(executor.submit(() -> formatFile(Paths.get(fileName), checkOnly)));
+			int unformatted = 0;
+			for (int i = 0; i < fileNames.size(); ++i) {
+				String fileName = fileNames.get(i);
+				try {
+					boolean alreadyFormatted = results.get(i).get();
+					if (alreadyFormatted)
+						System.out.println("File " + fileName + " is already formatted");
+					else {
+						++unformatted;
+						System.out.println(checkOnly ? "File " + fileName + " needs formatting" : "Finished formatting of file " + fileName);
 					}
-					writer.println(toWrite);
-					lastWritten = toWrite;
+				} catch (Exception e) {
+					++unformatted;
+					(e.getCause() == null ? e : e.getCause()).printStackTrace();
+					System.out.println("Formatting of file " + fileName + " failed");
 				}
-				writer.close();
-				System.out.println("Finished formatting of file " + fileName);
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.out.println("Formatting of file " + fileName + " failed");
 			}
+			return unformatted;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Formats a single file. <br>
+	 * The formatted code is streamed to a temporary file next to the original, which then atomically replaces the original
+	 * only if its hash differs from the hash of the original.
+	 * @param filePath  The path to the file to format
+	 * @param checkOnly Whether or not to only check the file instead of rewriting it
+	 * @return Whether or not the file was already formatted
+	 * @throws IOException If the file could not be read or written
+	 */
+	private static boolean formatFile(Path filePath, boolean checkOnly) throws IOException {
+		Path tempPath = checkOnly ? null : Files.createTempFile(filePath.toAbsolutePath().getParent(), "." + filePath.getFileName(), ".tmp");
+		try {
+			MessageDigest sourceDigest = newDigest();
+			MessageDigest formattedDigest = newDigest();
+			OutputStream sink = checkOnly ? new OutputStream() {
+				@Override
+				public void write(int b) {
+					//only the digest is needed
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					//only the digest is needed
+				}
+			} : Files.newOutputStream(tempPath);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new DigestInputStream(Files.newInputStream(filePath), sourceDigest), StandardCharsets.UTF_8));
+			     Writer writer = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(sink, formattedDigest), StandardCharsets.UTF_8))) {
+				formatStream(reader, writer);
+			}
+			if (MessageDigest.isEqual(sourceDigest.digest(), formattedDigest.digest()))
+				return true;
+			if (!checkOnly) {
+				copyPermissions(filePath, tempPath);
+				try {
+					Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			return false;
+		} finally {
+			if (tempPath != null)
+				Files.deleteIfExists(tempPath);
+		}
+	}
+
+	/**
+	 * Reads AnonLang code from the given reader and writes the formatted code to the given writer. <br>
+	 * Lines are joined and split at semicolons exactly as the interpreter does, one statement at a time.
+	 * @param reader The reader to read the code from
+	 * @param writer The writer to write the formatted code to
+	 * @throws IOException If the code could not be read or written
+	 */
+	private static void formatStream(BufferedReader reader, Writer writer) throws IOException {
+		StringBuilder statement = new StringBuilder();
+		int pendingEmptyStatements = 0; //trailing empty statements are dropped, like String.split does
+		boolean foundSeparator = false;
+		String lastWritten = "";
+		String line;
+		while ((line = reader.readLine()) != null) {
+			for (int i = 0; i < line.length(); ++i) {
+				char c = line.charAt(i);
+				if (c != ';') {
+					statement.append(c);
+					continue;
+				}
+				foundSeparator = true;
+				if (statement.length() == 0) {
+					++pendingEmptyStatements;
+					continue;
+				}
+				for (; pendingEmptyStatements > 0; --pendingEmptyStatements)
+					lastWritten = writeStatement(writer, "", lastWritten);
+				lastWritten = writeStatement(writer, statement.toString().trim(), lastWritten);
+				statement.setLength(0);
+			}
+		}
+		if (statement.length() > 0 || !foundSeparator) {
+			for (; pendingEmptyStatements > 0; --pendingEmptyStatements)
+				lastWritten = writeStatement(writer, "", lastWritten);
+			writeStatement(writer, statement.toString().trim(), lastWritten);
+		}
+	}
+
+	/**
+	 * Writes a single formatted statement, indenting it if it is the body of a repeat statement
+	 * @param writer      The writer to write the statement to
+	 * @param line        The trimmed statement
+	 * @param lastWritten The previously written line
+	 * @return The line that was written
+	 * @throws IOException If the statement could not be written
+	 */
+	private static String writeStatement(Writer writer, String line, String lastWritten) throws IOException {
+		String toWrite = line + ';';
+		if (lastWritten.trim().startsWith("repeat")) {
+			int tabCount = 0;
+			for (int i = 0; i < lastWritten.length(); ++i)
+				if (lastWritten.charAt(i) == '\t')
+					++tabCount;
+			char[] tabs = new char[tabCount + 1];
+			Arrays.fill(tabs, '\t');
+			toWrite = new String(tabs) + toWrite;
+		}
+		writer.write(toWrite);
+		writer.write(System.lineSeparator());
+		return toWrite;
+	}
+
+	/**
+	 * Gives the temporary file the same permissions as the original file, where the file system supports it
+	 * @param original The original file
+	 * @param temp     The temporary file
+	 * @throws IOException If the permissions could not be read or written
+	 */
+	private static void copyPermissions(Path original, Path temp) throws IOException {
+		try {
+			Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(original));
+		} catch (UnsupportedOperationException e) {
+			//not a POSIX file system
+		}
+	}
+
+	/**
+	 * Creates a new message digest for comparing files
+	 * @return A new message digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
 		}
 	}
 }
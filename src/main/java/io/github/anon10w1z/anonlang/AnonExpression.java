@@ -25,445 +25,1352 @@ package io.github.anon10w1z.anonlang;
  * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import io.github.anon10w1z.anonlang.exceptions.BudgetExceededException;
+import io.github.anon10w1z.anonlang.exceptions.MalformedFunctionException;
+import io.github.anon10w1z.anonlang.metrics.AnonMetrics;
+import io.github.anon10w1z.anonlang.metrics.LatencyHistogram;
+
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 /**
+ * A compiled expression. <br>
+ * Expression strings are compiled once into a program of instructions, which is cached and evaluated on a
+ * reusable per-thread operand stack, so evaluating a cached expression allocates nothing but its results. <br>
+ * Expressions may also call {@link UserFunctions user-defined functions}, whose bodies are compiled once when they are
+ * defined. The body of a small function is copied into the program of every expression that calls it; a larger body is
+ * executed in a frame on the same operand stack, on top of the arguments of the call. <br>
+ * The reductions {@code sum}, {@code product}, {@code count}, {@code maxOf} and {@code minOf} take the form
+ * {@code sum(i, from, to, expression)}. The expression is compiled once, as a body whose last parameter is {@code i}, and
+ * evaluated for every integer from {@code from} to {@code to} in a loop inside a single instruction. <br>
+ * Comparisons evaluate to 1 or 0. {@code if(condition, then, else)}, {@code and} and {@code or} are compiled to jumps, so
+ * the operand or branch that is not needed is never evaluated; {@code and} and {@code or} also evaluate to 1 or 0.
  * @author Udo Klimaschewski and Anon10W1z
  */
 public final class AnonExpression {
 	/**
 	 * The math context used for computation
 	 */
-	private static MathContext mathContext = MathContext.DECIMAL32;
+	private static final MathContext mathContext = MathContext.DECIMAL32;
+	/**
+	 * The math context products of reductions are computed with once they no longer fit in a long, before they are
+	 * rounded to {@link #mathContext}
+	 */
+	private static final MathContext productMathContext = MathContext.DECIMAL128;
 	/**
 	 * The decimal separator
 	 */
-	private final char DECIMAL_SEPARATOR = '.';
+	private static final char DECIMAL_SEPARATOR = '.';
 	/**
 	 * The minus sign
 	 */
-	private final char MINUS_SIGN = '-';
+	private static final char MINUS_SIGN = '-';
+	/**
+	 * The maximum number of compiled expressions to cache before the cache is cleared
+	 */
+	private static final int MAXIMUM_CACHE_SIZE = 4096;
+	/**
+	 * The maximum length of expression strings whose compiled form is cached
+	 */
+	private static final int MAXIMUM_CACHED_LENGTH = 256;
+	/**
+	 * The most instructions the body of a user-defined function may have for it to be inlined at call sites
+	 */
+	private static final int MAXIMUM_INLINED_INSTRUCTIONS = 16;
+	/**
+	 * The most values the range of a reduction may have
+	 */
+	private static final long MAXIMUM_RANGE_LENGTH = Integer.MAX_VALUE;
+	/**
+	 * The number of evaluations of the body of a reduction between checks of the budget, which is a power of two
+	 */
+	private static final int BUDGET_CHECK_INTERVAL = 1024;
+	/**
+	 * The magnitude from which integers may have more digits than the precision of {@link #mathContext}
+	 */
+	private static final long EXACT_LIMIT = BigDecimal.ONE.movePointRight(mathContext.getPrecision()).longValueExact();
+	/**
+	 * The result of an operator applied to longs whose decimal result would be rounded
+	 */
+	private static final long NOT_EXACT = Long.MIN_VALUE;
 	/**
-	 * The expression string to evaluate
+	 * The precedence of {@code and}, which is lower than that of every operator
 	 */
-	private String expression = null;
+	private static final int AND_PRECEDENCE = 6;
 	/**
-	 * The components of the expression
+	 * The precedence of {@code or}, which is lower than that of {@code and}
 	 */
-	private List<String> rpn = null;
+	private static final int OR_PRECEDENCE = 5;
 
 	/**
-	 * A map of operator names to operators
+	 * The instruction that pushes its operand onto the stack
+	 */
+	private static final int PUSH = 0;
+	/**
+	 * The instruction that applies its operator to the top two values of the stack
+	 */
+	private static final int APPLY_OPERATOR = 1;
+	/**
+	 * The instruction that calls its function with the top values of the stack
+	 */
+	private static final int CALL_FUNCTION = 2;
+	/**
+	 * The instruction that makes the evaluation fail
+	 */
+	private static final int FAIL = 3;
+	/**
+	 * The instruction that calls its user-defined function with the top values of the stack
+	 */
+	private static final int CALL_USER_FUNCTION = 4;
+	/**
+	 * The instruction that pushes a copy of the value its operand number of values below the top of the stack, which is
+	 * how the body of a user-defined function reads its parameters
+	 */
+	private static final int LOAD = 5;
+	/**
+	 * The instruction that removes its operand number of values from below the top value of the stack, which is how an
+	 * inlined user-defined function removes its arguments
+	 */
+	private static final int DISCARD_ARGUMENTS = 6;
+	/**
+	 * The instruction that pushes the parameter whose index is its operand, which only exists during compilation and
+	 * is replaced by {@link #LOAD} once the depth of the stack is known
+	 */
+	private static final int LOAD_PARAMETER = 7;
+	/**
+	 * The instruction that applies its reduction to the range given by the top two values of the stack
+	 */
+	private static final int REDUCE = 8;
+	/**
+	 * The instruction that skips the number of instructions given by its operand. <br>
+	 * It ends the first of two branches, so its stack effect counts as removing the value of that branch, since the value
+	 * of the branch it skips takes its place.
+	 */
+	private static final int JUMP = 9;
+	/**
+	 * The instruction that removes the top value of the stack and skips the number of instructions given by its operand
+	 * if the value is zero
 	 */
-	private Map<String, Operator> operators = new HashMap<>();
+	private static final int JUMP_IF_FALSE = 10;
 	/**
-	 * A map of function names to functions
+	 * The instruction that replaces the top value of the stack with 1 if it is not zero and with 0 if it is
 	 */
-	private Map<String, Function> functions = new HashMap<>();
+	private static final int TEST = 11;
 
 	/**
-	 * Constructs a new expression
-	 * @param expression The expression string to evaluate
+	 * The exception thrown when an evaluation fails, which is never shown and so has no stack trace
 	 */
-	private AnonExpression(String expression) {
-		this.expression = expression;
-		addOperator(new Operator("+", 20, true) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				return num1.add(num2, mathContext);
-			}
-		});
-		addOperator(new Operator("-", 20, true) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				return num1.subtract(num2, mathContext);
-			}
-		});
-		addOperator(new Operator("*", 30, true) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				return num1.multiply(num2, mathContext);
-			}
-		});
-		addOperator(new Operator("/", 30, true) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				return num1.divide(num2, mathContext);
-			}
-		});
-		addOperator(new Operator("%", 30, true) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				return num1.remainder(num2, mathContext);
-			}
-		});
-		addOperator(new Operator("^", 40, false) {
-			@Override
-			public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
-				int signOf2 = num2.signum();
-				double dn1 = num1.doubleValue();
-				num2 = num2.multiply(new BigDecimal(signOf2));
-				BigDecimal remainderOf2 = num2.remainder(BigDecimal.ONE);
-				BigDecimal n2IntPart = num2.subtract(remainderOf2);
-				BigDecimal intPow = num1.pow(n2IntPart.intValueExact(), mathContext);
-				BigDecimal doublePow = new BigDecimal(Math.pow(dn1, remainderOf2.doubleValue()));
-
-				BigDecimal result = intPow.multiply(doublePow, mathContext);
-				if (signOf2 == -1)
-					result = BigDecimal.ONE.divide(result, mathContext.getPrecision(), RoundingMode.HALF_UP);
-				return result;
-			}
-		});
+	private static final RuntimeException EVALUATION_FAILURE = new RuntimeException("Evaluation failed", null, false, false) {
+	};
+	/**
+	 * The compiled form of expression strings that are not valid expressions
+	 */
+	private static final AnonExpression INVALID = new AnonExpression(new int[0], new Object[0], 0, null);
+	/**
+	 * The marker of an opening parenthesis on the operator stack during compilation
+	 */
+	private static final Object OPENING_PARENTHESIS = new Object();
+	/**
+	 * The marker of an identifier that is not a function on the operator stack during compilation
+	 */
+	private static final Object UNKNOWN_IDENTIFIER = new Object();
 
-		addFunction(new Function("random", 0) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.random();
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("randomBetween", 2) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double rangeMin = getBigDecimalList(parameters).get(0).doubleValue();
-				double rangeMax = getBigDecimalList(parameters).get(1).doubleValue();
-				double d = rangeMin + (rangeMax - rangeMin) * Math.random();
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("sin", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.sin(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("cos", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.cos(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("tan", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.tan(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("sinh", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.sinh(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("cosh", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.cosh(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("tanh", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.tanh(Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue()));
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("rad", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.toRadians(getBigDecimalList(parameters).get(0).doubleValue());
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("deg", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				double d = Math.toDegrees(getBigDecimalList(parameters).get(0).doubleValue());
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("max", 2) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				List<BigDecimal> bigDecimalList = getBigDecimalList(parameters);
-				BigDecimal v1 = bigDecimalList.get(0);
-				BigDecimal v2 = bigDecimalList.get(1);
-				return v1.compareTo(v2) > 0 ? v1 : v2;
-			}
-		});
-		addFunction(new Function("min", 2) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				List<BigDecimal> bigDecimalList = getBigDecimalList(parameters);
-				BigDecimal v1 = bigDecimalList.get(0);
-				BigDecimal v2 = bigDecimalList.get(1);
-				return v1.compareTo(v2) < 0 ? v1 : v2;
-			}
-		});
-		addFunction(new Function("abs", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				return getBigDecimalList(parameters).get(0).abs(mathContext);
-			}
-		});
-		addFunction(new Function("log", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				List<BigDecimal> bigDecimalList = getBigDecimalList(parameters);
-				double d = Math.log(bigDecimalList.get(0).doubleValue());
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("log10", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				List<BigDecimal> bigDecimalList = getBigDecimalList(parameters);
-				double d = Math.log10(bigDecimalList.get(0).doubleValue());
-				return new BigDecimal(d, mathContext);
-			}
-		});
-		addFunction(new Function("round", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				BigDecimal toRound = getBigDecimalList(parameters).get(0);
-				return toRound.setScale(0, mathContext.getRoundingMode());
-			}
-		});
-		addFunction(new Function("floor", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				List<BigDecimal> bigDecimalList = getBigDecimalList(parameters);
-				BigDecimal toRound = new BigDecimal(bigDecimalList.get(0).toPlainString(), mathContext);
-				return toRound.setScale(0, RoundingMode.FLOOR);
-			}
-		});
-		addFunction(new Function("ceiling", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				BigDecimal toRound = getBigDecimalList(parameters).get(0);
-				return toRound.setScale(0, RoundingMode.CEILING);
-			}
-		});
-		addFunction(new Function("sqrt", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				BigDecimal x = getBigDecimalList(parameters).get(0);
-				if (x.compareTo(BigDecimal.ZERO) == 0)
-					return new BigDecimal(0);
-				BigInteger n = x.movePointRight(mathContext.getPrecision() << 1).toBigInteger();
-
-				int bits = (n.bitLength() + 1) >> 1;
-				BigInteger ix = n.shiftRight(bits);
-				BigInteger ixPrev;
-
-				do {
-					ixPrev = ix;
-					ix = ix.add(n.divide(ix)).shiftRight(1);
-					Thread.yield();
-				} while (ix.compareTo(ixPrev) != 0);
-
-				return new BigDecimal(ix, mathContext.getPrecision());
-			}
-		});
-		addFunction(new Function("evaluate", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				return parameters.get(0);
-			}
-		});
-		addFunction(new Function("read", 0) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				try {
-					return new Scanner(System.in).next();
-				} catch (Exception e) {
-					return BigDecimal.ZERO;
-				}
-			}
-		});
-		addFunction(new Function("parse", 1) {
-			@Override
-			public Object evaluate(List<Object> parameters) {
-				String toParse = parameters.get(0).toString();
-				try {
-					return Integer.parseInt(toParse);
-				} catch (Exception e) {
-					try {
-						return Double.parseDouble(toParse);
-					} catch (Exception e1) {
-						return toParse;
+	/**
+	 * The operators as strings, in the order of {@link #createOperator(int)}
+	 */
+	private static final String[] OPERATOR_NAMES = {"+", "-", "*", "/", "%", "^", "<", ">", "<=", ">=", "==", "!="};
+	/**
+	 * The upper case names of the functions, in the order of {@link #createFunction(int)}
+	 */
+	private static final String[] FUNCTION_NAMES = {"RANDOM", "RANDOMBETWEEN", "SIN", "COS", "TAN", "SINH", "COSH", "TANH", "RAD", "DEG", "MAX", "MIN", "ABS", "LOG", "LOG10", "ROUND", "FLOOR", "CEILING", "SQRT", "EVALUATE", "READ", "PARSE"};
+	/**
+	 * The upper case names of the reductions, in the order of {@link Reduction#reduce(Object[], int, long, long)}
+	 */
+	private static final String[] REDUCTION_NAMES = {"SUM", "PRODUCT", "COUNT", "MAXOF", "MINOF"};
+	/**
+	 * The upper case words that compile to jumps, which can name neither functions nor parameters
+	 */
+	private static final String[] CONDITIONAL_WORDS = {"IF", "AND", "OR"};
+	/**
+	 * The operators, each of which is null until an expression first uses it
+	 */
+	private static final Operator[] operators = new Operator[OPERATOR_NAMES.length];
+	/**
+	 * The functions, each of which is null until an expression first uses it
+	 */
+	private static final Function[] functions = new Function[FUNCTION_NAMES.length];
+	/**
+	 * Maps expression strings to their compiled forms
+	 */
+	private static final ConcurrentMap<String, AnonExpression> expressionCache = new ConcurrentHashMap<>();
+	/**
+	 * The operand stack of each thread
+	 */
+	private static final ThreadLocal<OperandStack> operandStacks = ThreadLocal.withInitial(OperandStack::new);
+	/**
+	 * The input the read function reads lines from on each thread, which is that of the interpreter running on it
+	 */
+	private static final ThreadLocal<Supplier<String>> inputs = new ThreadLocal<>();
+	/**
+	 * The meter the evaluations of the bodies of reductions are counted by on each thread, which is that of the
+	 * interpreter running on it
+	 */
+	private static final ThreadLocal<ExecutionMeter> executionMeters = new ThreadLocal<>();
+
+	/**
+	 * The instructions of this expression
+	 */
+	private final int[] instructions;
+	/**
+	 * The operand of each instruction
+	 */
+	private final Object[] operands;
+	/**
+	 * The maximum number of values on the stack while evaluating this expression
+	 */
+	private final int maximumDepth;
+	/**
+	 * Whether each slot of this expression is read negated, because the minus sign before it is part of its number, or
+	 * null if this expression has no slots
+	 */
+	private final boolean[] negatedSlots;
+
+	/**
+	 * Creates the operator with the given index
+	 * @param index The index of the operator in {@link #OPERATOR_NAMES}
+	 * @return The new operator
+	 */
+	private static Operator createOperator(int index) {
+		switch (index) {
+			case 0:
+				return new Operator("+", 20, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.add(num2, mathContext);
 					}
-				}
-			}
-		});
+				};
+			case 1:
+				return new Operator("-", 20, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.subtract(num2, mathContext);
+					}
+				};
+			case 2:
+				return new Operator("*", 30, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.multiply(num2, mathContext);
+					}
+				};
+			case 3:
+				return new Operator("/", 30, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.divide(num2, mathContext);
+					}
+				};
+			case 4:
+				return new Operator("%", 30, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.remainder(num2, mathContext);
+					}
+				};
+			case 5:
+				return new Operator("^", 40, false) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						int signOf2 = num2.signum();
+						double dn1 = num1.doubleValue();
+						num2 = num2.multiply(new BigDecimal(signOf2));
+						BigDecimal remainderOf2 = num2.remainder(BigDecimal.ONE);
+						BigDecimal n2IntPart = num2.subtract(remainderOf2);
+						BigDecimal intPow = num1.pow(n2IntPart.intValueExact(), mathContext);
+						BigDecimal doublePow = new BigDecimal(Math.pow(dn1, remainderOf2.doubleValue()));
+
+						BigDecimal result = intPow.multiply(doublePow, mathContext);
+						if (signOf2 == -1)
+							result = BigDecimal.ONE.divide(result, mathContext.getPrecision(), RoundingMode.HALF_UP);
+						return result;
+					}
+				};
+			case 6:
+				return new Operator("<", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) < 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			case 7:
+				return new Operator(">", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) > 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			case 8:
+				return new Operator("<=", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) <= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			case 9:
+				return new Operator(">=", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) >= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			case 10:
+				return new Operator("==", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			case 11:
+				return new Operator("!=", 10, true) {
+					@Override
+					public BigDecimal evaluate(BigDecimal num1, BigDecimal num2) {
+						return num1.compareTo(num2) != 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+					}
+				};
+			default:
+				throw new IndexOutOfBoundsException("There is no operator #" + index);
+		}
+	}
+
+	/**
+	 * Creates the function with the given index
+	 * @param index The index of the function in {@link #FUNCTION_NAMES}
+	 * @return The new function
+	 */
+	private static Function createFunction(int index) {
+		switch (index) {
+			case 0:
+				return new Function("random", 0) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.random();
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 1:
+				return new Function("randomBetween", 2) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double rangeMin = getBigDecimal(parameters, offset, 0).doubleValue();
+						double rangeMax = getBigDecimal(parameters, offset, 1).doubleValue();
+						double d = rangeMin + (rangeMax - rangeMin) * Math.random();
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 2:
+				return new Function("sin", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.sin(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 3:
+				return new Function("cos", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.cos(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 4:
+				return new Function("tan", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.tan(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 5:
+				return new Function("sinh", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.sinh(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 6:
+				return new Function("cosh", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.cosh(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 7:
+				return new Function("tanh", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.tanh(Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue()));
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 8:
+				return new Function("rad", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.toRadians(getBigDecimal(parameters, offset, 0).doubleValue());
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 9:
+				return new Function("deg", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.toDegrees(getBigDecimal(parameters, offset, 0).doubleValue());
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 10:
+				return new Function("max", 2) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal v1 = getBigDecimal(parameters, offset, 0);
+						BigDecimal v2 = getBigDecimal(parameters, offset, 1);
+						return v1.compareTo(v2) > 0 ? v1 : v2;
+					}
+				};
+			case 11:
+				return new Function("min", 2) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal v1 = getBigDecimal(parameters, offset, 0);
+						BigDecimal v2 = getBigDecimal(parameters, offset, 1);
+						return v1.compareTo(v2) < 0 ? v1 : v2;
+					}
+				};
+			case 12:
+				return new Function("abs", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						return getBigDecimal(parameters, offset, 0).abs(mathContext);
+					}
+				};
+			case 13:
+				return new Function("log", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.log(getBigDecimal(parameters, offset, 0).doubleValue());
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 14:
+				return new Function("log10", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						double d = Math.log10(getBigDecimal(parameters, offset, 0).doubleValue());
+						return new BigDecimal(d, mathContext);
+					}
+				};
+			case 15:
+				return new Function("round", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal toRound = getBigDecimal(parameters, offset, 0);
+						return toRound.setScale(0, mathContext.getRoundingMode());
+					}
+				};
+			case 16:
+				return new Function("floor", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal toRound = new BigDecimal(getBigDecimal(parameters, offset, 0).toPlainString(), mathContext);
+						return toRound.setScale(0, RoundingMode.FLOOR);
+					}
+				};
+			case 17:
+				return new Function("ceiling", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal toRound = getBigDecimal(parameters, offset, 0);
+						return toRound.setScale(0, RoundingMode.CEILING);
+					}
+				};
+			case 18:
+				return new Function("sqrt", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						BigDecimal x = getBigDecimal(parameters, offset, 0);
+						if (x.compareTo(BigDecimal.ZERO) == 0)
+							return new BigDecimal(0);
+						BigInteger n = x.movePointRight(mathContext.getPrecision() << 1).toBigInteger();
+
+						int bits = (n.bitLength() + 1) >> 1;
+						BigInteger ix = n.shiftRight(bits);
+						BigInteger ixPrev;
+
+						do {
+							ixPrev = ix;
+							ix = ix.add(n.divide(ix)).shiftRight(1);
+						} while (ix.compareTo(ixPrev) != 0);
+
+						return new BigDecimal(ix, mathContext.getPrecision());
+					}
+				};
+			case 19:
+				return new Function("evaluate", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						return parameters[offset];
+					}
+				};
+			case 20:
+				return new Function("read", 0) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						try {
+							Supplier<String> input = inputs.get();
+							String line = input == null ? null : input.get();
+							return line == null ? BigDecimal.ZERO : line;
+						} catch (Exception e) {
+							return BigDecimal.ZERO;
+						}
+					}
+				};
+			case 21:
+				return new Function("parse", 1) {
+					@Override
+					public Object evaluate(Object[] parameters, int offset) {
+						String toParse = parameters[offset].toString();
+						try {
+							return Integer.parseInt(toParse);
+						} catch (Exception e) {
+							try {
+								return Double.parseDouble(toParse);
+							} catch (Exception e1) {
+								return toParse;
+							}
+						}
+					}
+				};
+			default:
+				throw new IndexOutOfBoundsException("There is no function #" + index);
+		}
+	}
+
+	/**
+	 * Constructs a compiled expression
+	 * @param instructions The instructions of the expression
+	 * @param operands     The operand of each instruction
+	 * @param maximumDepth The maximum number of values on the stack while evaluating the expression
+	 * @param negatedSlots Whether each slot of the expression is read negated, or null if it has no slots
+	 */
+	private AnonExpression(int[] instructions, Object[] operands, int maximumDepth, boolean[] negatedSlots) {
+		this.instructions = instructions;
+		this.operands = operands;
+		this.maximumDepth = maximumDepth;
+		this.negatedSlots = negatedSlots;
 	}
 
 	/**
 	 * Evaluates the given expression string and returns the result
 	 * @param expression The expression string to evaluate
-	 * @return The result of the evaluation
+	 * @return The result of the evaluation, or the expression string itself if it is not a valid expression
 	 */
 	public static String evaluate(String expression) {
+		return evaluate(expression, null);
+	}
+
+	/**
+	 * Evaluates the given expression string, which may call the given user-defined functions, and returns the result
+	 * @param expression    The expression string to evaluate
+	 * @param userFunctions The user-defined functions the expression may call, or null if there are none
+	 * @return The result of the evaluation, or the expression string itself if it is not a valid expression
+	 */
+	public static String evaluate(String expression, UserFunctions userFunctions) {
+		if (userFunctions != null && userFunctions.functions.isEmpty())
+			userFunctions = null;
+		Map<String, AnonExpression> cache = userFunctions == null ? expressionCache : userFunctions.expressionCache;
+		AnonExpression compiledExpression = cache.get(expression);
+		AnonMetrics.recordExpressionEvaluated(compiledExpression != null);
+		if (compiledExpression == null) {
+			try {
+				compiledExpression = compile(expression, null, userFunctions);
+			} catch (Exception e) {
+				compiledExpression = INVALID;
+			}
+			if (expression.length() <= MAXIMUM_CACHED_LENGTH) {
+				if (cache.size() >= MAXIMUM_CACHE_SIZE)
+					cache.clear();
+				cache.put(expression, compiledExpression);
+			}
+		}
+		if (compiledExpression == INVALID)
+			return expression;
 		try {
-			return new AnonExpression(expression).evaluate();
+			return compiledExpression.evaluate();
+		} catch (BudgetExceededException e) {
+			throw e;
 		} catch (Exception e) {
 			return expression;
 		}
 	}
 
 	/**
-	 * Returns whether or not the given string is a number
-	 * @param string The string to test
-	 * @return Whether or not the given string is a number
+	 * Returns whether or not the given token is a number
+	 * @param input The string containing the token
+	 * @param start The index of the first character of the token
+	 * @param end   The index after the last character of the token
+	 * @return Whether or not the token is a number
 	 */
-	private boolean isNumber(String string) {
-		if (string.charAt(0) == MINUS_SIGN && string.length() == 1)
+	private static boolean isNumber(String input, int start, int end) {
+		if (input.charAt(start) == MINUS_SIGN && end - start == 1)
 			return false;
-		for (char c : string.toCharArray())
+		for (int i = start; i < end; ++i) {
+			char c = input.charAt(i);
 			if (!Character.isDigit(c) && c != MINUS_SIGN && c != DECIMAL_SEPARATOR)
 				return false;
+		}
 		return true;
 	}
 
 	/**
-	 * Converts the given expression string to an RPN expression
-	 * @param expression The expression string to evaluate
-	 * @return The result of the evaluation
+	 * Returns the operator the given token stands for
+	 * @param input The string containing the token
+	 * @param start The index of the first character of the token
+	 * @param end   The index after the last character of the token
+	 * @return The operator, or null if the token is not an operator
+	 */
+	private static Operator findOperator(String input, int start, int end) {
+		for (int i = 0; i < OPERATOR_NAMES.length; ++i)
+			if (OPERATOR_NAMES[i].length() == end - start && input.startsWith(OPERATOR_NAMES[i], start))
+				return getOperator(i);
+		return null;
+	}
+
+	/**
+	 * Returns the function the given token names, ignoring case
+	 * @param input The string containing the token
+	 * @param start The index of the first character of the token
+	 * @param end   The index after the last character of the token
+	 * @return The function, or null if the token does not name a function
+	 */
+	private static Function findFunction(String input, int start, int end) {
+		for (int i = 0; i < FUNCTION_NAMES.length; ++i)
+			if (FUNCTION_NAMES[i].length() == end - start && input.regionMatches(true, start, FUNCTION_NAMES[i], 0, end - start))
+				return getFunction(i);
+		return null;
+	}
+
+	/**
+	 * Returns the index of the reduction the given token names, ignoring case
+	 * @param input The string containing the token
+	 * @param start The index of the first character of the token
+	 * @param end   The index after the last character of the token
+	 * @return The index of the reduction in {@link #REDUCTION_NAMES}, or -1 if the token does not name a reduction
+	 */
+	private static int findReduction(String input, int start, int end) {
+		for (int i = 0; i < REDUCTION_NAMES.length; ++i)
+			if (REDUCTION_NAMES[i].length() == end - start && input.regionMatches(true, start, REDUCTION_NAMES[i], 0, end - start))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the conditional word the given token is, ignoring case
+	 * @param input The string containing the token
+	 * @param start The index of the first character of the token
+	 * @param end   The index after the last character of the token
+	 * @return The index of the word in {@link #CONDITIONAL_WORDS}, or -1 if the token is not a conditional word
+	 */
+	private static int findConditionalWord(String input, int start, int end) {
+		for (int i = 0; i < CONDITIONAL_WORDS.length; ++i)
+			if (CONDITIONAL_WORDS[i].length() == end - start && input.regionMatches(true, start, CONDITIONAL_WORDS[i], 0, end - start))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns whether or not the first identifier of the given text names a function or is a conditional word, ignoring
+	 * case. <br>
+	 * The end of the text is treated as the end of the identifier.
+	 * @param text The text to check
+	 * @return Whether or not the text starts with the name of a function or a conditional word
+	 */
+	static boolean startsWithFunctionName(CharSequence text) {
+		return startsWithName(text, FUNCTION_NAMES) || startsWithName(text, REDUCTION_NAMES) || startsWithName(text, CONDITIONAL_WORDS);
+	}
+
+	/**
+	 * Returns whether or not the first identifier of the given text names a reduction, ignoring case. <br>
+	 * The end of the text is treated as the end of the identifier.
+	 * @param text The text to check
+	 * @return Whether or not the text starts with the name of a reduction
+	 */
+	static boolean startsWithReductionName(CharSequence text) {
+		return startsWithName(text, REDUCTION_NAMES);
+	}
+
+	/**
+	 * Returns whether or not the first identifier of the given text is one of the given names, ignoring case
+	 * @param text  The text to check
+	 * @param names The upper case names
+	 * @return Whether or not the text starts with one of the names
+	 */
+	private static boolean startsWithName(CharSequence text, String[] names) {
+		for (String name : names) {
+			if (text.length() < name.length())
+				continue;
+			if (text.length() > name.length()) {
+				char next = text.charAt(name.length());
+				if (Character.isLetter(next) || Character.isDigit(next) || next == '_')
+					continue;
+			}
+			int i = 0;
+			while (i < name.length() && Character.toUpperCase(text.charAt(i)) == name.charAt(i))
+				++i;
+			if (i == name.length())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the input the read function reads lines from on the calling thread
+	 * @param input Supplies the next line of input, or null at the end of the input; null if the thread has no input
+	 * @return The previous input of the calling thread, or null if it had none
+	 */
+	static Supplier<String> setInput(Supplier<String> input) {
+		Supplier<String> previousInput = inputs.get();
+		if (input == null)
+			inputs.remove();
+		else inputs.set(input);
+		return previousInput;
+	}
+
+	/**
+	 * Sets the meter the evaluations of the bodies of reductions are counted by on the calling thread
+	 * @param executionMeter The meter, whose budget is checked while reductions run, or null if the thread has none
+	 * @return The previous meter of the calling thread, or null if it had none
+	 */
+	static ExecutionMeter setExecutionMeter(ExecutionMeter executionMeter) {
+		ExecutionMeter previousExecutionMeter = executionMeters.get();
+		if (executionMeter == null)
+			executionMeters.remove();
+		else executionMeters.set(executionMeter);
+		return previousExecutionMeter;
+	}
+
+	/**
+	 * Returns whether or not the given text always evaluates to the same result, which is the case unless it names
+	 * {@code random}, {@code randomBetween} or {@code read}, ignoring case
+	 * @param text The text to check
+	 * @return Whether or not the text names none of these functions
+	 */
+	static boolean isDeterministic(String text) {
+		for (int start = 0; start < text.length(); ++start) {
+			if (!Character.isLetter(text.charAt(start)) || (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))))
+				continue;
+			int end = start;
+			while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_'))
+				++end;
+			String word = text.substring(start, end);
+			if (word.equalsIgnoreCase("random") || word.equalsIgnoreCase("randomBetween") || word.equalsIgnoreCase("read"))
+				return false;
+			start = end;
+		}
+		return true;
+	}
+
+	/**
+	 * Compiles the given expression string using the shunting-yard algorithm
+	 * @param expression    The expression string to compile
+	 * @param parameters    The names of the parameters of the user-defined function the expression is the body of, or
+	 *                      null if it is not the body of a function
+	 * @param userFunctions The user-defined functions the expression may call, or null if there are none
+	 * @return The compiled expression
+	 */
+	private static AnonExpression compile(String expression, List<String> parameters, UserFunctions userFunctions) {
+		ProgramBuilder program = new ProgramBuilder(expression.length());
+		compileInto(program, expression, 0, expression.length(), parameters, userFunctions);
+		if (parameters != null)
+			checkSingleValue(program, 0);
+		return assemble(program, parameters == null ? 0 : parameters.size());
+	}
+
+	/**
+	 * Compiles the given expression string, in which the numbers in the given ranges are slots that are read from
+	 * variables each time the expression is evaluated. <br>
+	 * The compiled expression can be evaluated with any numbers in the slots whose string forms start with a minus sign
+	 * where the numbers in the given string do, since such numbers are split into the same tokens.
+	 * @param expression    The expression string to compile
+	 * @param slotStarts    The index of the first character of each slot
+	 * @param slotEnds      The index after the last character of each slot
+	 * @param userFunctions The user-defined functions the expression may call, or null if there are none
+	 * @return The compiled expression, which evaluates to nothing if the expression is not valid, or null if a slot is
+	 * not a number of its own, such as a slot that is part of a longer number or of the expression of a reduction
+	 */
+	static AnonExpression compileWithSlots(String expression, int[] slotStarts, int[] slotEnds, UserFunctions userFunctions) {
+		if (userFunctions != null && userFunctions.functions.isEmpty())
+			userFunctions = null;
+		ProgramBuilder program = new ProgramBuilder(expression.length());
+		program.slotStarts = slotStarts;
+		program.slotEnds = slotEnds;
+		program.negatedSlots = new boolean[slotStarts.length];
+		try {
+			compileInto(program, expression, 0, expression.length(), null, userFunctions);
+		} catch (Exception e) {
+			return program.slotsBroken ? null : INVALID;
+		}
+		return program.slotsBroken ? null : assemble(program, slotStarts.length);
+	}
+
+	/**
+	 * Converts the parameter loads of the given program to loads relative to the top of the stack and finds the maximum
+	 * depth of its stack
+	 * @param program   The program
+	 * @param frameSize The number of values on the stack before the program runs, which are the arguments of a function
+	 *                  or the slots of an expression
+	 * @return The compiled expression
+	 */
+	private static AnonExpression assemble(ProgramBuilder program, int frameSize) {
+		int[] instructions = Arrays.copyOf(program.instructions, program.instructionCount);
+		Object[] operands = Arrays.copyOf(program.operands, program.instructionCount);
+		int depth = frameSize;
+		int maximumDepth = depth;
+		for (int i = 0; i < instructions.length; ++i) {
+			int instruction = instructions[i];
+			if (instruction == LOAD_PARAMETER) {
+				instructions[i] = LOAD;
+				operands[i] = depth - (Integer) operands[i];
+			} else if (instruction == CALL_USER_FUNCTION) {
+				UserFunction userFunction = (UserFunction) operands[i];
+				maximumDepth = Math.max(maximumDepth, depth - userFunction.parameterCount + userFunction.body.maximumDepth);
+			} else if (instruction == REDUCE) {
+				Reduction reduction = (Reduction) operands[i];
+				if (reduction.depth == -1) //not copied from an inlined function, whose reductions already know their depth
+					operands[i] = reduction = new Reduction(reduction.index, reduction.body, reduction.outerParameterCount, depth);
+				maximumDepth = Math.max(maximumDepth, depth - 2 + reduction.body.maximumDepth);
+			}
+			depth += getStackEffect(instruction, operands[i]);
+			maximumDepth = Math.max(maximumDepth, depth);
+		}
+		return new AnonExpression(instructions, operands, maximumDepth, program.negatedSlots);
+	}
+
+	/**
+	 * Compiles the given part of an expression string using the shunting-yard algorithm, appending its instructions to the given program
+	 * @param program       The program to append the instructions to
+	 * @param expression    The expression string
+	 * @param from          The index of the first character of the part to compile
+	 * @param to            The index after the last character of the part to compile
+	 * @param parameters    The names of the parameters of the user-defined function the expression is part of the body
+	 *                      of, or null if it is not part of the body of a function
+	 * @param userFunctions The user-defined functions the expression may call, or null if there are none
 	 */
-	private List<String> shuntingYard(String expression) {
-		List<String> outputQueue = new ArrayList<>();
-		Stack<String> stack = new Stack<>();
+	private static void compileInto(ProgramBuilder program, String expression, int from, int to, List<String> parameters, UserFunctions userFunctions) {
+		Deque<Object> stack = new ArrayDeque<>();
 
-		Tokenizer tokenizer = new Tokenizer(expression);
+		Tokenizer tokenizer = new Tokenizer(expression, from, to);
 
-		String previousToken = null;
+		boolean previousTokenIsNumber = false;
 		while (tokenizer.hasNext()) {
-			String token = tokenizer.next();
-			if (isNumber(token))
-				outputQueue.add(token);
-			else if (functions.containsKey(token.toLowerCase())) {
-				stack.push(token.toLowerCase());
-			} else if (Character.isLetter(token.charAt(0)))
-				stack.push(token);
-			else if (",".equals(token)) {
-				while (!stack.isEmpty() && !"(".equals(stack.peek()))
-					outputQueue.add(stack.pop());
+			tokenizer.next();
+			int start = tokenizer.getTokenStart();
+			int end = tokenizer.getTokenEnd();
+			char first = expression.charAt(start);
+			boolean tokenIsNumber = isNumber(expression, start, end);
+			int slot = program.findSlot(expression, start, end, tokenIsNumber);
+			Operator operator;
+			if (slot != -1)
+				program.add(LOAD_PARAMETER, slot);
+			else if (tokenIsNumber) {
+				try {
+					program.add(PUSH, new BigDecimal(expression.substring(start, end), mathContext));
+				} catch (NumberFormatException e) {
+					program.add(FAIL, null);
+				}
+			} else if (Character.isLetter(first)) {
+				int conditionalWordIndex = findConditionalWord(expression, start, end);
+				if (conditionalWordIndex > 0) { //and, or
+					int precedence = conditionalWordIndex == 1 ? AND_PRECEDENCE : OR_PRECEDENCE;
+					while (stack.peek() instanceof Operator || (stack.peek() instanceof ShortCircuit && ((ShortCircuit) stack.peek()).getPrecedence() >= precedence))
+						output(stack.pop(), program);
+					stack.push(startShortCircuit(conditionalWordIndex == 2, program));
+					previousTokenIsNumber = false;
+					continue;
+				}
+				int reductionIndex = findReduction(expression, start, end);
+				int openingParenthesis = end;
+				while (openingParenthesis < to && Character.isWhitespace(expression.charAt(openingParenthesis)))
+					++openingParenthesis;
+				if ((reductionIndex != -1 || conditionalWordIndex == 0) && openingParenthesis < to && expression.charAt(openingParenthesis) == '(') {
+					if (conditionalWordIndex == 0) //its arguments are compiled as they are read, so nested conditionals do not recurse
+						stack.push(new Conditional(program.instructionCount));
+					else tokenizer.skipTo(compileReduction(program, reductionIndex, expression, openingParenthesis, parameters, userFunctions));
+					previousTokenIsNumber = false;
+					continue;
+				}
+				Function function = findFunction(expression, start, end);
+				int parameterIndex = function == null ? findParameter(parameters, expression, start, end) : -1;
+				if (parameterIndex != -1)
+					program.add(LOAD_PARAMETER, parameterIndex);
+				else if (function != null)
+					stack.push(function);
+				else {
+					UserFunction userFunction = userFunctions == null ? null : userFunctions.find(expression, start, end);
+					stack.push(userFunction == null ? UNKNOWN_IDENTIFIER : userFunction);
+				}
+			} else if (first == ',') {
+				while (!stack.isEmpty() && stack.peek() != OPENING_PARENTHESIS)
+					output(stack.pop(), program);
 				if (stack.isEmpty())
 					break;
-			} else if (operators.containsKey(token)) {
-				Operator o1 = operators.get(token);
-				String token2 = stack.isEmpty() ? null : stack.peek();
-				while (operators.containsKey(token2) && ((o1.isLeftAssociative() && o1.getPrecedence() <= operators.get(token2).getPrecedence()) || (o1.getPrecedence() < operators.get(token2).getPrecedence()))) {
-					outputQueue.add(stack.pop());
-					token2 = stack.isEmpty() ? null : stack.peek();
-				}
-				stack.push(token);
-			} else if ("(".equals(token)) {
-				if (previousToken != null && isNumber(previousToken))
+				stack.pop();
+				if (stack.peek() instanceof Conditional)
+					((Conditional) stack.peek()).endArgument(program);
+				stack.push(OPENING_PARENTHESIS);
+			} else if ((operator = findOperator(expression, start, end)) != null) {
+				while (stack.peek() instanceof Operator && ((operator.isLeftAssociative() && operator.getPrecedence() <= ((Operator) stack.peek()).getPrecedence()) || (operator.getPrecedence() < ((Operator) stack.peek()).getPrecedence())))
+					output(stack.pop(), program);
+				stack.push(operator);
+			} else if (first == '(') {
+				if (previousTokenIsNumber)
 					break;
-				stack.push(token);
-			} else if (")".equals(token)) {
-				while (!stack.isEmpty() && !"(".equals(stack.peek()))
-					outputQueue.add(stack.pop());
+				stack.push(OPENING_PARENTHESIS);
+			} else if (first == ')') {
+				while (!stack.isEmpty() && stack.peek() != OPENING_PARENTHESIS)
+					output(stack.pop(), program);
 				if (stack.isEmpty())
 					throw new RuntimeException("Mismatched parentheses");
 				stack.pop();
-				if (!stack.isEmpty() && functions.containsKey(stack.peek().toUpperCase()))
-					outputQueue.add(stack.pop());
+				if (stack.peek() instanceof Conditional)
+					((Conditional) stack.pop()).end(program);
+				else if (stack.peek() instanceof Function || stack.peek() instanceof UserFunction)
+					output(stack.pop(), program);
 			}
-			previousToken = token;
+			previousTokenIsNumber = tokenIsNumber;
 		}
 		while (!stack.isEmpty()) {
-			String element = stack.pop();
-			if ("(".equals(element) || ")".equals(element))
+			Object element = stack.pop();
+			if (element == OPENING_PARENTHESIS)
 				throw new RuntimeException("Mismatched parentheses");
-			if (!operators.containsKey(element))
-				throw new RuntimeException("Unknown operator or function: " + element);
-			outputQueue.add(element);
+			if (!(element instanceof Operator) && !(element instanceof ShortCircuit))
+				throw new RuntimeException("Unknown operator or function");
+			output(element, program);
 		}
-		return outputQueue;
 	}
 
 	/**
-	 * Evaluates this expression
-	 * @return The evaluation result of this expression
+	 * Compiles a reduction, appending the instructions that push the bounds of its range and the instruction that
+	 * applies it to the given program
+	 * @param program             The program to append the instructions to
+	 * @param reductionIndex      The index of the reduction in {@link #REDUCTION_NAMES}
+	 * @param expression          The expression string containing the reduction
+	 * @param openingParenthesis  The index of the parenthesis after the name of the reduction
+	 * @param parameters          The names of the parameters of the user-defined function the reduction is part of the
+	 *                            body of, or null if it is not part of the body of a function
+	 * @param userFunctions       The user-defined functions the reduction may call, or null if there are none
+	 * @return The index after the parenthesis that closes the reduction
 	 */
-	@SuppressWarnings("unchecked")
-	private String evaluate() {
-		Stack<Object> stack = new Stack<>();
-		for (String token : getRPN()) {
-			if (operators.containsKey(token)) {
-				BigDecimal num1 = (BigDecimal) stack.pop();
-				BigDecimal num2 = (BigDecimal) stack.pop();
-				stack.push(operators.get(token).evaluate(num2, num1));
-			} else if (functions.containsKey(token.toUpperCase())) {
-				Function function = functions.get(token.toUpperCase());
-				ArrayList<BigDecimal> parameters = new ArrayList<>(function.getTotalParameters());
-				for (int i = 0; i < function.totalParameters; ++i)
-					parameters.add(0, (BigDecimal) stack.pop());
-				Object functionResult = function.evaluate((List) parameters);
-				stack.push(functionResult);
-			} else {
-				stack.push(new BigDecimal(token, mathContext));
+	private static int compileReduction(ProgramBuilder program, int reductionIndex, String expression, int openingParenthesis, List<String> parameters, UserFunctions userFunctions) {
+		List<int[]> arguments = new ArrayList<>(4);
+		int closingParenthesis = splitArguments(expression, openingParenthesis, arguments);
+		if (closingParenthesis == -1 || arguments.size() != 4)
+			throw new RuntimeException(REDUCTION_NAMES[reductionIndex] + " takes a variable, two bounds and an expression");
+		String variable = expression.substring(arguments.get(0)[0], arguments.get(0)[1]).trim();
+		if (!isName(variable) || findFunction(variable, 0, variable.length()) != null || findReduction(variable, 0, variable.length()) != -1
+				|| findConditionalWord(variable, 0, variable.length()) != -1 || (userFunctions != null && userFunctions.find(variable, 0, variable.length()) != null) || (parameters != null && parameters.contains(variable)))
+			throw new RuntimeException("Illegal variable of " + REDUCTION_NAMES[reductionIndex] + ": " + variable);
+		compileArgument(program, expression, arguments.get(1), parameters, userFunctions);
+		compileArgument(program, expression, arguments.get(2), parameters, userFunctions);
+		List<String> bodyParameters = new ArrayList<>();
+		if (parameters != null)
+			bodyParameters.addAll(parameters);
+		bodyParameters.add(variable);
+		int[] body = arguments.get(3);
+		program.breakSlotsIn(body[0], body[1]); //the body is compiled on its own, so it cannot read the slots
+		program.add(REDUCE, new Reduction(reductionIndex, compile(expression.substring(body[0], body[1]), bodyParameters, userFunctions), bodyParameters.size() - 1, -1));
+		return closingParenthesis + 1;
+	}
+
+	/**
+	 * Appends the jump after the left operand of an {@code and} or {@code or}. <br>
+	 * {@code a and b} compiles to {@code a, JUMP_IF_FALSE, b, TEST, JUMP, 0} and {@code a or b} to
+	 * {@code a, JUMP_IF_FALSE, 1, JUMP, b, TEST}, where the right operand and the targets of the jumps are appended by
+	 * {@link #output(Object, ProgramBuilder)} once the right operand is compiled.
+	 * @param or      Whether the operator is {@code or} rather than {@code and}
+	 * @param program The program to append the instructions to
+	 * @return The operator, which is pushed on the operator stack
+	 */
+	private static ShortCircuit startShortCircuit(boolean or, ProgramBuilder program) {
+		if (!or) {
+			program.add(JUMP_IF_FALSE, null);
+			return new ShortCircuit(false, program.instructionCount - 1);
+		}
+		program.add(JUMP_IF_FALSE, 2);
+		program.add(PUSH, BigDecimal.ONE);
+		program.add(JUMP, null);
+		return new ShortCircuit(true, program.instructionCount - 1);
+	}
+
+	/**
+	 * Splits the arguments of a reduction at the commas that are not nested in parentheses
+	 * @param expression         The expression string containing the arguments
+	 * @param openingParenthesis The index of the parenthesis before the arguments
+	 * @param arguments          The list to add the index of the first character and the index after the last character
+	 *                           of each argument to
+	 * @return The index of the parenthesis after the arguments, or -1 if it is missing
+	 */
+	private static int splitArguments(String expression, int openingParenthesis, List<int[]> arguments) {
+		int nesting = 0;
+		int argumentStart = openingParenthesis + 1;
+		for (int i = argumentStart; i < expression.length(); ++i) {
+			char character = expression.charAt(i);
+			if (character == '(')
+				++nesting;
+			else if (character == ')' && nesting > 0)
+				--nesting;
+			else if ((character == ')' || character == ',') && nesting == 0) {
+				arguments.add(new int[]{argumentStart, i});
+				argumentStart = i + 1;
+				if (character == ')')
+					return i;
 			}
 		}
-		if (stack.peek() instanceof BigDecimal)
-			return ((BigDecimal) stack.pop()).stripTrailingZeros().toPlainString();
-		return stack.pop().toString();
+		return -1;
 	}
 
 	/**
-	 * Adds an operator to this expression
-	 * @param operator The operator to add
+	 * Compiles an argument of a reduction, which must evaluate to a single value, into the given program
+	 * @param program       The program to append the instructions to
+	 * @param expression    The expression string containing the argument
+	 * @param argument      The index of the first character and the index after the last character of the argument
+	 * @param parameters    The names of the parameters of the user-defined function the argument is part of the body
+	 *                      of, or null if it is not part of the body of a function
+	 * @param userFunctions The user-defined functions the argument may call, or null if there are none
 	 */
-	private void addOperator(Operator operator) {
-		operators.put(operator.getOperation(), operator);
+	private static void compileArgument(ProgramBuilder program, String expression, int[] argument, List<String> parameters, UserFunctions userFunctions) {
+		int argumentStart = program.instructionCount;
+		compileInto(program, expression, argument[0], argument[1], parameters, userFunctions);
+		checkSingleValue(program, argumentStart);
 	}
 
 	/**
-	 * Adds a function to this expression
-	 * @param function The function to add
+	 * Checks that the instructions of the given program from the given one on push exactly one value, and never remove a
+	 * value they did not push or fail unconditionally
+	 * @param program The program
+	 * @param start   The index of the first instruction to check
+	 * @throws RuntimeException If the instructions do not evaluate to a single value
 	 */
-	private void addFunction(Function function) {
-		functions.put(function.getName(), function);
+	private static void checkSingleValue(ProgramBuilder program, int start) {
+		int depth = 0;
+		for (int i = start; i < program.instructionCount; ++i) {
+			Integer singleValueEnd = program.singleValueEnds == null ? null : program.singleValueEnds.get(i);
+			if (singleValueEnd != null) { //a conditional that was checked when it was compiled
+				++depth;
+				i = singleValueEnd - 1;
+				continue;
+			}
+			int instruction = program.instructions[i];
+			if (instruction == FAIL)
+				throw new RuntimeException("Invalid token");
+			depth += getStackEffect(instruction, program.operands[i]);
+			if (instruction != PUSH && instruction != LOAD && instruction != LOAD_PARAMETER && depth < (instruction == JUMP || instruction == JUMP_IF_FALSE ? 0 : 1))
+				throw new RuntimeException("Operands missing");
+		}
+		if (depth != 1)
+			throw new RuntimeException("The expression does not evaluate to a single value");
 	}
 
 	/**
-	 * Returns the RPN evaluation of this expression
-	 * @return The result of the evaluation
+	 * Returns how many values the given instruction adds to the stack
+	 * @param instruction The instruction
+	 * @param operand     The operand of the instruction
+	 * @return The number of values pushed minus the number of values removed
 	 */
-	private List<String> getRPN() {
-		if (rpn == null)
-			rpn = shuntingYard(this.expression);
-		return rpn;
+	private static int getStackEffect(int instruction, Object operand) {
+		switch (instruction) {
+			case PUSH:
+			case LOAD:
+			case LOAD_PARAMETER:
+				return 1;
+			case APPLY_OPERATOR:
+			case REDUCE:
+			case JUMP:
+			case JUMP_IF_FALSE:
+				return -1;
+			case CALL_FUNCTION:
+				return 1 - ((Function) operand).getTotalParameters();
+			case CALL_USER_FUNCTION:
+				return 1 - ((UserFunction) operand).parameterCount;
+			case DISCARD_ARGUMENTS:
+				return -(Integer) operand;
+			default:
+				return 0;
+		}
 	}
 
-	private ArrayList<BigDecimal> getBigDecimalList(List<Object> list) {
-		return list.stream().map(object -> (BigDecimal) object).collect(Collectors.toCollection(ArrayList::new));
+	/**
+	 * Returns whether or not the given name is a letter followed by letters, digits and underscores
+	 * @param name The name
+	 * @return Whether or not the name is legal
+	 */
+	private static boolean isName(String name) {
+		boolean legal = !name.isEmpty() && Character.isLetter(name.charAt(0));
+		for (int i = 1; i < name.length() && legal; ++i)
+			legal = Character.isLetterOrDigit(name.charAt(i)) || name.charAt(i) == '_';
+		return legal;
 	}
 
 	/**
-	 * A function in an expression
+	 * Appends the instructions for the given element of the operator stack
+	 * @param element The operator, {@code and} or {@code or}, function, user-defined function or unknown identifier
+	 * @param program The program to append the instructions to
 	 */
-	private abstract class Function {
-		/**
-		 * The name of the function
+	private static void output(Object element, ProgramBuilder program) {
+		if (element instanceof Operator)
+			program.add(APPLY_OPERATOR, element);
+		else if (element instanceof ShortCircuit) {
+			ShortCircuit shortCircuit = (ShortCircuit) element;
+			checkSingleValue(program, shortCircuit.jumpIndex + 1);
+			program.add(TEST, null);
+			if (shortCircuit.or)
+				program.patchJump(shortCircuit.jumpIndex);
+			else {
+				program.add(JUMP, 1);
+				program.patchJump(shortCircuit.jumpIndex);
+				program.add(PUSH, BigDecimal.ZERO);
+			}
+		}
+		else if (element instanceof Function)
+			program.add(CALL_FUNCTION, element);
+		else if (element instanceof UserFunction) {
+			UserFunction userFunction = (UserFunction) element;
+			if (userFunction.body.instructions.length > MAXIMUM_INLINED_INSTRUCTIONS)
+				program.add(CALL_USER_FUNCTION, userFunction);
+			else {
+				for (int i = 0; i < userFunction.body.instructions.length; ++i)
+					program.add(userFunction.body.instructions[i], userFunction.body.operands[i]);
+				if (userFunction.parameterCount > 0)
+					program.add(DISCARD_ARGUMENTS, userFunction.parameterCount);
+			}
+		} else program.add(FAIL, element);
+	}
+
+	/**
+	 * Returns the index of the parameter the given token names
+	 * @param parameters The names of the parameters, or null if there are none
+	 * @param input      The string containing the token
+	 * @param start      The index of the first character of the token
+	 * @param end        The index after the last character of the token
+	 * @return The index of the parameter, or -1 if the token does not name a parameter
+	 */
+	private static int findParameter(List<String> parameters, String input, int start, int end) {
+		if (parameters != null)
+			for (int i = 0; i < parameters.size(); ++i)
+				if (parameters.get(i).length() == end - start && input.startsWith(parameters.get(i), start))
+					return i;
+		return -1;
+	}
+
+	/**
+	 * Evaluates this expression on the calling thread's operand stack
+	 * @return The evaluation result of this expression
+	 */
+	private String evaluate() {
+		Object[] stack = operandStacks.get().reserve(maximumDepth);
+		int size = execute(stack, 0, 0);
+		if (size == 0)
+			throw EVALUATION_FAILURE;
+		Object result = stack[size - 1];
+		if (result instanceof BigDecimal)
+			return ((BigDecimal) result).stripTrailingZeros().toPlainString();
+		return result.toString();
+	}
+
+	/**
+	 * Evaluates this expression, which was compiled with {@link #compileWithSlots(String, int[], int[], UserFunctions)},
+	 * on the calling thread's operand stack
+	 * @param slotVariables The numeric variables whose values the slots of this expression read
+	 * @return The evaluation result of this expression, or null if it could not be evaluated
+	 */
+	String evaluate(AnonVariable[] slotVariables) {
+		if (this == INVALID)
+			return null;
+		Object[] stack = operandStacks.get().reserve(maximumDepth);
+		try {
+			for (int i = 0; i < slotVariables.length; ++i) {
+				BigDecimal value = slotVariables[i].toDecimal(mathContext);
+				stack[i] = negatedSlots[i] ? value.negate() : value;
+			}
+			int size = execute(stack, slotVariables.length, 0); //the slots are below the base, so operators cannot take them as operands
+			if (size == slotVariables.length)
+				return null;
+			Object result = stack[size - 1];
+			if (result instanceof BigDecimal)
+				return ((BigDecimal) result).stripTrailingZeros().toPlainString();
+			return result.toString();
+		} catch (BudgetExceededException e) {
+			throw e;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Executes the instructions of this expression
+	 * @param stack     The operand stack, with room for at least {@link #maximumDepth} values above the base
+	 * @param base      The index of the first value of the stack that belongs to this evaluation
+	 * @param frameSize The number of values above the base that are already on the stack, which are the arguments if
+	 *                  this expression is the body of a user-defined function
+	 * @return The index after the last value on the stack
+	 */
+	private int execute(Object[] stack, int base, int frameSize) {
+		int size = base + frameSize;
+		for (int i = 0; i < instructions.length; ++i) {
+			switch (instructions[i]) {
+				case PUSH:
+					stack[size++] = operands[i];
+					break;
+				case LOAD:
+					stack[size] = stack[size - (Integer) operands[i]];
+					++size;
+					break;
+				case DISCARD_ARGUMENTS: {
+					int argumentCount = (Integer) operands[i];
+					stack[size - 1 - argumentCount] = stack[size - 1];
+					size -= argumentCount;
+					break;
+				}
+				case JUMP:
+					i += (Integer) operands[i];
+					break;
+				case JUMP_IF_FALSE:
+					if (size - 1 < base || !(stack[size - 1] instanceof BigDecimal))
+						throw EVALUATION_FAILURE;
+					if (((BigDecimal) stack[--size]).signum() == 0)
+						i += (Integer) operands[i];
+					break;
+				case TEST:
+					if (size - 1 < base || !(stack[size - 1] instanceof BigDecimal))
+						throw EVALUATION_FAILURE;
+					stack[size - 1] = ((BigDecimal) stack[size - 1]).signum() == 0 ? BigDecimal.ZERO : BigDecimal.ONE;
+					break;
+				case REDUCE: {
+					if (size - 2 < base || !(stack[size - 1] instanceof BigDecimal) || !(stack[size - 2] instanceof BigDecimal))
+						throw EVALUATION_FAILURE;
+					Reduction reduction = (Reduction) operands[i];
+					long from = ((BigDecimal) stack[size - 2]).longValueExact();
+					long to = ((BigDecimal) stack[size - 1]).longValueExact();
+					if (to >= from && (to - from < 0 || to - from >= MAXIMUM_RANGE_LENGTH))
+						throw EVALUATION_FAILURE;
+					long startTime = System.nanoTime();
+					Object reductionResult = reduction.reduce(stack, size, from, to);
+					AnonMetrics.recordBuiltinCall(REDUCTION_NAMES[reduction.index], reduction.latencyHistogram, System.nanoTime() - startTime);
+					size -= 2;
+					stack[size++] = reductionResult;
+					break;
+				}
+				case CALL_USER_FUNCTION: {
+					UserFunction userFunction = (UserFunction) operands[i];
+					int offset = size - userFunction.parameterCount;
+					if (offset < base)
+						throw EVALUATION_FAILURE;
+					size = userFunction.body.execute(stack, offset, userFunction.parameterCount);
+					stack[offset] = stack[size - 1];
+					size = offset + 1;
+					break;
+				}
+				case APPLY_OPERATOR: {
+					if (size - 2 < base || !(stack[size - 1] instanceof BigDecimal) || !(stack[size - 2] instanceof BigDecimal))
+						throw EVALUATION_FAILURE;
+					BigDecimal num1 = (BigDecimal) stack[--size];
+					BigDecimal num2 = (BigDecimal) stack[--size];
+					stack[size++] = ((Operator) operands[i]).evaluate(num2, num1);
+					break;
+				}
+				case CALL_FUNCTION: {
+					Function function = (Function) operands[i];
+					int offset = size - function.getTotalParameters();
+					if (offset < base)
+						throw EVALUATION_FAILURE;
+					for (int j = offset; j < size; ++j)
+						if (!(stack[j] instanceof BigDecimal))
+							throw EVALUATION_FAILURE;
+					long startTime = System.nanoTime();
+					Object functionResult = function.evaluate(stack, offset);
+					AnonMetrics.recordBuiltinCall(function.getName(), function.getLatencyHistogram(), System.nanoTime() - startTime);
+					size = offset;
+					stack[size++] = functionResult;
+					break;
+				}
+				default:
+					throw EVALUATION_FAILURE;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the operator with the given index, creating it if no expression has used it before. <br>
+	 * Operators have no mutable state, so two threads creating the same operator at once is harmless.
+	 * @param index The index of the operator in {@link #OPERATOR_NAMES}
+	 * @return The operator
+	 */
+	private static Operator getOperator(int index) {
+		Operator operator = operators[index];
+		if (operator == null)
+			operator = operators[index] = createOperator(index);
+		return operator;
+	}
+
+	/**
+	 * Returns the function with the given index, creating it if no expression has used it before. <br>
+	 * Functions have no mutable state, so two threads creating the same function at once is harmless.
+	 * @param index The index of the function in {@link #FUNCTION_NAMES}
+	 * @return The function
+	 */
+	private static Function getFunction(int index) {
+		Function function = functions[index];
+		if (function == null)
+			function = functions[index] = createFunction(index);
+		return function;
+	}
+
+	/**
+	 * Returns the given parameter of a function as a decimal
+	 * @param parameters The operand stack holding the parameters
+	 * @param offset     The index of the first parameter on the stack
+	 * @param index      The index of the parameter
+	 * @return The parameter as a decimal
+	 */
+	private static BigDecimal getBigDecimal(Object[] parameters, int offset, int index) {
+		return (BigDecimal) parameters[offset + index];
+	}
+
+	/**
+	 * A function in an expression
+	 */
+	private abstract static class Function {
+		/**
+		 * The name of the function
 		 */
-		private String name;
+		private final String name;
 		/**
 		 * The number of parameters the function takes
 		 */
-		private int totalParameters;
+		private final int totalParameters;
+		/**
+		 * The latency histogram calls of this function are recorded to
+		 */
+		private final LatencyHistogram latencyHistogram;
 
 		/**
 		 * Constructs a function with the given name and total number of parameters
@@ -473,6 +1380,7 @@ public final class AnonExpression {
 		public Function(String name, int totalParameters) {
 			this.name = name.toUpperCase();
 			this.totalParameters = totalParameters;
+			this.latencyHistogram = AnonMetrics.getBuiltinLatencyHistogram(this.name);
 		}
 
 		/**
@@ -491,30 +1399,39 @@ public final class AnonExpression {
 			return totalParameters;
 		}
 
+		/**
+		 * Returns the latency histogram calls of this function are recorded to
+		 * @return The latency histogram of this function
+		 */
+		public LatencyHistogram getLatencyHistogram() {
+			return latencyHistogram;
+		}
+
 		/**
 		 * Evaluates this function and returns the result
-		 * @param parameters The parameters of this function
+		 * @param parameters The operand stack holding the parameters of this function
+		 * @param offset     The index of the first parameter on the stack
 		 * @return The result of the evaluation
 		 */
-		public abstract Object evaluate(List<Object> parameters);
+		public abstract Object evaluate(Object[] parameters, int offset);
 	}
 
 	/**
 	 * An operator in an expression
 	 */
-	private abstract class Operator {
+	private abstract static class Operator {
 		/**
 		 * The operator as a string
 		 */
-		private String operation;
+		private final String operation;
 		/**
 		 * The precedence this operator has relative to other operators
 		 */
-		private int precedence;
+		private final int precedence;
 		/**
 		 * Whether or not this operator is left associative
 		 */
-		private boolean leftAssociative;
+		private final boolean leftAssociative;
 
 		/**
 		 * Constructs an operator with the given properties
@@ -562,71 +1479,869 @@ public final class AnonExpression {
 	}
 
 	/**
-	 * A simple tokenizer
+	 * A simple tokenizer that reports the position of each token instead of copying it
 	 */
-	private class Tokenizer implements Iterator<String> {
-		private int pos = 0;
-		private String input;
-		private String previousToken;
+	private static final class Tokenizer {
+		/**
+		 * The string to tokenize
+		 */
+		private final String input;
+		/**
+		 * The index after the last character of the input that is not trimmed
+		 */
+		private final int end;
+		/**
+		 * The index of the next character to read
+		 */
+		private int pos;
+		/**
+		 * The index of the first character of the current token
+		 */
+		private int tokenStart;
+		/**
+		 * The index after the last character of the current token
+		 */
+		private int tokenEnd;
 
-		public Tokenizer(String input) {
-			this.input = input.trim();
+		public Tokenizer(String input, int start, int end) {
+			while (start < end && input.charAt(start) <= ' ')
+				++start;
+			while (end > start && input.charAt(end - 1) <= ' ')
+				--end;
+			this.input = input;
+			this.pos = start;
+			this.end = end;
 		}
 
-		@Override
+		/**
+		 * Returns whether or not there is another token
+		 * @return Whether or not there is another token
+		 */
 		public boolean hasNext() {
-			return (pos < input.length());
+			return pos < end;
 		}
 
-		@Override
-		public String next() {
-			StringBuilder token = new StringBuilder();
-			if (pos >= input.length()) {
-				return previousToken = null;
-			}
+		/**
+		 * Reads the next token
+		 */
+		public void next() {
 			char ch = input.charAt(pos);
-			while (Character.isWhitespace(ch) && pos < input.length())
+			while (Character.isWhitespace(ch)) {
+				if (++pos >= end)
+					throw new StringIndexOutOfBoundsException(pos);
+				ch = input.charAt(pos);
+			}
+			tokenStart = pos;
+			if (ch == MINUS_SIGN && Character.isDigit(peekNextChar())) {
 				ch = input.charAt(++pos);
+			}
 			if (Character.isDigit(ch)) {
-				while ((Character.isDigit(ch) || ch == DECIMAL_SEPARATOR) && (pos < input.length())) {
-					token.append(input.charAt(pos++));
-					ch = pos == input.length() ? 0 : input.charAt(pos);
+				while ((Character.isDigit(ch) || ch == DECIMAL_SEPARATOR) && (pos < end)) {
+					pos++;
+					ch = pos == end ? 0 : input.charAt(pos);
 				}
-			} else if (ch == MINUS_SIGN && Character.isDigit(peekNextChar()) && ("(".equals(previousToken) || ",".equals(previousToken) || previousToken == null || operators.containsKey(previousToken))) {
-				token.append(MINUS_SIGN);
-				pos++;
-				token.append(next());
 			} else if (Character.isLetter(ch) || (ch == '_')) {
-				while ((Character.isLetter(ch) || Character.isDigit(ch) || (ch == '_')) && (pos < input.length())) {
-					token.append(input.charAt(pos++));
-					ch = pos == input.length() ? 0 : input.charAt(pos);
+				while ((Character.isLetter(ch) || Character.isDigit(ch) || (ch == '_')) && (pos < end)) {
+					pos++;
+					ch = pos == end ? 0 : input.charAt(pos);
 				}
 			} else if (ch == '(' || ch == ')' || ch == ',') {
-				token.append(ch);
 				pos++;
 			} else {
-				while (!Character.isLetter(ch) && !Character.isDigit(ch) && ch != '_' && !Character.isWhitespace(ch) && ch != '(' && ch != ')' && ch != ',' && (pos < input.length())) {
-					token.append(input.charAt(pos));
+				while (!Character.isLetter(ch) && !Character.isDigit(ch) && ch != '_' && !Character.isWhitespace(ch) && ch != '(' && ch != ')' && ch != ',' && (pos < end)) {
 					pos++;
-					ch = pos == input.length() ? 0 : input.charAt(pos);
+					ch = pos == end ? 0 : input.charAt(pos);
 					if (ch == MINUS_SIGN)
 						break;
 				}
 			}
-			return token.toString();
+			tokenEnd = pos;
 		}
 
-		@Override
-		public void remove() {
-			//unsupported operation
+		/**
+		 * Continues reading tokens from the given index
+		 * @param position The index of the next character to read
+		 */
+		public void skipTo(int position) {
+			pos = position;
+		}
+
+		/**
+		 * Returns the index of the first character of the current token
+		 * @return The index of the first character of the current token
+		 */
+		public int getTokenStart() {
+			return tokenStart;
+		}
+
+		/**
+		 * Returns the index after the last character of the current token
+		 * @return The index after the last character of the current token
+		 */
+		public int getTokenEnd() {
+			return tokenEnd;
 		}
 
 		private char peekNextChar() {
-			if (pos < (input.length() - 1)) {
+			if (pos < (end - 1)) {
 				return input.charAt(pos + 1);
 			} else {
 				return 0;
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The user-defined functions of an AnonLang file, along with the expressions compiled against them
+	 */
+	public static final class UserFunctions {
+		/**
+		 * Maps the upper case names of the functions to the functions
+		 */
+		private final Map<String, UserFunction> functions = new HashMap<>();
+		/**
+		 * Maps expression strings to their compiled forms, which may call the functions; it is cleared whenever a
+		 * function is defined, since an expression that named it before was compiled as invalid
+		 */
+		private final Map<String, AnonExpression> expressionCache = new HashMap<>();
+
+		/**
+		 * Defines a function, compiling its body
+		 * @param name       The name of the function, which may not name another function
+		 * @param parameters The names of the parameters of the function
+		 * @param body       The expression the function evaluates to, in which the names of the parameters stand for the
+		 *                   arguments of a call
+		 * @throws MalformedFunctionException If the name or a parameter is illegal or the body is not a valid expression
+		 */
+		public void define(String name, List<String> parameters, String body) {
+			checkName(name, "function");
+			if (namesFunction(name))
+				throw new MalformedFunctionException("Function " + name + " is already defined");
+			for (int i = 0; i < parameters.size(); ++i) {
+				String parameter = parameters.get(i);
+				checkName(parameter, "parameter");
+				if (namesFunction(parameter))
+					throw new MalformedFunctionException("Parameter " + parameter + " of function " + name + " names a function");
+				if (parameters.indexOf(parameter) != i)
+					throw new MalformedFunctionException("Function " + name + " has more than one parameter named " + parameter);
+			}
+			AnonExpression compiledBody;
+			try {
+				compiledBody = compile(body, parameters, this);
+			} catch (Exception e) {
+				throw new MalformedFunctionException("The body of function " + name + " is not a valid expression: " + body);
+			}
+			functions.put(name.toUpperCase(), new UserFunction(parameters.size(), compiledBody));
+			expressionCache.clear();
+		}
+
+		/**
+		 * Defines each of the given functions whose name does not name a function yet, sharing its compiled body
+		 * @param source The functions to define
+		 * @return Whether or not a function was defined
+		 */
+		public boolean defineAll(UserFunctions source) {
+			boolean defined = false;
+			for (Map.Entry<String, UserFunction> function : source.functions.entrySet())
+				if (!namesFunction(function.getKey())) {
+					functions.put(function.getKey(), function.getValue());
+					defined = true;
+				}
+			if (defined)
+				expressionCache.clear();
+			return defined;
+		}
+
+		/**
+		 * Returns whether or not the first identifier of the given text names one of these functions, ignoring case. <br>
+		 * The end of the text is treated as the end of the identifier.
+		 * @param text The text to check
+		 * @return Whether or not the text starts with the name of one of these functions
+		 */
+		public boolean startsWithName(CharSequence text) {
+			if (functions.isEmpty() || text.length() == 0 || !Character.isLetter(text.charAt(0)))
+				return false;
+			int end = 1;
+			while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_'))
+				++end;
+			return functions.containsKey(text.subSequence(0, end).toString().toUpperCase());
+		}
+
+		/**
+		 * Returns the function the given token names, ignoring case
+		 * @param input The string containing the token
+		 * @param start The index of the first character of the token
+		 * @param end   The index after the last character of the token
+		 * @return The function, or null if the token does not name one of these functions
+		 */
+		private UserFunction find(String input, int start, int end) {
+			return functions.isEmpty() ? null : functions.get(input.substring(start, end).toUpperCase());
+		}
+
+		/**
+		 * Returns whether or not the given name is the name of a builtin function, a reduction or one of these functions
+		 * @param name The name
+		 * @return Whether or not the name names a function
+		 */
+		private boolean namesFunction(String name) {
+			return findFunction(name, 0, name.length()) != null || findReduction(name, 0, name.length()) != -1 || find(name, 0, name.length()) != null;
+		}
+
+		/**
+		 * Checks that the given name is a letter followed by letters, digits and underscores, and is not a conditional word
+		 * @param name The name
+		 * @param kind What the name is of, for the error message
+		 * @throws MalformedFunctionException If the name is illegal
+		 */
+		private static void checkName(String name, String kind) {
+			if (!isName(name) || findConditionalWord(name, 0, name.length()) != -1)
+				throw new MalformedFunctionException("Illegal " + kind + " name: " + name);
+		}
+	}
+
+	/**
+	 * A user-defined function
+	 */
+	private static final class UserFunction {
+		/**
+		 * The number of parameters the function takes
+		 */
+		private final int parameterCount;
+		/**
+		 * The compiled body of the function, which expects the arguments at the bottom of its frame
+		 */
+		private final AnonExpression body;
+
+		/**
+		 * Constructs a user-defined function
+		 * @param parameterCount The number of parameters the function takes
+		 * @param body           The compiled body of the function
+		 */
+		private UserFunction(int parameterCount, AnonExpression body) {
+			this.parameterCount = parameterCount;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * A reduction at a place in a program
+	 */
+	private static final class Reduction {
+		/**
+		 * The index of the reduction in {@link #REDUCTION_NAMES}
+		 */
+		private final int index;
+		/**
+		 * The compiled expression reduced over the range, whose last parameter is the variable of the reduction
+		 */
+		private final AnonExpression body;
+		/**
+		 * The number of parameters of the user-defined function the reduction is part of the body of, which the body
+		 * can read along with the variable
+		 */
+		private final int outerParameterCount;
+		/**
+		 * The number of values on the stack of the frame the reduction is evaluated in, including the bounds of the range,
+		 * or -1 until the program it is part of is compiled
+		 */
+		private final int depth;
+		/**
+		 * The latency histogram evaluations of the reduction are recorded to
+		 */
+		private final LatencyHistogram latencyHistogram;
+		/**
+		 * The operands of the instructions of the body when it is evaluated with longs, or null if it cannot be
+		 * @see #compileIntegers(AnonExpression)
+		 */
+		private final long[] integerOperands;
+
+		/**
+		 * Constructs a reduction
+		 * @param index               The index of the reduction in {@link #REDUCTION_NAMES}
+		 * @param body                The compiled expression reduced over the range
+		 * @param outerParameterCount The number of parameters of the user-defined function the reduction is part of the body of
+		 * @param depth               The number of values on the stack of the frame the reduction is evaluated in, or -1 if it is not known yet
+		 */
+		private Reduction(int index, AnonExpression body, int outerParameterCount, int depth) {
+			this.index = index;
+			this.body = body;
+			this.outerParameterCount = outerParameterCount;
+			this.depth = depth;
+			this.latencyHistogram = AnonMetrics.getBuiltinLatencyHistogram(REDUCTION_NAMES[index]);
+			this.integerOperands = depth == -1 ? null : compileIntegers(body);
+		}
+
+		/**
+		 * Evaluates the body for every integer of the range and reduces the results, which is their sum, product,
+		 * number of results that are not zero, maximum or minimum. <br>
+		 * Each evaluation of the body is counted by the execution meter of the calling thread, whose budget is checked
+		 * every {@link #BUDGET_CHECK_INTERVAL} evaluations. The body is evaluated with longs while it can be, and with
+		 * decimals otherwise.
+		 * @param stack The operand stack, whose top two values are the bounds of the range
+		 * @param size  The index after the last value on the stack
+		 * @param from  The first integer of the range
+		 * @param to    The last integer of the range
+		 * @return The reduced result
+		 */
+		private Object reduce(Object[] stack, int size, long from, long to) {
+			int frame = size - 2;
+			int outerParameters = size - depth;
+			long[] values = integerOperands == null ? null : loadIntegerFrame(stack, outerParameters);
+			ExecutionMeter executionMeter = executionMeters.get();
+			Accumulator accumulator = new Accumulator(index);
+			for (long value = from; value <= to; ++value) {
+				if (executionMeter != null) {
+					executionMeter.countEvaluation();
+					if (((value - from) & (BUDGET_CHECK_INTERVAL - 1)) == 0)
+						executionMeter.checkBudget();
+				}
+				if (values != null) {
+					values[outerParameterCount] = value;
+					int resultSize = executeIntegers(values);
+					if (resultSize != -1) {
+						accumulator.add(values[resultSize - 1]);
+						continue;
+					}
+				}
+				System.arraycopy(stack, outerParameters, stack, frame, outerParameterCount);
+				stack[frame + outerParameterCount] = BigDecimal.valueOf(value);
+				Object bodyResult = stack[body.execute(stack, frame, outerParameterCount + 1) - 1];
+				if (!(bodyResult instanceof BigDecimal))
+					throw EVALUATION_FAILURE;
+				accumulator.add((BigDecimal) bodyResult);
+			}
+			return accumulator.getResult();
+		}
+
+		/**
+		 * Copies the parameters of the user-defined function the reduction is part of the body of to the frame of the
+		 * body evaluated with longs
+		 * @param stack           The operand stack
+		 * @param outerParameters The index of the first parameter on the stack
+		 * @return The values of the frame, with room for the variable and every value the body pushes, or null if a
+		 * parameter is not an integer that fits in a long
+		 */
+		private long[] loadIntegerFrame(Object[] stack, int outerParameters) {
+			long[] values = new long[body.maximumDepth];
+			for (int i = 0; i < outerParameterCount; ++i) {
+				Object parameter = stack[outerParameters + i];
+				if (!(parameter instanceof BigDecimal) || !isLong((BigDecimal) parameter))
+					return null;
+				values[i] = ((BigDecimal) parameter).longValue();
+			}
+			return values;
+		}
+
+		/**
+		 * Evaluates the body with longs, which gives the same result as evaluating it with decimals as long as no
+		 * operator has a result that the math context would round
+		 * @param values The frame of the body, whose last value is the variable, followed by room for the values it pushes
+		 * @return The index after the result, or -1 if an operator has a result that would be rounded, in which case the
+		 * body must be evaluated with decimals
+		 */
+		private int executeIntegers(long[] values) {
+			int[] instructions = body.instructions;
+			int size = outerParameterCount + 1;
+			for (int i = 0; i < instructions.length; ++i) {
+				long operand = integerOperands[i];
+				switch (instructions[i]) {
+					case PUSH:
+						values[size++] = operand;
+						break;
+					case LOAD:
+						values[size] = values[size - (int) operand];
+						++size;
+						break;
+					case DISCARD_ARGUMENTS:
+						values[size - 1 - (int) operand] = values[size - 1];
+						size -= (int) operand;
+						break;
+					case JUMP:
+						i += (int) operand;
+						break;
+					case JUMP_IF_FALSE:
+						if (values[--size] == 0)
+							i += (int) operand;
+						break;
+					case TEST:
+						values[size - 1] = values[size - 1] == 0 ? 0 : 1;
+						break;
+					default: { //APPLY_OPERATOR
+						long right = values[--size];
+						long result = applyOperator((int) operand, values[size - 1], right);
+						if (result == NOT_EXACT)
+							return -1;
+						values[size - 1] = result;
+					}
+				}
+			}
+			return size;
+		}
+
+		/**
+		 * Returns the operands of the instructions of the given body when it is evaluated with longs
+		 * @param body The compiled body of a reduction
+		 * @return The integer each number the body pushes is, the index in {@link #OPERATOR_NAMES} of each operator it
+		 * applies and the operand of each other instruction, or null if the body pushes a number that is not an integer
+		 * that fits in a long, applies {@code /} or {@code ^}, or has an instruction other than a push, a load, a jump,
+		 * a test or the discarding of the arguments of an inlined function
+		 */
+		private static long[] compileIntegers(AnonExpression body) {
+			long[] integerOperands = new long[body.instructions.length];
+			for (int i = 0; i < body.instructions.length; ++i) {
+				Object operand = body.operands[i];
+				switch (body.instructions[i]) {
+					case PUSH:
+						if (!(operand instanceof BigDecimal) || !isLong((BigDecimal) operand))
+							return null;
+						integerOperands[i] = ((BigDecimal) operand).longValue();
+						break;
+					case LOAD:
+					case DISCARD_ARGUMENTS:
+					case JUMP:
+					case JUMP_IF_FALSE:
+						integerOperands[i] = (Integer) operand;
+						break;
+					case TEST:
+						break;
+					case APPLY_OPERATOR:
+						int operatorIndex = Arrays.asList(operators).indexOf(operand);
+						if (operatorIndex == 3 || operatorIndex == 5) // /, ^
+							return null;
+						integerOperands[i] = operatorIndex;
+						break;
+					default:
+						return null;
+				}
+			}
+			return integerOperands;
+		}
+
+		/**
+		 * Applies the operator with the given index to the given integers
+		 * @param operatorIndex The index of the operator in {@link #OPERATOR_NAMES}, which is not that of {@code /} or {@code ^}
+		 * @param left          The left operand
+		 * @param right         The right operand
+		 * @return The result, or {@link #NOT_EXACT} if the result does not fit in a long or would be rounded by the math context
+		 */
+		private static long applyOperator(int operatorIndex, long left, long right) {
+			long result;
+			try {
+				switch (operatorIndex) {
+					case 0:
+						result = Math.addExact(left, right);
+						break;
+					case 1:
+						result = Math.subtractExact(left, right);
+						break;
+					case 2:
+						result = Math.multiplyExact(left, right);
+						break;
+					case 4: //the quotient of a remainder must also fit in the math context
+						if (right == 0 || left <= -EXACT_LIMIT || left >= EXACT_LIMIT)
+							return NOT_EXACT;
+						return left % right;
+					case 6:
+						return left < right ? 1 : 0;
+					case 7:
+						return left > right ? 1 : 0;
+					case 8:
+						return left <= right ? 1 : 0;
+					case 9:
+						return left >= right ? 1 : 0;
+					case 10:
+						return left == right ? 1 : 0;
+					default:
+						return left != right ? 1 : 0;
+				}
+			} catch (ArithmeticException e) {
+				return NOT_EXACT;
+			}
+			if (result > -EXACT_LIMIT && result < EXACT_LIMIT)
+				return result;
+			long digits = result;
+			while (digits % 10 == 0) //trailing zeros do not count against the precision
+				digits /= 10;
+			return digits > -EXACT_LIMIT && digits < EXACT_LIMIT ? result : NOT_EXACT;
+		}
+
+		/**
+		 * Returns whether or not the given number is an integer that fits in a long
+		 * @param number The number
+		 * @return Whether or not the number is an integer of at most 18 digits
+		 */
+		private static boolean isLong(BigDecimal number) {
+			return number.precision() - number.scale() <= 18 && (number.scale() <= 0 || number.stripTrailingZeros().scale() <= 0);
+		}
+	}
+
+	/**
+	 * The result of a reduction while its range is being reduced. <br>
+	 * A sum or product of integers is computed exactly in a long for as long as it fits in one, and is not rounded,
+	 * like a count. Otherwise a sum is computed at unlimited precision and a product with {@link #productMathContext},
+	 * and the result is rounded once, at the end.
+	 */
+	private static final class Accumulator {
+		/**
+		 * The index of the reduction in {@link #REDUCTION_NAMES}
+		 */
+		private final int index;
+		/**
+		 * Whether or not the result so far is {@link #exactResult} rather than {@link #result}
+		 */
+		private boolean exact = true;
+		/**
+		 * The result so far while it is exact, which is always the case for a count
+		 */
+		private long exactResult;
+		/**
+		 * The result so far once it is not exact
+		 */
+		private BigDecimal result;
+		/**
+		 * Whether or not no value has been reduced yet
+		 */
+		private boolean empty = true;
+
+		/**
+		 * Constructs the result of a reduction of an empty range
+		 * @param index The index of the reduction in {@link #REDUCTION_NAMES}
+		 */
+		private Accumulator(int index) {
+			this.index = index;
+			this.exactResult = index == 1 ? 1 : 0;
+		}
+
+		/**
+		 * Reduces the given integer
+		 * @param number The integer
+		 */
+		private void add(long number) {
+			if (!exact || !addExactly(number))
+				addDecimal(BigDecimal.valueOf(number));
+		}
+
+		/**
+		 * Reduces the given number
+		 * @param number The number
+		 */
+		private void add(BigDecimal number) {
+			if (index == 2) {
+				if (number.signum() != 0)
+					++exactResult;
+			} else if (!exact || !Reduction.isLong(number) || !addExactly(number.longValue()))
+				addDecimal(number);
+		}
+
+		/**
+		 * Reduces the given integer into the exact result
+		 * @param number The integer
+		 * @return Whether or not the result is still exact, which it is not if the sum or product no longer fits in a long
+		 */
+		private boolean addExactly(long number) {
+			try {
+				switch (index) {
+					case 0:
+						exactResult = Math.addExact(exactResult, number);
+						break;
+					case 1:
+						exactResult = Math.multiplyExact(exactResult, number);
+						break;
+					case 2:
+						if (number != 0)
+							++exactResult;
+						break;
+					case 3:
+						if (empty || number > exactResult)
+							exactResult = number;
+						break;
+					default:
+						if (empty || number < exactResult)
+							exactResult = number;
+				}
+			} catch (ArithmeticException e) {
+				return false;
+			}
+			empty = false;
+			return true;
+		}
+
+		/**
+		 * Reduces the given number into the result that is not exact, which the exact result so far becomes first
+		 * @param number The number
+		 */
+		private void addDecimal(BigDecimal number) {
+			if (exact) {
+				result = empty && index > 2 ? null : BigDecimal.valueOf(exactResult);
+				exact = false;
+			}
+			switch (index) {
+				case 0:
+					result = result.add(number);
+					break;
+				case 1:
+					result = result.multiply(number, productMathContext);
+					break;
+				case 3:
+					if (result == null || number.compareTo(result) > 0)
+						result = number;
+					break;
+				default:
+					if (result == null || number.compareTo(result) < 0)
+						result = number;
+			}
+			empty = false;
+		}
+
+		/**
+		 * Returns the result of the reduction
+		 * @return The result
+		 */
+		private BigDecimal getResult() {
+			if (empty && index > 2)
+				throw EVALUATION_FAILURE; //the maximum or minimum of an empty range
+			if (exact)
+				return BigDecimal.valueOf(exactResult);
+			return index < 2 ? result.round(mathContext) : result;
+		}
+	}
+
+	/**
+	 * An {@code and} or {@code or} on the operator stack, whose right operand has not been compiled yet
+	 */
+	private static final class ShortCircuit {
+		/**
+		 * Whether the operator is {@code or} rather than {@code and}
+		 */
+		private final boolean or;
+		/**
+		 * The index of the jump whose target is after the right operand
+		 */
+		private final int jumpIndex;
+
+		/**
+		 * Constructs a short-circuit operator
+		 * @param or        Whether the operator is {@code or} rather than {@code and}
+		 * @param jumpIndex The index of the jump whose target is after the right operand
+		 */
+		private ShortCircuit(boolean or, int jumpIndex) {
+			this.or = or;
+			this.jumpIndex = jumpIndex;
+		}
+
+		/**
+		 * Returns the precedence of the operator
+		 * @return The precedence of the operator
+		 */
+		private int getPrecedence() {
+			return or ? OR_PRECEDENCE : AND_PRECEDENCE;
+		}
+	}
+
+	/**
+	 * An {@code if(condition, then, else)} on the operator stack, whose arguments are being compiled. <br>
+	 * It compiles to the condition, a jump over the first branch if the condition is zero, the first branch, a jump over
+	 * the second branch and the second branch.
+	 */
+	private static final class Conditional {
+		/**
+		 * The index of the first instruction of the conditional
+		 */
+		private final int start;
+		/**
+		 * The index of the first instruction of the argument being compiled
+		 */
+		private int argumentStart;
+		/**
+		 * The number of arguments compiled so far
+		 */
+		private int argumentCount;
+		/**
+		 * The index of the jump over the first branch, or -1 until the condition is compiled
+		 */
+		private int conditionalJump = -1;
+		/**
+		 * The index of the jump over the second branch, or -1 until the first branch is compiled
+		 */
+		private int jump = -1;
+
+		/**
+		 * Constructs a conditional
+		 * @param start The index of the first instruction of the conditional
+		 */
+		private Conditional(int start) {
+			this.start = start;
+			this.argumentStart = start;
+		}
+
+		/**
+		 * Appends the jump after the condition or the first branch, whose instructions have been appended
+		 * @param program The program to append the jump to
+		 * @throws RuntimeException If the argument does not evaluate to a single value or the conditional has more than three arguments
+		 */
+		private void endArgument(ProgramBuilder program) {
+			checkSingleValue(program, argumentStart);
+			if (argumentCount == 0) {
+				conditionalJump = program.instructionCount;
+				program.add(JUMP_IF_FALSE, null);
+			} else if (argumentCount == 1) {
+				jump = program.instructionCount;
+				program.add(JUMP, null);
+				program.patchJump(conditionalJump);
+			} else throw new RuntimeException("IF takes a condition and two branches");
+			++argumentCount;
+			argumentStart = program.instructionCount;
+		}
+
+		/**
+		 * Ends the conditional after the instructions of the second branch have been appended
+		 * @param program The program
+		 * @throws RuntimeException If the second branch does not evaluate to a single value or the conditional does not have three arguments
+		 */
+		private void end(ProgramBuilder program) {
+			if (argumentCount != 2)
+				throw new RuntimeException("IF takes a condition and two branches");
+			checkSingleValue(program, argumentStart);
+			program.patchJump(jump);
+			program.markSingleValue(start);
+		}
+	}
+
+	/**
+	 * The instructions of an expression being compiled
+	 */
+	private static final class ProgramBuilder {
+		/**
+		 * The instructions so far
+		 */
+		private int[] instructions;
+		/**
+		 * The operand of each instruction so far
+		 */
+		private Object[] operands;
+		/**
+		 * The number of instructions so far
+		 */
+		private int instructionCount;
+		/**
+		 * The index of the first character of each slot of the expression, or null if it has no slots
+		 */
+		private int[] slotStarts;
+		/**
+		 * The index after the last character of each slot of the expression, or null if it has no slots
+		 */
+		private int[] slotEnds;
+		/**
+		 * Whether each slot is read negated, or null if the expression has no slots
+		 */
+		private boolean[] negatedSlots;
+		/**
+		 * Whether or not a slot is not a number of its own, so the program cannot read it
+		 */
+		private boolean slotsBroken;
+		/**
+		 * Maps the index of the first instruction of each conditional compiled so far to the index after its last
+		 * instruction, or null if there are none, so that checking an argument it is part of can skip it
+		 */
+		private Map<Integer, Integer> singleValueEnds;
+
+		/**
+		 * Constructs an empty program
+		 * @param capacity The number of instructions to make room for, which is exceeded only by inlined functions
+		 */
+		private ProgramBuilder(int capacity) {
+			this.instructions = new int[Math.max(capacity, 1)];
+			this.operands = new Object[instructions.length];
+		}
+
+		/**
+		 * Appends an instruction
+		 * @param instruction The instruction
+		 * @param operand     The operand of the instruction
+		 */
+		private void add(int instruction, Object operand) {
+			if (instructionCount == instructions.length) {
+				instructions = Arrays.copyOf(instructions, instructionCount * 2);
+				operands = Arrays.copyOf(operands, instructionCount * 2);
+			}
+			instructions[instructionCount] = instruction;
+			operands[instructionCount++] = operand;
+		}
+
+		/**
+		 * Returns the slot the given token reads, which is a number token that is exactly the slot or a minus sign followed
+		 * by the slot. A token that overlaps a slot in any other way breaks the slots.
+		 * @param expression    The expression string
+		 * @param start         The index of the first character of the token
+		 * @param end           The index after the last character of the token
+		 * @param tokenIsNumber Whether or not the token is a number
+		 * @return The index of the slot, or -1 if the token is not a slot
+		 */
+		private int findSlot(String expression, int start, int end, boolean tokenIsNumber) {
+			if (slotStarts == null)
+				return -1;
+			for (int i = 0; i < slotStarts.length; ++i) {
+				if (start >= slotEnds[i] || end <= slotStarts[i])
+					continue;
+				if (tokenIsNumber && end == slotEnds[i] && (start == slotStarts[i] || (start == slotStarts[i] - 1 && expression.charAt(start) == MINUS_SIGN))) {
+					negatedSlots[i] = start != slotStarts[i];
+					return i;
+				}
+				slotsBroken = true;
+				return -1;
+			}
+			return -1;
+		}
+
+		/**
+		 * Breaks the slots if any of them is in the given part of the expression, which is not compiled into this program
+		 * @param start The index of the first character of the part
+		 * @param end   The index after the last character of the part
+		 */
+		private void breakSlotsIn(int start, int end) {
+			if (slotStarts != null)
+				for (int i = 0; i < slotStarts.length; ++i)
+					if (start < slotEnds[i] && end > slotStarts[i])
+						slotsBroken = true;
+		}
+
+		/**
+		 * Records that the instructions from the given one to the last one evaluate to a single value
+		 * @param start The index of the first of the instructions
+		 */
+		private void markSingleValue(int start) {
+			if (singleValueEnds == null)
+				singleValueEnds = new HashMap<>();
+			singleValueEnds.put(start, instructionCount);
+		}
+
+		/**
+		 * Makes the given jump skip to the next instruction to be appended
+		 * @param jumpIndex The index of the jump
+		 */
+		private void patchJump(int jumpIndex) {
+			operands[jumpIndex] = instructionCount - jumpIndex - 1;
+		}
+	}
+
+	/**
+	 * The reusable operand stack of a thread
+	 */
+	private static final class OperandStack {
+		/**
+		 * The values on the stack
+		 */
+		private Object[] values = new Object[16];
+
+		/**
+		 * Makes sure the stack has room for the given number of values
+		 * @param capacity The number of values
+		 * @return The values of the stack
+		 */
+		public Object[] reserve(int capacity) {
+			if (values.length < capacity)
+				values = new Object[Math.max(capacity, values.length * 2)];
+			return values;
+		}
+	}
+}
@@ -1,410 +1,1285 @@
 package io.github.anon10w1z.anonlang;
 
 import io.github.anon10w1z.anonlang.exceptions.*;
+import io.github.anon10w1z.anonlang.metrics.AnonMetrics;
+import io.github.anon10w1z.anonlang.metrics.ExecutionTrace;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.IntSupplier;
 
 /**
  * The interpreter of AnonLang
  */
 public final class AnonLang {
+	/**
+	 * The system property that starts the interpreter without registering its metrics with JMX when set to true
+	 */
+	public static final String FAST_START_PROPERTY = "anonlang.fastStart";
+
+	/**
+	 * The global variables shared by all files run from the command line
+	 */
+	private static final GlobalVariableStore sharedGlobalVariables = new GlobalVariableStore();
+	/**
+	 * The statement cache shared by all files run from the command line
+	 */
+	private static final StatementCache sharedStatementCache = new StatementCache();
+	/**
+	 * The modules imported by all files in this runtime
+	 */
+	private static final ModuleCache moduleCache = new ModuleCache();
+	/**
+	 * The length of the line separator written after each line of output
+	 */
+	private static final int lineSeparatorLength = System.lineSeparator().length();
+	/**
+	 * The reader of the standard input shared by all files that are not given their own input
+	 */
+	private static final BufferedReader standardInput = new BufferedReader(new InputStreamReader(System.in));
+	/**
+	 * The number of line processors
+	 * @see #createLineProcessor(int)
+	 */
+	private static final int LINE_PROCESSOR_COUNT = 13;
+	/**
+	 * The most files that are loaded ahead of the file being executed
+	 */
+	private static final int LOAD_AHEAD_FILES = 4;
+	/**
+	 * How often to check that the thread loading files ahead is still running while waiting for it, in milliseconds
+	 */
+	private static final long LOADER_CHECK_MILLISECONDS = 100;
+
 	/**
 	 * The current index of the current line
 	 */
-	public static int currentIndex;
+	private int currentIndex;
 	/**
 	 * Maps variable names to variables
 	 */
-	private static Map<String, AnonVariable> stringToVariableMap = new HashMap<>();
+	private final Map<String, AnonVariable> stringToVariableMap = new HashMap<>();
+	/**
+	 * The global variables this file can read and write
+	 */
+	private final GlobalVariableStore globalVariables;
 	/**
-	 * Maps global variable names to global variables
+	 * The namespace global variables declared by this file are stored in
 	 */
-	private static Map<String, AnonVariable> stringToGlobalVariableMap = new HashMap<>();
+	private final String namespace;
 	/**
-	 * A list of all line processors
+	 * The line processors in the order they are tried, each of which is null until it is first tried
 	 */
-	private static List<LineProcessor> lineProcessors = new ArrayList<>();
+	private final LineProcessor[] lineProcessors = new LineProcessor[LINE_PROCESSOR_COUNT];
 	/**
 	 * A list of lines to skip when executed by the main method (used for repeat loops)
 	 */
-	private static List<Integer> linesToSkip = new ArrayList<>();
+	private final Set<Integer> linesToSkip = new HashSet<>();
 	/**
-	 * The current list of lines to process
+	 * The current list of lines to process, with their tokens
 	 */
-	private static List<String> currentLines = new ArrayList<>();
+	private final SourceStatements currentLines;
 
 	/**
 	 * The name of the current file that is being processed
 	 */
-	private static String currentFileName;
+	private final String currentFileName;
+
+	/**
+	 * The reader input is read from
+	 */
+	private final BufferedReader in;
+
+	/**
+	 * The stream output is written to
+	 */
+	private final PrintStream out;
+
+	/**
+	 * The cache of line processors statements resolve to
+	 */
+	private final StatementCache statementCache;
+
+	/**
+	 * The types inferred for the statements of this file before it is executed, or null until they are inferred
+	 */
+	private TypeInference typeInference;
+
+	/**
+	 * Whether or not to check that every value this file evaluates calls no function whose result is not always the same
+	 */
+	private boolean checkDeterminism;
+
+	/**
+	 * Whether or not every value this file evaluated so far called no function whose result is not always the same,
+	 * which is only checked if {@link #checkDeterminism} is set
+	 */
+	private boolean deterministic = true;
+
+	/**
+	 * The most recent statements executed by this file
+	 */
+	private final ExecutionTrace executionTrace;
+
+	/**
+	 * The tokens of the statement being processed
+	 */
+	private final SourceStatements.Cursor tokens;
+
+	/**
+	 * Counts the work done by this file and enforces its budget
+	 */
+	private final ExecutionMeter executionMeter = new ExecutionMeter();
+
+	/**
+	 * Supplies the number of local variables of this file to the metrics while it is running
+	 */
+	private final IntSupplier variableCount = stringToVariableMap::size;
 
 	/**
 	 * A temporary value to keep track of repeats
 	 */
-	private static int repeatCounter = 0;
+	private int repeatCounter = 0;
 
-	private static boolean formatMode = false;
+	/**
+	 * The running repeat loops, outermost first
+	 */
+	private final Deque<RepeatLoop> repeatLoops = new ArrayDeque<>();
 
 	/**
-	 * Initialize the line processors
+	 * The repeat loops that were running when the checkpoint this file is resumed from was taken, or null if it is not resumed
+	 * from a checkpoint taken in a repeat loop
 	 */
-	static {
-		addLineProcessor(new LineProcessor() { //write statements
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String toWrite = line.replaceFirst("(?i)write", "").trim();
-				for (int i = 0; i < toWrite.length(); ++i)
-					if (toWrite.charAt(i) == ' ')
-						toWrite = toWrite.replaceFirst(" ", ""); //remove leading spaces
-					else break;
-				toWrite = parseEverything(toWrite).toString();
-				System.out.print(toWrite);
-				return true;
-			}
+	private Deque<RepeatLoop> resumedRepeatLoops;
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.toLowerCase().startsWith("write ");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //writeln statements
-			@Override
-			public boolean processLineNoCheck(String line) {
-				if (line.equals("writeln"))
-					System.out.println();
-				else {
-					String toWrite = line.replaceFirst("(?i)writeln", "");
-					for (int i = 0; i < toWrite.length(); ++i)
-						if (toWrite.charAt(i) == ' ')
-							toWrite = toWrite.replaceFirst(" ", ""); //remove leading spaces
-						else break;
-					toWrite = parseEverything(toWrite).toString();
-					System.out.println(toWrite);
-				}
-				return true;
-			}
+	/**
+	 * The number of lines read from the input
+	 */
+	private long linesRead;
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.toLowerCase().startsWith("writeln");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //variable declarations
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String declaration = line.replaceFirst("(?i)var", "").trim();
-				String variableName = "";
-				for (int i = 0; i < declaration.length(); ++i) {
-					if (declaration.charAt(i) == '=') {
-						variableName = declaration.substring(0, i).trim();
-						break;
+	/**
+	 * The log checkpoints of this file are written to, or null if no checkpoints are taken
+	 */
+	private CheckpointLog checkpointLog;
+
+	/**
+	 * The number of running for loops, during which no checkpoints are taken
+	 */
+	private int forLoopDepth;
+
+	/**
+	 * The functions defined by this file
+	 */
+	private final AnonExpression.UserFunctions userFunctions = new AnonExpression.UserFunctions();
+
+	/**
+	 * Maps the values of the statements of this file, before their references are replaced, to their templates; it is
+	 * cleared whenever a function is defined, since the templates are compiled against the functions
+	 */
+	private final Map<String, ValueTemplate> valueTemplates = new HashMap<>();
+
+	/**
+	 * The indices of the function definitions and imports executed so far, in order, so that a checkpoint can define the
+	 * functions again
+	 */
+	private final List<Integer> functionStatements = new ArrayList<>();
+
+	/**
+	 * Creates the line processor with the given index. Line processors are created the first time they are tried,
+	 * so that a short file only initializes the line processors its statements reach.
+	 * @param processorIndex The index of the line processor, which is its position in the order line processors are tried
+	 * @return The new line processor
+	 */
+	private LineProcessor createLineProcessor(int processorIndex) {
+		switch (processorIndex) {
+			case 0:
+				return new LineProcessor(StatementKind.WRITE) { //write statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String toWrite = parseStatementValue(tokens.getRestOfStatement()).toString();
+						out.print(toWrite);
+						AnonMetrics.recordOutputWritten(toWrite.length());
+						return true;
 					}
-				}
-				if (!stringToVariableMap.containsKey(variableName) && !variableName.equals("") && !variableName.contains(" ")) {
-					String valueString = parseEverything(declaration.replaceFirst(variableName, "").replaceFirst("=", "").trim()).toString();
-					if (valueString.equals(""))
-						throw new MalformedDeclarationException("Initial value for variable " + variableName + " not set");
-					Object value = parseVariable(valueString);
-					setVariable(variableName, value);
-					return true;
-				} else throw new MalformedDeclarationException("Illegal variable declaration: " + variableName);
-			}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.toLowerCase().startsWith("var ");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //global variable declarations
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String declaration = line.replaceFirst("(?i)global var", "").trim();
-				String variableName = "";
-				for (int i = 0; i < declaration.length(); ++i) {
-					if (declaration.charAt(i) == '=') {
-						variableName = declaration.substring(0, i).trim();
-						break;
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("write");
+					}
+				};
+			case 1:
+				return new LineProcessor(StatementKind.WRITELN) { //writeln statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						if (tokens.next() == AnonLexer.TokenKind.END) {
+							out.println();
+							AnonMetrics.recordOutputWritten(lineSeparatorLength);
+						} else {
+							String toWrite = parseStatementValue(tokens.getRestOfStatement()).toString();
+							out.println(toWrite);
+							AnonMetrics.recordOutputWritten(toWrite.length() + lineSeparatorLength);
+						}
+						return true;
 					}
-				}
-				if (!stringToGlobalVariableMap.containsKey(variableName) && !variableName.equals("") && !variableName.contains(" ")) {
-					String valueString = parseEverything(declaration.replaceFirst(variableName, "").replaceFirst("=", "").trim()).toString();
-					if (valueString.equals(""))
-						throw new MalformedDeclarationException("Initial value for variable " + variableName + " not set");
-					Object value = parseVariable(valueString);
-					setGlobalVariable(variableName, value);
-					return true;
-				} else throw new MalformedDeclarationException("Illegal variable declaration: " + variableName);
-			}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.toLowerCase().startsWith("global var ");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //increment prefix
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String variableName = line.replaceFirst("\\++", "").trim();
-				for (String variableName2 : stringToVariableMap.keySet())
-					if (variableName.equals(variableName2)) {
-						Object variableValue = stringToVariableMap.get(variableName).getValue();
-						try {
-							int i = (Integer) variableValue;
-							setVariable(variableName, i + 1);
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("writeln");
+					}
+				};
+			case 2:
+				return new LineProcessor(StatementKind.VARIABLE_DECLARATION) { //variable declarations
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						String variableName = lexTarget();
+						if (variableName != null && !stringToVariableMap.containsKey(variableName)) {
+							String valueString = parseStatementValue(tokens.getRestOfStatement()).toString();
+							if (valueString.equals(""))
+								throw new MalformedDeclarationException("Initial value for variable " + variableName + " not set");
+							Object value = parseVariable(valueString);
+							setVariable(variableName, value);
+							return true;
+						} else throw new MalformedDeclarationException("Illegal variable declaration: " + line);
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("var");
+					}
+				};
+			case 3:
+				return new LineProcessor(StatementKind.GLOBAL_VARIABLE_DECLARATION) { //global variable declarations
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String variableName = lexTarget();
+						if (variableName != null && !variableName.startsWith(".") && !variableName.endsWith(".")) {
+							String valueString = parseStatementValue(tokens.getRestOfStatement()).toString();
+							if (valueString.equals(""))
+								throw new MalformedDeclarationException("Initial value for variable " + variableName + " not set");
+							Object value = parseVariable(valueString);
+							int separatorIndex = variableName.lastIndexOf('.');
+							if (separatorIndex == -1)
+								globalVariables.set(namespace, variableName, value);
+							else globalVariables.set(variableName.substring(0, separatorIndex), variableName.substring(separatorIndex + 1), value);
 							return true;
-						} catch (Exception e) {
-							try {
-								double d = (Double) variableValue;
-								setVariable(variableName, d + 1);
-								return true;
-							} catch (Exception e1) {
+						} else throw new MalformedDeclarationException("Illegal variable declaration: " + line);
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						if (!tokens.isKeyword("global"))
+							return false;
+						tokens.next();
+						return tokens.isKeyword("var");
+					}
+				};
+			case 4:
+				return new LineProcessor(StatementKind.INCREMENT) { //increment prefix
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String variableName = tokens.getRestOfStatement().trim();
+						AnonVariable variable = stringToVariableMap.get(variableName);
+						if (variable != null) {
+							if (!variable.add(1))
 								throw new MalformedPrefixException("Tried to increment non-numeric variable " + variableName);
-							}
+							return true;
 						}
-					}
-				for (String variableName2 : stringToGlobalVariableMap.keySet())
-					if (variableName.equals(variableName2)) {
-						Object variableValue = stringToGlobalVariableMap.get(variableName).getValue();
-						try {
-							int i = (Integer) variableValue;
-							setGlobalVariable(variableName, i + 1);
+						String[] globalVariable = resolveGlobalVariable(variableName);
+						if (globalVariable != null) {
+							globalVariables.add(globalVariable[0], globalVariable[1], 1);
 							return true;
-						} catch (Exception e) {
-							try {
-								double d = (Double) variableValue;
-								setGlobalVariable(variableName, d + 1);
-								return true;
-							} catch (Exception e1) {
+						}
+						throw new MalformedPrefixException("Tried to increment non-existent variable " + variableName);
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isOperator("++");
+					}
+				};
+			case 5:
+				return new LineProcessor(StatementKind.DECREMENT) { //decrement prefix
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String variableName = tokens.getRestOfStatement().trim();
+						AnonVariable variable = stringToVariableMap.get(variableName);
+						if (variable != null) {
+							if (!variable.add(-1))
 								throw new MalformedPrefixException("Tried to decrement non-numeric variable " + variableName);
-							}
+							return true;
+						}
+						String[] globalVariable = resolveGlobalVariable(variableName);
+						if (globalVariable != null) {
+							globalVariables.add(globalVariable[0], globalVariable[1], -1);
+							return true;
 						}
+						throw new MalformedPrefixException("Tried to decrement non-existent variable " + variableName);
 					}
-				throw new MalformedPrefixException("Tried to increment non-existent variable " + variableName);
-			}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.startsWith("++");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //decrement prefix
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String variableName = line.replaceFirst("--", "").trim();
-				for (String variableName2 : stringToVariableMap.keySet())
-					if (variableName.equals(variableName2)) {
-						Object variableValue = stringToVariableMap.get(variableName).getValue();
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isOperator("--");
+					}
+				};
+			case 6:
+				return new LineProcessor(StatementKind.REPEAT) { //repeat statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String repeatAmountString = tokens.getRestOfStatement();
 						try {
-							int i = (Integer) variableValue;
-							setVariable(variableName, i - 1);
+							int repeatAmount = Integer.parseInt(parseStatementValue(repeatAmountString).toString());
+							if (repeatAmount <= 0)
+								throw new MalformedRepeatException(repeatAmount + " is not a valid repeat amount");
+							runRepeatLoop(new RepeatLoop(currentIndex, repeatAmount, 0));
 							return true;
-						} catch (Exception e) {
-							try {
-								double d = (Double) variableValue;
-								setVariable(variableName, d - 1);
-								return true;
-							} catch (Exception e1) {
-								throw new MalformedPrefixException("Tried to decrement non-numeric variable " + variableName);
-							}
+						} catch (NumberFormatException e) {
+							throw new MalformedRepeatException(parseEverything(repeatAmountString) + " is not a valid repeat amount");
 						}
 					}
-				for (String variableName2 : stringToGlobalVariableMap.keySet())
-					if (variableName.equals(variableName2)) {
-						Object variableValue = stringToGlobalVariableMap.get(variableName).getValue();
-						try {
-							int i = (Integer) variableValue;
-							setGlobalVariable(variableName, i - 1);
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("repeat");
+					}
+				};
+			case 7:
+				return new LineProcessor(StatementKind.READ) { //read statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String variableName = tokens.getTokenText();
+						if (tokens.next() != AnonLexer.TokenKind.END)
+							throw new MalformedDeclarationException("Illegal variable to read: " + line);
+						String input = readInputLine();
+						if (input == null)
+							throw new EndOfInputException("No input left to read into variable " + variableName);
+						setVariable(variableName, parseVariable(input));
+						return true;
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("read") && tokens.next() == AnonLexer.TokenKind.IDENTIFIER; //not an assignment to a variable named read
+					}
+				};
+			case 8:
+				return new LineProcessor(StatementKind.IMPORT) { //import statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						importModule(parseModulePath(currentIndex));
+						functionStatements.add(currentIndex);
+						return true;
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("import") && tokens.next() == AnonLexer.TokenKind.IDENTIFIER; //not an assignment to a variable named import
+					}
+				};
+			case 9:
+				return new LineProcessor(StatementKind.FOR) { //for statements
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						tokens.next();
+						String variableName = tokens.getTokenText();
+						tokens.next();
+						String[] source = parseForSource(tokens.getRestOfStatement().trim());
+						if (source == null)
+							throw new MalformedForException("Illegal for statement: " + line);
+						runForLoop(variableName, resolvePath(substituteVariables(source[0])), source[1] == null ? null : substituteVariables(source[1]));
+						return true;
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("for") && tokens.next() == AnonLexer.TokenKind.IDENTIFIER; //not an assignment to a variable named for
+					}
+				};
+			case 10:
+				return new LineProcessor(StatementKind.FUNCTION) { //function definitions
+					@Override
+					public boolean processLineNoCheck(String line) {
+						defineFunction(currentIndex);
+						functionStatements.add(currentIndex);
+						return true;
+					}
+
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isKeyword("function") && tokens.next() == AnonLexer.TokenKind.IDENTIFIER; //not an assignment to a variable named function
+					}
+				};
+			case 11:
+				return new LineProcessor(StatementKind.ASSIGNMENT) { //variable assignments
+					@Override
+					public boolean processLineNoCheck(String line) {
+						lexStatement(currentIndex);
+						String variableName = tokens.getTokenText();
+						tokens.next();
+						tokens.next();
+						String variableValueString = tokens.getRestOfStatement();
+						if (stringToVariableMap.containsKey(variableName)) {
+							if (!appendToVariable(variableName, variableValueString))
+								setVariable(variableName, parseStatementValue(variableValueString));
 							return true;
-						} catch (Exception e) {
-							try {
-								double d = (Double) variableValue;
-								setGlobalVariable(variableName, d - 1);
-								return true;
-							} catch (Exception e1) {
-								throw new MalformedPrefixException("Tried to decrement non-numeric variable " + variableName);
-							}
 						}
+						String[] globalVariable = resolveGlobalVariable(variableName);
+						globalVariables.set(globalVariable[0], globalVariable[1], parseStatementValue(variableValueString));
+						return true;
 					}
-				throw new MalformedPrefixException("Tried to decrement non-existent variable " + variableName);
-			}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.startsWith("--");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //repeat statements
-			@Override
-			public boolean processLineNoCheck(String line) {
-				String repeatAmountString = line.replaceFirst("(?i)repeat", "").trim();
-				try {
-					int repeatAmount = Integer.parseInt(parseEverything(repeatAmountString).toString());
-					if (repeatAmount <= 0)
-						throw new MalformedRepeatException(repeatAmount + " is not a valid repeat amount");
-					for (int i = 0; i < repeatAmount; ++i) {
-						linesToSkip.add(++currentIndex);
-						processLine(true);
+					@Override
+					public boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						if (tokens.getTokenKind() != AnonLexer.TokenKind.IDENTIFIER && tokens.getTokenKind() != AnonLexer.TokenKind.KEYWORD)
+							return false;
+						String variableName = tokens.getTokenText();
+						tokens.next();
+						return tokens.isOperator("=") && (stringToVariableMap.containsKey(variableName) || resolveGlobalVariable(variableName) != null);
 					}
-					return true;
-				} catch (NumberFormatException e) {
-					throw new MalformedRepeatException(parseEverything(repeatAmountString) + " is not a valid repeat amount");
-				}
-			}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				return line.toLowerCase().startsWith("repeat ");
-			}
-		});
-		addLineProcessor(new LineProcessor() { //variable assignments
-			@Override
-			public boolean processLineNoCheck(String line) {
-				Optional<String> optionalVariableName = stringToVariableMap.keySet().stream().filter(string -> line.replaceAll(" ", "").startsWith(string + "=")).findFirst();
-				if (!optionalVariableName.isPresent())
-					optionalVariableName = stringToGlobalVariableMap.keySet().stream().filter(string -> line.replaceAll(" ", "").startsWith(string + "=")).findFirst();
-				String variableName = optionalVariableName.get();
-				String variableValueString = line.replaceFirst(variableName, "").trim().replaceFirst("=", "");
-				Object variableValue = parseEverything(variableValueString);
-				setVariable(variableName, variableValue);
-				return true;
-			}
+					@Override
+					protected boolean dependsOnState() {
+						return true;
+					}
+				};
+			case 12:
+				return new LineProcessor(StatementKind.COMMENT) { //comments
+					@Override
+					protected boolean processLineNoCheck(String line) {
+						return true;
+					}
 
-			@Override
-			public boolean canProcessLine(String line) {
-				boolean canProcess = stringToVariableMap.keySet().stream().filter(variableName -> line.replaceFirst(variableName, "").trim().startsWith("=")).findFirst().isPresent();
-				canProcess = canProcess || stringToGlobalVariableMap.keySet().stream().filter(variableName -> line.replaceFirst(variableName, "").trim().startsWith("=")).findFirst().isPresent();
-				return canProcess;
-			}
-		});
-		addLineProcessor(new LineProcessor() { //comments
-			@Override
-			protected boolean processLineNoCheck(String line) {
-				return true;
-			}
+					@Override
+					protected boolean canProcessLine(String line) {
+						lexStatement(currentIndex);
+						return tokens.isOperator("//");
+					}
+				};
+			default:
+				throw new IndexOutOfBoundsException("There is no line processor #" + processorIndex);
+		}
+	}
 
-			@Override
-			protected boolean canProcessLine(String line) {
-				return line.startsWith("//");
-			}
-		});
+	/**
+	 * Constructs an interpreter for a single AnonLang file
+	 * @param fileName        The name of the file
+	 * @param lines           The lines of the file
+	 * @param globalVariables The global variables the file can read and write
+	 * @param out             The stream output is written to
+	 */
+	public AnonLang(String fileName, List<String> lines, GlobalVariableStore globalVariables, PrintStream out) {
+		this(fileName, lines, globalVariables, new StatementCache(), out);
 	}
 
 	/**
-	 * Prevent instantiation of AnonLang
+	 * Constructs an interpreter for a single AnonLang file that reads from the standard input
+	 * @param fileName        The name of the file
+	 * @param lines           The lines of the file
+	 * @param globalVariables The global variables the file can read and write
+	 * @param statementCache  The cache of line processors statements resolve to, which may be shared with other files
+	 * @param out             The stream output is written to
 	 */
-	private AnonLang() {
+	public AnonLang(String fileName, List<String> lines, GlobalVariableStore globalVariables, StatementCache statementCache, PrintStream out) {
+		this(fileName, lines, globalVariables, statementCache, standardInput, out);
+	}
 
+	/**
+	 * Constructs an interpreter for a single AnonLang file
+	 * @param fileName        The name of the file
+	 * @param lines           The lines of the file
+	 * @param globalVariables The global variables the file can read and write
+	 * @param statementCache  The cache of line processors statements resolve to, which may be shared with other files
+	 * @param in              The reader input is read from
+	 * @param out             The stream output is written to
+	 */
+	public AnonLang(String fileName, List<String> lines, GlobalVariableStore globalVariables, StatementCache statementCache, BufferedReader in, PrintStream out) {
+		this.currentFileName = fileName;
+		this.currentLines = SourceStatements.of(fileName, lines);
+		this.globalVariables = globalVariables;
+		this.namespace = getNamespace(fileName);
+		this.statementCache = statementCache;
+		this.in = in;
+		this.tokens = currentLines.cursor();
+		this.out = out;
+		this.executionTrace = new ExecutionTrace(fileName, currentLines, ExecutionTrace.DEFAULT_CAPACITY);
 	}
 
 	/**
-	 * Takes an array of paths to AnonLang files and processes each file
+	 * Takes an array of paths to AnonLang files and processes each file. <br>
+	 * All files after {@code --format} are formatted instead (see {@link AnonCodeFormatter#main(String[])}),
+	 * all files after {@code --watch} are executed again whenever they change (see {@link AnonWatcher#main(String[])}),
+	 * the directory or manifest after {@code --batch} is run as a batch (see {@link AnonBatchRunner#main(String[])}),
+	 * and all files after {@code --bench N} are run N times and their latency reported (see {@link AnonBenchmark#main(String[])}). <br>
+	 * {@code --max-statements N}, {@code --max-evaluations N} and {@code --max-string-bytes N} abort every following file
+	 * that exceeds the given budget. <br>
+	 * {@code --checkpoint-interval MILLISECONDS} writes a checkpoint of every following file to {@code <file>.checkpoint}
+	 * at most once per interval, and {@code --resume} resumes every following file from its checkpoint if it has one.
+	 * The checkpoint of a file is deleted when the file finishes. <br>
+	 * {@code --result-cache DIRECTORY} replays the output and global variable changes of every following deterministic file
+	 * from the given directory if it ran before with the same global variables, and stores them there otherwise (see
+	 * {@link ResultCache}). {@code --result-cache-size BYTES} sets the size the results are kept within. <br>
+	 * If the system property {@value #FAST_START_PROPERTY} is true, the metrics are not registered with JMX,
+	 * which shortens the startup of short files. <br>
+	 * While a file runs, the files after it are read and their types inferred in the background (see {@link #executeAll(List, List)}).
 	 * @param arguments An array of paths to AnonLang files
 	 */
 	public static void main(String[] arguments) {
 		if (arguments.length == 0)
 			throw new IllegalArgumentException("No execution files specified");
-		for (String fileName : arguments) {
-			if (fileName.equals("--format")) {
-				formatMode = true;
-				continue;
+		if (!Boolean.getBoolean(FAST_START_PROPERTY))
+			AnonMetrics.registerInBackground();
+		long maximumStatements = Long.MAX_VALUE;
+		long maximumEvaluations = Long.MAX_VALUE;
+		long maximumStringBytes = Long.MAX_VALUE;
+		long checkpointInterval = 0;
+		boolean resume = false;
+		Path resultCacheDirectory = null;
+		long resultCacheBytes = ResultCache.DEFAULT_MAXIMUM_BYTES;
+		List<String> fileNames = new ArrayList<>();
+		List<Consumer<LoadedFile>> executions = new ArrayList<>();
+		Runnable nextMode = null;
+		RuntimeException argumentFailure = null;
+		try {
+			for (int argumentIndex = 0; argumentIndex < arguments.length && nextMode == null; ++argumentIndex) {
+				String fileName = arguments[argumentIndex];
+				String[] remainingArguments = Arrays.copyOfRange(arguments, argumentIndex + 1, arguments.length);
+				if (fileName.equals("--format"))
+					nextMode = () -> AnonCodeFormatter.main(remainingArguments);
+				else if (fileName.equals("--watch"))
+					nextMode = () -> AnonWatcher.main(remainingArguments);
+				else if (fileName.equals("--batch"))
+					nextMode = () -> AnonBatchRunner.main(remainingArguments);
+				else if (fileName.equals("--bench"))
+					nextMode = () -> AnonBenchmark.main(remainingArguments);
+				else if (fileName.equals("--max-statements"))
+					maximumStatements = parseLimit(arguments, ++argumentIndex);
+				else if (fileName.equals("--max-evaluations"))
+					maximumEvaluations = parseLimit(arguments, ++argumentIndex);
+				else if (fileName.equals("--max-string-bytes"))
+					maximumStringBytes = parseLimit(arguments, ++argumentIndex);
+				else if (fileName.equals("--checkpoint-interval"))
+					checkpointInterval = parseLimit(arguments, ++argumentIndex);
+				else if (fileName.equals("--resume"))
+					resume = true;
+				else if (fileName.equals("--result-cache")) {
+					if (++argumentIndex >= arguments.length)
+						throw new IllegalArgumentException("No value specified for --result-cache");
+					resultCacheDirectory = Paths.get(arguments[argumentIndex]);
+				} else if (fileName.equals("--result-cache-size"))
+					resultCacheBytes = parseLimit(arguments, ++argumentIndex);
+				else {
+					ExecutionBudget budget = new ExecutionBudget(maximumStatements, maximumEvaluations, maximumStringBytes, ExecutionBudget.Action.ABORT);
+					long fileCheckpointInterval = checkpointInterval;
+					boolean resumeFile = resume;
+					ResultCache resultCache = resultCacheDirectory == null ? null : new ResultCache(resultCacheDirectory, resultCacheBytes);
+					fileNames.add(fileName);
+					executions.add(loadedFile -> execute(loadedFile, sharedGlobalVariables, sharedStatementCache, budget, fileCheckpointInterval, resumeFile, resultCache));
+				}
 			}
-			if (formatMode)
-				AnonCodeFormatter.main(new String[]{fileName});
-			else {
-				System.out.println("Starting execution of file " + fileName);
-				try {
-					Path filePath = Paths.get(fileName);
-					String linesCombined = String.join("", Files.readAllLines(filePath));
-					String[] linesSplit = linesCombined.split(";");
-					for (String line : linesSplit)
-						currentLines.add(line.trim());
-					currentFileName = filePath.toString();
-					currentLines.forEach(line -> processLine(false));
-					currentLines.clear(); //reset current lines
-					stringToVariableMap.clear(); //reset variables
-					linesToSkip.clear(); //reset list of lines to skip
+		} catch (RuntimeException e) {
+			argumentFailure = e; //thrown once the files before the malformed option have been executed
+		}
+		executeAll(fileNames, executions);
+		if (argumentFailure != null)
+			throw argumentFailure;
+		if (nextMode != null)
+			nextMode.run();
+	}
+
+	/**
+	 * Executes the given files in order, while a background thread reads the files after the one being executed and infers
+	 * their types. At most {@value #LOAD_AHEAD_FILES} files are loaded ahead, so the memory used does not grow with the
+	 * number of files. If the background thread stops unexpectedly, the remaining files are loaded when they are executed.
+	 * @param fileNames  The paths to the files
+	 * @param executions Executes each loaded file, in the same order as the paths
+	 */
+	private static void executeAll(List<String> fileNames, List<Consumer<LoadedFile>> executions) {
+		if (fileNames.size() <= 1) {
+			if (!fileNames.isEmpty())
+				executions.get(0).accept(LoadedFile.load(fileNames.get(0)));
+			return;
+		}
+		BlockingQueue<LoadedFile> loadedFiles = new ArrayBlockingQueue<>(LOAD_AHEAD_FILES);
+		Thread loader = new Thread(() -> {
+			try {
+				for (String fileName : fileNames)
+					loadedFiles.put(LoadedFile.load(fileName));
+			} catch (InterruptedException e) {
+				//the remaining files are not executed
+			}
+		}, "AnonLang file loader");
+		loader.setDaemon(true);
+		loader.start();
+		try {
+			for (int fileIndex = 0; fileIndex < fileNames.size(); ++fileIndex) {
+				LoadedFile loadedFile = null;
+				while (loadedFile == null && loader.isAlive())
+					loadedFile = loadedFiles.poll(LOADER_CHECK_MILLISECONDS, TimeUnit.MILLISECONDS);
+				if (loadedFile == null) //the loader stopped, possibly after loading this file
+					loadedFile = loadedFiles.poll();
+				if (loadedFile == null)
+					loadedFile = LoadedFile.load(fileNames.get(fileIndex));
+				executions.get(fileIndex).accept(loadedFile);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			loader.interrupt();
+		}
+	}
+
+	/**
+	 * Parses the value of a budget option
+	 * @param arguments     The command line arguments
+	 * @param argumentIndex The index of the value
+	 * @return The value
+	 */
+	private static long parseLimit(String[] arguments, int argumentIndex) {
+		if (argumentIndex >= arguments.length)
+			throw new IllegalArgumentException("No value specified for " + arguments[argumentIndex - 1]);
+		return Long.parseLong(arguments[argumentIndex]);
+	}
+
+	/**
+	 * Executes the given file, reporting its start, end and any failure to the console
+	 * @param loadedFile         The file
+	 * @param globalVariables    The global variables the file can read and write
+	 * @param statementCache     The cache of line processors statements resolve to
+	 * @param budget             The execution budget of the file
+	 * @param checkpointInterval The least number of milliseconds between checkpoints of the file, or 0 to take none
+	 * @param resume             Whether or not to resume the file from its checkpoint if it has one
+	 * @param resultCache        The cache of the results of deterministic files, or null to cache no results
+	 */
+	static void execute(LoadedFile loadedFile, GlobalVariableStore globalVariables, StatementCache statementCache, ExecutionBudget budget, long checkpointInterval, boolean resume, ResultCache resultCache) {
+		String fileName = loadedFile.getFileName();
+		System.out.println("Starting execution of file " + fileName);
+		AnonLang anonLang = null;
+		CheckpointLog checkpointLog = null;
+		try {
+			Path filePath = loadedFile.getFilePath();
+			Path checkpointPath = CheckpointLog.getPath(filePath);
+			SourceStatements lines = loadedFile.getLines();
+			ResultCache.Recording recording = null;
+			if (resultCache != null && !resume && checkpointInterval == 0 && ResultCache.isCacheable(lines)) {
+				String resultKey = ResultCache.getKey(getNamespace(filePath.toString()), lines, globalVariables, budget);
+				if (resultCache.replay(resultKey, System.out, globalVariables)) {
 					System.out.println();
 					System.out.println("Finished execution of file " + fileName);
-				} catch (Exception e) {
-					e.printStackTrace();
-					System.out.println("Execution of " + fileName + " failed");
+					return;
+				}
+				recording = resultCache.record(resultKey, System.out, globalVariables);
+			}
+			anonLang = new AnonLang(filePath.toString(), lines, globalVariables, statementCache, recording == null ? System.out : recording.getOut());
+			anonLang.typeInference = loadedFile.getTypeInference();
+			anonLang.checkDeterminism = recording != null;
+			anonLang.getExecutionMeter().setBudget(budget);
+			if (resume && Files.exists(checkpointPath)) {
+				CheckpointLog.State state = CheckpointLog.read(checkpointPath, lines);
+				anonLang.resume(state);
+				System.out.println("Resuming from the checkpoint at " + lines.getPosition(state.getStatementIndex()));
+			}
+			if (checkpointInterval > 0) {
+				checkpointLog = new CheckpointLog(checkpointPath, lines, TimeUnit.MILLISECONDS.toNanos(checkpointInterval));
+				anonLang.setCheckpointLog(checkpointLog);
+			}
+			try {
+				anonLang.run();
+			} finally {
+				if (checkpointLog != null)
+					checkpointLog.close();
+			}
+			if (resume || checkpointLog != null)
+				Files.deleteIfExists(checkpointPath);
+			if (recording != null && anonLang.deterministic) {
+				try {
+					recording.store();
+				} catch (IOException e) {
+					System.err.println("Could not cache the result of " + fileName + ": " + e);
 				}
 			}
+			System.out.println();
+			System.out.println("Finished execution of file " + fileName);
+		} catch (Throwable e) { //errors such as StackOverflowError fail only this file
+			e.printStackTrace();
+			if (anonLang != null)
+				anonLang.getExecutionTrace().dump(System.err);
+			System.out.println("Execution of " + fileName + " failed");
+		}
+	}
+
+	/**
+	 * Reads and lexes the lines of the given AnonLang file
+	 * @param filePath The path to the file
+	 * @return The trimmed lines of the file, with their tokens
+	 * @throws IOException If the file could not be read
+	 */
+	public static SourceStatements readLines(Path filePath) throws IOException {
+		return SourceStatements.lex(filePath.toString(), new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the namespace global variables declared by the given file are stored in, which is its name without extension
+	 * @param fileName The name of the file
+	 * @return The namespace of the file
+	 */
+	public static String getNamespace(String fileName) {
+		String name = Paths.get(fileName).getFileName().toString();
+		int extensionIndex = name.lastIndexOf('.');
+		return extensionIndex > 0 ? name.substring(0, extensionIndex) : name;
+	}
+
+	/**
+	 * Processes every line of this file. <br>
+	 * If processing fails, {@link #getExecutionTrace()} shows the statements that were executed before the failure.
+	 */
+	public void run() {
+		AnonMetrics.recordScriptStarted(currentFileName, variableCount);
+		executionTrace.activate();
+		Supplier<String> previousInput = AnonExpression.setInput(this::readInputLine);
+		ExecutionMeter previousExecutionMeter = AnonExpression.setExecutionMeter(executionMeter);
+		try {
+			if (typeInference == null)
+				typeInference = TypeInference.infer(currentLines);
+			if (resumedRepeatLoops != null) {
+				currentIndex = resumedRepeatLoops.getFirst().statementIndex;
+				runRepeatLoop(resumedRepeatLoops.removeFirst());
+				++currentIndex;
+			}
+			while (currentIndex < currentLines.size()) {
+				processLine(false);
+				executionMeter.checkBudget();
+				checkpointIfDue();
+			}
+		} catch (AnonLangException e) {
+			if (!currentLines.isEmpty()) //the statement that was executed last
+				e.setPosition(currentLines.getPosition(Math.max(Math.min(currentIndex, currentLines.size()) - 1, 0)));
+			throw e;
+		} finally {
+			out.flush();
+			AnonExpression.setInput(previousInput);
+			AnonExpression.setExecutionMeter(previousExecutionMeter);
+			executionTrace.deactivate();
+			AnonMetrics.recordScriptFinished(currentFileName, variableCount);
+		}
+	}
+
+	/**
+	 * Reads the next line of the input of this file, counting it so that a resumed execution skips it
+	 * @return The line, or null at the end of the input
+	 */
+	private String readInputLine() {
+		try {
+			String line = in.readLine();
+			if (line != null)
+				++linesRead;
+			return line;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
 
+	/**
+	 * Takes checkpoints of the execution state of this file while it runs, between statements and between iterations of
+	 * repeat loops, except while a for loop is running
+	 * @param checkpointLog The log to write the checkpoints to
+	 */
+	public void setCheckpointLog(CheckpointLog checkpointLog) {
+		this.checkpointLog = checkpointLog;
+	}
+
+	/**
+	 * Restores the execution state of the given checkpoint, so that {@link #run()} continues from where it was taken. <br>
+	 * The lines that were read from the input before the checkpoint are read again and skipped.
+	 * @param state The state of the checkpoint
+	 * @throws IOException If the input could not be read
+	 */
+	public void resume(CheckpointLog.State state) throws IOException {
+		currentIndex = state.getStatementIndex();
+		repeatCounter = state.getRepeatCounter();
+		int[] loops = state.getRepeatLoops();
+		if (loops.length > 0) {
+			resumedRepeatLoops = new ArrayDeque<>();
+			for (int i = 0; i < loops.length; i += 3)
+				resumedRepeatLoops.addLast(new RepeatLoop(loops[i], loops[i + 1], loops[i + 2]));
+		}
+		for (int lineIndex : state.getLinesToSkip())
+			linesToSkip.add(lineIndex);
+		for (int statementIndex : state.getFunctionStatements()) {
+			lexStatement(statementIndex);
+			if (tokens.isKeyword("import")) //the variables and output of the module are part of the state already
+				defineModuleFunctions(moduleCache.load(resolvePath(parseModulePath(statementIndex))));
+			else defineFunction(statementIndex);
+			functionStatements.add(statementIndex);
+		}
+		while (linesRead < state.getLinesRead() && in.readLine() != null)
+			++linesRead;
+		state.getVariables().forEach(this::setVariable);
+		state.getGlobalVariables().forEach((qualifiedName, value) -> {
+			int separatorIndex = qualifiedName.lastIndexOf('.');
+			globalVariables.set(qualifiedName.substring(0, separatorIndex), qualifiedName.substring(separatorIndex + 1), value);
+		});
+	}
+
+	/**
+	 * Returns the most recent statements executed by this file
+	 * @return The execution trace of this file
+	 */
+	public ExecutionTrace getExecutionTrace() {
+		return executionTrace;
+	}
+
+	/**
+	 * Returns the meter that counts the work done by this file, whose budget may be set before or while this file runs
+	 * @return The execution meter of this file
+	 */
+	public ExecutionMeter getExecutionMeter() {
+		return executionMeter;
+	}
+
 	/**
 	 * Processes a line
 	 * @param inRepeatLoop Whether or not this line is being processed in a repeat loop
 	 */
-	private static void processLine(boolean inRepeatLoop) {
-		if (inRepeatLoop)
-			setVariable("loopCounter", repeatCounter++);
-		else {
-			stringToVariableMap.remove("loopCounter");
-			repeatCounter = 0;
-		}
-		if (!linesToSkip.contains(currentIndex) || inRepeatLoop) {
-			String line = currentLines.get(currentIndex);
-			line = line.trim();
-			boolean lineProcessSuccess = false;
-			for (LineProcessor lineProcessor : lineProcessors)
-				lineProcessSuccess = lineProcessSuccess || lineProcessor.processLineWithCheck(line);
-			if (!lineProcessSuccess)
-				throw new MalformedLineException("Could not process line #" + (currentIndex + 1));
+	private void processLine(boolean inRepeatLoop) {
+		try {
+			if (inRepeatLoop)
+				setIntVariable("loopCounter", repeatCounter++);
+			else {
+				stringToVariableMap.remove("loopCounter");
+				repeatCounter = 0;
+			}
+			if (!linesToSkip.contains(currentIndex) || inRepeatLoop) {
+				String line = currentLines.get(currentIndex);
+				line = line.trim();
+				boolean lineProcessSuccess = false;
+				int cacheEntry = statementCache.get(line);
+				AnonMetrics.recordStatementCacheLookup(cacheEntry != -1);
+				if (StatementCache.isResolved(cacheEntry)) {
+					LineProcessor lineProcessor = getLineProcessor(cacheEntry);
+					executionTrace.record(currentIndex, lineProcessor.getKind(), repeatCounter - 1);
+					executionMeter.countStatement();
+					lineProcessSuccess = lineProcessor.processLineNoCheck(line);
+					AnonMetrics.recordStatementExecuted(lineProcessor.getKind());
+				} else {
+					boolean resolved = cacheEntry != -1;
+					for (int processorIndex = resolved ? StatementCache.getProcessorIndex(cacheEntry) : 0; processorIndex < LINE_PROCESSOR_COUNT && !lineProcessSuccess; ++processorIndex) {
+						LineProcessor lineProcessor = getLineProcessor(processorIndex);
+						if (!resolved && lineProcessor.dependsOnState()) {
+							statementCache.putUnresolved(line, processorIndex); //the line processors before this one can never process this line
+							resolved = true;
+						}
+						if (lineProcessor.canProcessLine(line)) {
+							if (!resolved) {
+								statementCache.putResolved(line, processorIndex);
+								resolved = true;
+							}
+							executionTrace.record(currentIndex, lineProcessor.getKind(), repeatCounter - 1);
+							executionMeter.countStatement();
+							lineProcessSuccess = lineProcessor.processLineNoCheck(line);
+							if (lineProcessSuccess)
+								AnonMetrics.recordStatementExecuted(lineProcessor.getKind());
+						}
+					}
+				}
+				if (!lineProcessSuccess)
+					throw new MalformedLineException("Could not process statement: " + line);
+			}
+		} catch (AnonLangException e) {
+			e.setPosition(tokens.getStatementIndex() == currentIndex ? tokens.getPosition() : currentLines.getPosition(currentIndex));
+			throw e;
 		}
 		if (inRepeatLoop)
 			--currentIndex;
 		else ++currentIndex;
 	}
 
+	/**
+	 * Imports the module at the given path, which is relative to the directory of this file. <br>
+	 * The local variables and functions of the module that this file does not have are declared, the global variables of
+	 * the module that do not exist yet are declared, and the output of the module is written.
+	 * @param modulePath The path to the module
+	 */
+	private void importModule(String modulePath) {
+		ModuleCache.Module module = moduleCache.load(resolvePath(modulePath));
+		module.getVariableValues().forEach((name, value) -> {
+			if (!stringToVariableMap.containsKey(name))
+				stringToVariableMap.put(name, AnonVariable.of(value));
+		});
+		defineModuleFunctions(module);
+		module.declareGlobalVariables(globalVariables);
+		String output = module.getOutput();
+		out.print(output);
+		AnonMetrics.recordOutputWritten(output.length());
+	}
+
+	/**
+	 * Defines the functions of the given module that this file does not have
+	 * @param module The module
+	 */
+	private void defineModuleFunctions(ModuleCache.Module module) {
+		if (module.defineUserFunctions(userFunctions))
+			valueTemplates.clear();
+	}
+
+	/**
+	 * Parses the path of the given import statement
+	 * @param statementIndex The index of the import statement
+	 * @return The path to the module, without its quotes
+	 * @throws ImportException If the path is not quoted
+	 */
+	private String parseModulePath(int statementIndex) {
+		lexStatement(statementIndex);
+		tokens.next();
+		String modulePath = tokens.getRestOfStatement().trim();
+		if (modulePath.length() < 2 || !modulePath.startsWith("\"") || !modulePath.endsWith("\""))
+			throw new ImportException("Illegal module path: " + currentLines.get(statementIndex).trim());
+		return modulePath.substring(1, modulePath.length() - 1);
+	}
+
+	/**
+	 * Resolves the given path against the directory of this file
+	 * @param path The path, which may be relative to the directory of this file
+	 * @return The absolute, normalized path
+	 */
+	private Path resolvePath(String path) {
+		return Paths.get(currentFileName).toAbsolutePath().resolveSibling(path).normalize();
+	}
+
+	/**
+	 * Parses what follows the variable of a for statement, which is {@code in "path"}, optionally followed by
+	 * {@code by "delimiter"}
+	 * @param string The trimmed text after the variable
+	 * @return The path and the delimiter, which is null if records are lines, or null if the text is malformed
+	 */
+	private static String[] parseForSource(String string) {
+		if (!startsWithWord(string, "in"))
+			return null;
+		String rest = string.substring("in".length()).trim();
+		int pathEnd = rest.indexOf('"', 1);
+		if (!rest.startsWith("\"") || pathEnd == -1)
+			return null;
+		String path = rest.substring(1, pathEnd);
+		rest = rest.substring(pathEnd + 1).trim();
+		if (rest.isEmpty())
+			return new String[]{path, null};
+		if (!startsWithWord(rest, "by"))
+			return null;
+		rest = rest.substring("by".length()).trim();
+		if (rest.length() < 3 || !rest.startsWith("\"") || rest.indexOf('"', 1) != rest.length() - 1)
+			return null;
+		return new String[]{path, rest.substring(1, rest.length() - 1)};
+	}
+
+	/**
+	 * Parses a function definition of the form {@code NAME(PARAMETER, ...) = EXPRESSION}
+	 * @param string The text after {@code function}
+	 * @return The name of the function, its body and then the names of its parameters, or null if the definition is malformed
+	 */
+	static String[] parseFunctionDefinition(String string) {
+		int openingParenthesis = string.indexOf('(');
+		int closingParenthesis = string.indexOf(')');
+		if (openingParenthesis == -1 || closingParenthesis < openingParenthesis)
+			return null;
+		String rest = string.substring(closingParenthesis + 1).trim();
+		if (!rest.startsWith("="))
+			return null;
+		String parameterList = string.substring(openingParenthesis + 1, closingParenthesis).trim();
+		String[] parameters = parameterList.isEmpty() ? new String[0] : parameterList.split(",", -1);
+		String[] definition = new String[parameters.length + 2];
+		definition[0] = string.substring(0, openingParenthesis).trim();
+		definition[1] = rest.substring(1).trim();
+		for (int i = 0; i < parameters.length; ++i)
+			definition[i + 2] = parameters[i].trim();
+		return definition;
+	}
+
+	/**
+	 * Defines the function of the given function definition
+	 * @param statementIndex The index of the function definition
+	 */
+	private void defineFunction(int statementIndex) {
+		lexStatement(statementIndex);
+		String line = currentLines.get(statementIndex).trim();
+		tokens.next();
+		String[] definition = parseFunctionDefinition(tokens.getRestOfStatement().trim());
+		if (definition == null)
+			throw new MalformedFunctionException("Illegal function definition: " + line);
+		if (definition[1].indexOf('&') != -1)
+			throw new MalformedFunctionException("The body of function " + definition[0] + " may only refer to its parameters: " + line);
+		userFunctions.define(definition[0], Arrays.asList(definition).subList(2, definition.length), definition[1]);
+		valueTemplates.clear();
+	}
+
+	/**
+	 * Runs the statement after the current line once for each record of the given file, with the given variable set to
+	 * the record as a string, since records of one file may look like numbers or not. <br>
+	 * The file is read a buffer at a time, so it is never loaded whole.
+	 * @param variableName The name of the variable the records are assigned to
+	 * @param path         The path to the file
+	 * @param delimiter    The delimiter that separates records, or null if records are lines
+	 */
+	private void runForLoop(String variableName, Path path, String delimiter) {
+		linesToSkip.add(currentIndex + 1);
+		++forLoopDepth;
+		try (RecordReader recordReader = new RecordReader(path, delimiter)) {
+			CharSequence record;
+			while ((record = recordReader.next()) != null) {
+				setVariable(variableName, record.toString());
+				++currentIndex;
+				processLine(true);
+				executionMeter.checkBudget();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			--forLoopDepth;
+		}
+	}
+
+	/**
+	 * Returns the values of the local variables of this file, except {@code loopCounter}
+	 * @return A map of the names of the local variables to their values
+	 */
+	Map<String, Object> getVariableValues() {
+		Map<String, Object> variableValues = new HashMap<>();
+		stringToVariableMap.forEach((name, variable) -> {
+			if (!name.equals("loopCounter"))
+				variableValues.put(name, variable.getValue());
+		});
+		return variableValues;
+	}
+
+	/**
+	 * Returns the functions defined by this file
+	 * @return The user-defined functions
+	 */
+	AnonExpression.UserFunctions getUserFunctions() {
+		return userFunctions;
+	}
+
+	/**
+	 * Runs the given repeat loop, whose statement is the current line, from its completed iterations to its repeat amount. <br>
+	 * If the file is resumed from a checkpoint taken in a nested repeat loop, the iteration that was running continues
+	 * the nested repeat loop instead of starting it again.
+	 * @param repeatLoop The repeat loop
+	 */
+	private void runRepeatLoop(RepeatLoop repeatLoop) {
+		repeatLoops.addLast(repeatLoop);
+		try {
+			while (repeatLoop.completedIterations < repeatLoop.amount) {
+				if (resumedRepeatLoops != null && !resumedRepeatLoops.isEmpty()) {
+					currentIndex = resumedRepeatLoops.getFirst().statementIndex;
+					runRepeatLoop(resumedRepeatLoops.removeFirst());
+					--currentIndex;
+				} else {
+					resumedRepeatLoops = null;
+					linesToSkip.add(++currentIndex);
+					processLine(true);
+				}
+				++repeatLoop.completedIterations;
+				executionMeter.checkBudget();
+				checkpointIfDue();
+			}
+		} finally {
+			repeatLoops.removeLast();
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the execution state of this file if one is due
+	 */
+	private void checkpointIfDue() {
+		if (checkpointLog == null || forLoopDepth > 0 || !checkpointLog.isDue())
+			return;
+		int[] loops = new int[repeatLoops.size() * 3];
+		int loopIndex = 0;
+		for (RepeatLoop repeatLoop : repeatLoops) {
+			loops[loopIndex++] = repeatLoop.statementIndex;
+			loops[loopIndex++] = repeatLoop.amount;
+			loops[loopIndex++] = repeatLoop.completedIterations;
+		}
+		int[] skippedLines = new int[linesToSkip.size()];
+		int skippedLineIndex = 0;
+		for (int lineIndex : linesToSkip)
+			skippedLines[skippedLineIndex++] = lineIndex;
+		Map<String, Object> variableValues = new HashMap<>();
+		stringToVariableMap.forEach((name, variable) -> variableValues.put(name, variable.getValue()));
+		Map<String, Object> globalVariableValues = new HashMap<>();
+		for (String variableNamespace : globalVariables.getNamespaces())
+			for (String variableName : globalVariables.getNames(variableNamespace)) {
+				GlobalVariableStore.Snapshot snapshot = globalVariables.read(variableNamespace, variableName);
+				if (snapshot != null)
+					globalVariableValues.put(GlobalVariableStore.qualify(variableNamespace, variableName), snapshot.getValue());
+			}
+		int[] definedFunctions = new int[functionStatements.size()];
+		for (int i = 0; i < definedFunctions.length; ++i)
+			definedFunctions[i] = functionStatements.get(i);
+		checkpointLog.write(new CheckpointLog.State(currentIndex, repeatCounter, loops, skippedLines, definedFunctions, linesRead, variableValues, globalVariableValues));
+	}
+
 	/**
 	 * Sets the variable with the specified name to the specified value. <br>
 	 * If the variable does not exist, it is created.
 	 * @param name  The name of the variable
 	 * @param value The value of the variable
 	 */
-	private static void setVariable(String name, Object value) {
+	private void setVariable(String name, Object value) {
 		name = name.trim();
-		if (stringToVariableMap.containsKey(name)) {
-			AnonVariable variable = stringToVariableMap.get(name);
-			if (value.getClass() == Integer.class && variable.getType() == Double.class)
-				value = ((Integer) value).doubleValue();
-			if (value.getClass() == Double.class && variable.getType() == Integer.class) {
-				value = (int) Math.round((Double) value);
-			}
-			if (variable.getType() != value.getClass()) {
-				String currentTypeName = variable.getType().getName().replaceFirst("java.lang.", "");
-				String newTypeName = value.getClass().getName().replaceFirst("java.lang.", "");
-				throw new IllegalAssignmentException("Variable " + name + " is of type " + currentTypeName + " but was assigned value " + value + " of type " + newTypeName);
-			}
-			variable.setValue(value);
-		} else stringToVariableMap.put(name, AnonVariable.of(value));
+		AnonVariable variable = stringToVariableMap.get(name);
+		if (variable != null)
+			variable.assign(name, value);
+		else stringToVariableMap.put(name, AnonVariable.of(value));
 	}
 
 	/**
-	 * Sets the global variable with the specified name to the specified value. <br>
-	 * If the global variable does not exist, it is created.
-	 * @param name  The name of the global variable
-	 * @param value The value of the global variable
+	 * Sets the variable with the specified name to the specified int without boxing it. <br>
+	 * If the variable does not exist, it is created.
+	 * @param name  The name of the variable
+	 * @param value The value of the variable
 	 */
-	private static void setGlobalVariable(String name, Object value) {
-		name = name.trim();
-		if (stringToGlobalVariableMap.containsKey(name)) {
-			AnonVariable variable = stringToGlobalVariableMap.get(name);
-			if (value.getClass() == Integer.class && variable.getType() == Double.class)
-				value = ((Integer) value).doubleValue();
-			if (variable.getType() != value.getClass()) {
-				String currentTypeName = variable.getType().getName().replaceFirst("java.lang.", "");
-				String newTypeName = value.getClass().getName().replaceFirst("java.lang.", "");
-				throw new IllegalAssignmentException("Variable " + name + " is of type " + currentTypeName + " but was assigned value " + value + " of type " + newTypeName);
-			}
-			variable.setValue(value);
+	private void setIntVariable(String name, int value) {
+		AnonVariable variable = stringToVariableMap.get(name);
+		if (variable != null)
+			variable.assignInt(name, value);
+		else stringToVariableMap.put(name, AnonVariable.ofInt(value));
+	}
+
+	/**
+	 * Moves to the first token of the given statement
+	 * @param statementIndex The index of the statement
+	 */
+	private void lexStatement(int statementIndex) {
+		tokens.reset(statementIndex);
+		tokens.next();
+	}
+
+	/**
+	 * Lexes the name and {@code =} of a declaration whose keywords have been lexed
+	 * @return The name of the declared variable, or null if the statement does not continue with a name followed by {@code =}
+	 */
+	private String lexTarget() {
+		if (tokens.next() != AnonLexer.TokenKind.IDENTIFIER)
+			return null;
+		String variableName = tokens.getTokenText();
+		if (tokens.next() != AnonLexer.TokenKind.OPERATOR || !tokens.isOperator("="))
+			return null;
+		tokens.next();
+		return variableName;
+	}
+
+	/**
+	 * Appends to a string variable in place if the given value is the variable concatenated with something else. <br>
+	 * This only happens when the result is the same as that of {@link #parseEverything(String)}, which builds a new string.
+	 * @param name        The name of the variable being assigned
+	 * @param valueString The value assigned to the variable
+	 * @return Whether or not the variable was appended to
+	 */
+	private boolean appendToVariable(String name, String valueString) {
+		AnonVariable variable = stringToVariableMap.get(name);
+		if (variable == null || variable.getType() != AnonVariable.Type.STRING || variable.containsSyntaxCharacters())
+			return false;
+		String string = valueString.trim();
+		String reference = '&' + name + '&';
+		if (!string.startsWith(reference + "&conc&"))
+			return false;
+		CharSequence value = variable.getCharacters();
+		if (value.length() == 0 || !Character.isLetter(value.charAt(0)) || AnonExpression.startsWithFunctionName(value) || userFunctions.startsWithName(value))
+			return false; //the value must not be evaluated as an expression
+		String rest = substituteVariables(string.substring(reference.length()));
+		if (!rest.startsWith("&conc&"))
+			return false;
+		StringBuilder appended = new StringBuilder();
+		for (String component : splitConcatenations(rest.substring("&conc&".length()))) {
+			executionMeter.countEvaluation();
+			appended.append(AnonExpression.evaluate(component, userFunctions));
+		}
+		String start = value.length() >= 9 ? value.subSequence(0, 9).toString() : value + appended.toString();
+		if (startsWithWord(start, "Infinity") || startsWithWord(start, "NaN"))
+			return false; //the result must not be parsed as a number
+		variable.append(appended.toString());
+		executionMeter.countString(appended.length());
+		return true;
+	}
+
+	/**
+	 * Returns whether or not the given string starts with the given word followed by something other than an identifier
+	 * @param string The string to check
+	 * @param word   The word
+	 * @return Whether or not the string starts with the word
+	 */
+	private static boolean startsWithWord(String string, String word) {
+		if (!string.startsWith(word))
+			return false;
+		if (string.length() == word.length())
+			return true;
+		char next = string.charAt(word.length());
+		return !Character.isLetter(next) && !Character.isDigit(next) && next != '_';
+	}
+
+	/**
+	 * Finds the namespace and name of the global variable the given name refers to. <br>
+	 * Unqualified names refer to this file's namespace; qualified names have the form {@code namespace.name}.
+	 * @param variableName The name used to refer to the global variable
+	 * @return The namespace and name of the global variable, or null if it does not exist
+	 */
+	private String[] resolveGlobalVariable(String variableName) {
+		if (globalVariables.contains(namespace, variableName))
+			return new String[]{namespace, variableName};
+		int separatorIndex = variableName.lastIndexOf('.');
+		if (separatorIndex != -1) {
+			String variableNamespace = variableName.substring(0, separatorIndex);
+			String name = variableName.substring(separatorIndex + 1);
+			if (globalVariables.contains(variableNamespace, name))
+				return new String[]{variableNamespace, name};
 		}
-		stringToGlobalVariableMap.put(currentFileName + '.' + name, AnonVariable.of(value));
+		return null;
+	}
+
+	/**
+	 * Reads the value of the global variable the given name refers to
+	 * @param variableName The name used to refer to the global variable
+	 * @return The value of the global variable, or null if it does not exist
+	 * @see #resolveGlobalVariable(String)
+	 */
+	private Object readGlobalVariable(String variableName) {
+		String[] globalVariable = resolveGlobalVariable(variableName);
+		GlobalVariableStore.Snapshot snapshot = globalVariable == null ? null : globalVariables.read(globalVariable[0], globalVariable[1]);
+		return snapshot == null ? null : snapshot.getValue();
 	}
 
 	/**
@@ -412,20 +1287,124 @@ public final class AnonLang {
 	 * @param string The string to parse
 	 * @return The parsed object
 	 */
-	private static Object parseEverything(String string) {
-		string = string.trim();
-		for (String variableName : stringToVariableMap.keySet())
-			string = string.replaceAll('&' + variableName + '&', stringToVariableMap.get(variableName).getValue().toString());
-		for (String variableName : stringToGlobalVariableMap.keySet())
-			string = string.replaceAll('&' + variableName + '&', stringToGlobalVariableMap.get(variableName).getValue().toString());
-		String expressionResult = AnonExpression.evaluate(string);
-		if (!expressionResult.equals(string))
-			return parseVariable(expressionResult);
-		String[] splitString = string.split("&conc&");
-		String parsedString = "";
-		for (String component : splitString)
-			parsedString += AnonExpression.evaluate(component);
-		return parseVariable(parsedString);
+	private Object parseEverything(String string) {
+		return parseSubstituted(substituteVariables(string.trim()), false, userFunctions, executionMeter);
+	}
+
+	/**
+	 * Parses the value of the statement being processed, using what {@link TypeInference} found out about it before execution
+	 * @param string The text of the value
+	 * @return The parsed object
+	 */
+	private Object parseStatementValue(String string) {
+		Object constantValue = typeInference.getConstantValue(currentIndex);
+		if (constantValue != null)
+			return constantValue;
+		boolean notExpression = typeInference.getValueType(currentIndex) == TypeInference.InferredType.STRING;
+		String value = string.trim();
+		if (!notExpression) {
+			ValueTemplate template = valueTemplates.get(value);
+			if (template == null)
+				valueTemplates.put(value, template = ValueTemplate.of(value));
+			String result = template.evaluate(stringToVariableMap, userFunctions, executionMeter);
+			if (result != null) {
+				if (checkDeterminism && deterministic && !template.isDeterministic())
+					deterministic = false;
+				return parseVariable(result);
+			}
+		}
+		return parseSubstituted(substituteVariables(value), notExpression, userFunctions, executionMeter);
+	}
+
+	/**
+	 * Parses EVERYTHING possible from the given string, whose variable references have already been replaced
+	 * @param string         The string to parse
+	 * @param notExpression  Whether or not the string is known to start with a word that makes it and its first
+	 *                       {@code &conc&} component fail to evaluate, so that evaluating them can be skipped
+	 * @param userFunctions  The user-defined functions the string may call, or null if there are none
+	 * @param executionMeter The meter evaluations and string bytes are counted by
+	 * @return The parsed object
+	 */
+	static Object parseSubstituted(String string, boolean notExpression, AnonExpression.UserFunctions userFunctions, ExecutionMeter executionMeter) {
+		if (!notExpression) {
+			executionMeter.countEvaluation();
+			String expressionResult = AnonExpression.evaluate(string, userFunctions);
+			if (!expressionResult.equals(string))
+				return parseVariable(expressionResult);
+		}
+		List<String> components = splitConcatenations(string);
+		StringBuilder parsedString = new StringBuilder();
+		for (int i = 0; i < components.size(); ++i) {
+			if (i == 0 && notExpression)
+				parsedString.append(components.get(i));
+			else {
+				executionMeter.countEvaluation();
+				parsedString.append(AnonExpression.evaluate(components.get(i), userFunctions));
+			}
+		}
+		executionMeter.countString(parsedString.length());
+		return parseVariable(parsedString.toString());
+	}
+
+	/**
+	 * Splits the given string at every {@code &conc&} without a regular expression, leaving out empty components at the
+	 * end like {@link String#split(String)} does
+	 * @param string The string to split
+	 * @return The components of the string
+	 */
+	static List<String> splitConcatenations(String string) {
+		int concatenation = string.indexOf("&conc&");
+		if (concatenation == -1)
+			return Collections.singletonList(string);
+		List<String> components = new ArrayList<>();
+		int componentStart = 0;
+		do {
+			components.add(string.substring(componentStart, concatenation));
+			componentStart = concatenation + "&conc&".length();
+		} while ((concatenation = string.indexOf("&conc&", componentStart)) != -1);
+		components.add(string.substring(componentStart));
+		int size = components.size();
+		while (size > 0 && components.get(size - 1).isEmpty())
+			--size;
+		return components.subList(0, size);
+	}
+
+	/**
+	 * Replaces every reference to a local or global variable in the given string with its value, from left to right. <br>
+	 * A pair of ampersands that does not enclose the name of a variable is left alone, and its second ampersand may
+	 * start the next reference. Values are inserted as they are, so references in them are not replaced.
+	 * @param string The string to replace references in
+	 * @return The string with references replaced
+	 */
+	private String substituteVariables(String string) {
+		int referenceStart = string.indexOf('&');
+		if (referenceStart != -1) {
+			StringBuilder substituted = null;
+			int copied = 0;
+			int referenceEnd;
+			while (referenceStart != -1 && (referenceEnd = string.indexOf('&', referenceStart + 1)) != -1) {
+				String variableName = string.substring(referenceStart + 1, referenceEnd);
+				AnonVariable variable = stringToVariableMap.get(variableName);
+				Object globalValue = variable == null ? readGlobalVariable(variableName) : null;
+				if (variable == null && globalValue == null) {
+					referenceStart = referenceEnd;
+					continue;
+				}
+				if (substituted == null)
+					substituted = new StringBuilder(string.length() + 16);
+				substituted.append(string, copied, referenceStart);
+				if (variable != null)
+					variable.appendTo(substituted);
+				else substituted.append(globalValue);
+				copied = referenceEnd + 1;
+				referenceStart = string.indexOf('&', copied);
+			}
+			if (substituted != null)
+				string = substituted.append(string, copied, string.length()).toString();
+		}
+		if (checkDeterminism && deterministic && !AnonExpression.isDeterministic(string))
+			deterministic = false; //a reference was replaced by the name of a function such as random
+		return string;
 	}
 
 	/**
@@ -446,17 +1425,66 @@ public final class AnonLang {
 	}
 
 	/**
-	 * Adds a line processor to the list of line processors
-	 * @param lineProcessor The line processor to add
+	 * Returns the line processor with the given index, creating it if it has not been tried before
+	 * @param processorIndex The index of the line processor
+	 * @return The line processor
+	 */
+	private LineProcessor getLineProcessor(int processorIndex) {
+		LineProcessor lineProcessor = lineProcessors[processorIndex];
+		if (lineProcessor == null)
+			lineProcessor = lineProcessors[processorIndex] = createLineProcessor(processorIndex);
+		return lineProcessor;
+	}
+
+	/**
+	 * A running repeat loop
 	 */
-	private static void addLineProcessor(LineProcessor lineProcessor) {
-		lineProcessors.add(lineProcessor);
+	private static final class RepeatLoop {
+		/**
+		 * The index of the repeat statement
+		 */
+		private final int statementIndex;
+		/**
+		 * The number of iterations
+		 */
+		private final int amount;
+		/**
+		 * The number of iterations that have been completed
+		 */
+		private int completedIterations;
+
+		private RepeatLoop(int statementIndex, int amount, int completedIterations) {
+			this.statementIndex = statementIndex;
+			this.amount = amount;
+			this.completedIterations = completedIterations;
+		}
 	}
 
 	/**
 	 * A line processor
 	 */
 	private abstract static class LineProcessor {
+		/**
+		 * The kind of statements this line processor processes
+		 */
+		private final StatementKind kind;
+
+		/**
+		 * Constructs a line processor
+		 * @param kind The kind of statements this line processor processes
+		 */
+		protected LineProcessor(StatementKind kind) {
+			this.kind = kind;
+		}
+
+		/**
+		 * Returns the kind of statements this line processor processes
+		 * @return The kind of statements this line processor processes
+		 */
+		public StatementKind getKind() {
+			return kind;
+		}
+
 		/**
 		 * Processes the given line
 		 * @param line The line to process
@@ -479,5 +1507,13 @@ public final class AnonLang {
 		 * @return Whether or not this line processor can process the given line
 		 */
 		protected abstract boolean canProcessLine(String line);
+
+		/**
+		 * Returns whether or not the lines this line processor can process depend on the current state of the interpreter
+		 * @return Whether or not the lines this line processor can process depend on the current state of the interpreter
+		 */
+		protected boolean dependsOnState() {
+			return false;
+		}
 	}
 }
@@ -0,0 +1,323 @@
+package io.github.anon10w1z.anonlang;
+
+/**
+ * A lexer of the statements of AnonLang source, which tells the kind of a statement and finds its target and value. <br>
+ * Tokens are not objects: the lexer is a cursor whose current token is described by its kind and its range in the
+ * statement. Each statement is lexed once, when its file is loaded, and its tokens are kept by {@link SourceStatements}.
+ * The value of a statement is a single token, since values are only split into expressions and references when they
+ * are evaluated.
+ * Line breaks are not part of the language (a statement may continue on the next line), so they only separate tokens
+ * and are left out of the text of tokens.
+ */
+public final class AnonLexer {
+	/**
+	 * The kinds of tokens
+	 */
+	public enum TokenKind {
+		/**
+		 * A keyword at the start of a statement, such as {@code writeln} or {@code var}
+		 */
+		KEYWORD,
+		/**
+		 * The name of a variable being declared, assigned, read, incremented, decremented or iterated over, the path of an
+		 * imported module or the start of a function definition
+		 */
+		IDENTIFIER,
+		/**
+		 * {@code =}, {@code ++}, {@code --} or {@code //}
+		 */
+		OPERATOR,
+		/**
+		 * The value of a statement, which is the rest of the statement
+		 */
+		TEXT,
+		/**
+		 * The {@code ;} that ends a statement
+		 */
+		STATEMENT_END,
+		/**
+		 * The end of the source
+		 */
+		END
+	}
+
+	/**
+	 * What the lexer expects next
+	 */
+	private enum State {
+		STATEMENT_START,
+		AFTER_GLOBAL,
+		TARGET,
+		AFTER_TARGET,
+		TEXT_START,
+		TEXT
+	}
+
+	/**
+	 * The keywords of AnonLang, longest first where one is a prefix of another
+	 */
+	private static final String[] keywords = {"writeln", "write", "global", "var", "repeat", "read", "import", "for", "function"};
+
+	/**
+	 * The source being lexed
+	 */
+	private String source;
+	/**
+	 * The index of the next character to lex
+	 */
+	private int position;
+	/**
+	 * What the lexer expects next
+	 */
+	private State state;
+
+	/**
+	 * The kind of the current token
+	 */
+	private TokenKind tokenKind;
+	/**
+	 * The index of the first character of the current token
+	 */
+	private int tokenStart;
+	/**
+	 * The index after the last character of the current token
+	 */
+	private int tokenEnd;
+	/**
+	 * The current keyword, or null if the current token is not a keyword
+	 */
+	private String keyword;
+
+	/**
+	 * Constructs a lexer of the given source
+	 * @param source The source to lex
+	 */
+	public AnonLexer(String source) {
+		reset(source);
+	}
+
+	/**
+	 * Starts lexing the given source from its beginning
+	 * @param source The source to lex
+	 */
+	public void reset(String source) {
+		this.source = source;
+		this.position = 0;
+		this.state = State.STATEMENT_START;
+		this.tokenKind = null;
+		this.keyword = null;
+	}
+
+	/**
+	 * Lexes the next token
+	 * @return The kind of the token
+	 */
+	public TokenKind next() {
+		keyword = null;
+		if (state == State.STATEMENT_START || state == State.AFTER_GLOBAL || state == State.TARGET || state == State.AFTER_TARGET || state == State.TEXT_START)
+			skipWhitespace();
+		startToken();
+		if (position >= source.length())
+			return endToken(TokenKind.END);
+		char character = source.charAt(position);
+		if (character == ';') {
+			++position;
+			state = State.STATEMENT_START;
+			return endToken(TokenKind.STATEMENT_END);
+		}
+		switch (state) {
+			case STATEMENT_START:
+				return nextStatementStart();
+			case AFTER_GLOBAL:
+				if (matchKeyword("var")) {
+					state = State.TARGET;
+					return endToken(TokenKind.KEYWORD);
+				}
+				state = State.TEXT;
+				return nextText();
+			case TARGET:
+				if (character == '=') {
+					++position;
+					state = State.TEXT_START;
+					return endToken(TokenKind.OPERATOR);
+				}
+				while (position < source.length() && !isWhitespace(source.charAt(position)) && source.charAt(position) != '=' && source.charAt(position) != ';')
+					++position;
+				state = State.AFTER_TARGET;
+				return endToken(TokenKind.IDENTIFIER);
+			case AFTER_TARGET:
+				if (character == '=') {
+					++position;
+					state = State.TEXT_START;
+					return endToken(TokenKind.OPERATOR);
+				}
+				state = State.TEXT;
+				return nextText();
+			default:
+				state = State.TEXT;
+				return nextText();
+		}
+	}
+
+	/**
+	 * Lexes the first token of a statement
+	 * @return The kind of the token
+	 */
+	private TokenKind nextStatementStart() {
+		if (source.startsWith("//", position)) {
+			position += 2;
+			state = State.TEXT_START;
+			return endToken(TokenKind.OPERATOR);
+		}
+		if (source.startsWith("++", position)) {
+			while (position < source.length() && source.charAt(position) == '+')
+				++position;
+			state = State.TARGET;
+			return endToken(TokenKind.OPERATOR);
+		}
+		if (source.startsWith("--", position)) {
+			position += 2;
+			state = State.TARGET;
+			return endToken(TokenKind.OPERATOR);
+		}
+		for (String candidate : keywords) {
+			if (matchKeyword(candidate)) {
+				if (candidate.equals("global"))
+					state = State.AFTER_GLOBAL;
+				else if (candidate.equals("var") || candidate.equals("read") || candidate.equals("import") || candidate.equals("for") || candidate.equals("function"))
+					state = State.TARGET;
+				else state = State.TEXT_START;
+				return endToken(TokenKind.KEYWORD);
+			}
+		}
+		state = State.TARGET;
+		return next();
+	}
+
+	/**
+	 * Lexes the value of a statement, up to the end of the statement
+	 * @return The kind of the token
+	 */
+	private TokenKind nextText() {
+		while (position < source.length() && source.charAt(position) != ';')
+			++position;
+		return endToken(TokenKind.TEXT);
+	}
+
+	/**
+	 * Consumes the given keyword if it is next, ignoring case, and is not followed by a letter, digit or underscore
+	 * @param candidate The keyword in lower case
+	 * @return Whether or not the keyword was consumed
+	 */
+	private boolean matchKeyword(String candidate) {
+		int end = position + candidate.length();
+		if (!source.regionMatches(true, position, candidate, 0, candidate.length()))
+			return false;
+		if (end < source.length() && isIdentifierCharacter(source.charAt(end)))
+			return false;
+		position = end;
+		keyword = candidate;
+		return true;
+	}
+
+	/**
+	 * Skips whitespace and line breaks
+	 */
+	private void skipWhitespace() {
+		while (position < source.length() && isWhitespace(source.charAt(position)))
+			++position;
+	}
+
+	/**
+	 * Marks the start of a token
+	 */
+	private void startToken() {
+		tokenStart = position;
+	}
+
+	/**
+	 * Marks the end of a token
+	 * @param kind The kind of the token
+	 * @return The kind of the token
+	 */
+	private TokenKind endToken(TokenKind kind) {
+		tokenEnd = position;
+		tokenKind = kind;
+		return kind;
+	}
+
+	/**
+	 * Returns the kind of the current token
+	 * @return The kind of the current token
+	 */
+	public TokenKind getTokenKind() {
+		return tokenKind;
+	}
+
+	/**
+	 * Returns the keyword the current token is
+	 * @return The keyword in lower case, or null if the current token is not a keyword
+	 */
+	public String getKeyword() {
+		return keyword;
+	}
+
+	/**
+	 * Returns the index of the first character of the current token
+	 * @return The index of the first character of the current token
+	 */
+	public int getTokenStart() {
+		return tokenStart;
+	}
+
+	/**
+	 * Returns the index after the last character of the current token
+	 * @return The index after the last character of the current token
+	 */
+	public int getTokenEnd() {
+		return tokenEnd;
+	}
+
+	/**
+	 * Returns the part of the given source between the given indices, without line breaks
+	 * @param source The source
+	 * @param start  The index of the first character
+	 * @param end    The index after the last character
+	 * @return The text
+	 */
+	static String getText(String source, int start, int end) {
+		String text = source.substring(start, end);
+		return text.indexOf('\n') == -1 && text.indexOf('\r') == -1 ? text : removeLineBreaks(text);
+	}
+
+	/**
+	 * Removes every line break from the given text
+	 * @param text The text
+	 * @return The text without line breaks
+	 */
+	private static String removeLineBreaks(String text) {
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); ++i)
+			if (text.charAt(i) != '\n' && text.charAt(i) != '\r')
+				builder.append(text.charAt(i));
+		return builder.toString();
+	}
+
+	/**
+	 * Returns whether or not the given character separates tokens
+	 * @param character The character
+	 * @return Whether or not the character is whitespace or a line break
+	 */
+	private static boolean isWhitespace(char character) {
+		return character <= ' ';
+	}
+
+	/**
+	 * Returns whether or not the given character can be part of a keyword
+	 * @param character The character
+	 * @return Whether or not the character is a letter, digit or underscore
+	 */
+	private static boolean isIdentifierCharacter(char character) {
+		return Character.isLetterOrDigit(character) || character == '_';
+	}
+}
@@ -0,0 +1,158 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.BufferedReader;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many AnonLang sessions at once, each with its own input and output. <br>
+ * On a JDK with virtual threads, every session runs on its own virtual thread, so sessions that are blocked reading input
+ * only cost their interpreter state; on older JDKs every session gets its own platform thread instead.
+ * Virtual threads can be turned off with the system property {@value #VIRTUAL_THREADS_PROPERTY}{@code =false}. <br>
+ * {@link AnonBatchRunner} runs the files of a batch as sessions.
+ */
+public final class AnonSessionScheduler implements AutoCloseable {
+	/**
+	 * The system property that turns the use of virtual threads off when set to false
+	 */
+	public static final String VIRTUAL_THREADS_PROPERTY = "anonlang.virtualThreads";
+
+	/**
+	 * The executor sessions run on
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Whether or not sessions run on virtual threads
+	 */
+	private final boolean usingVirtualThreads;
+	/**
+	 * The global variables shared by all sessions
+	 */
+	private final GlobalVariableStore globalVariables;
+	/**
+	 * The statement cache shared by all sessions
+	 */
+	private final StatementCache statementCache = new StatementCache();
+	/**
+	 * The number of sessions that have been submitted but have not finished
+	 */
+	private final AtomicInteger activeSessions = new AtomicInteger();
+	/**
+	 * The permits of the sessions that may run at once; sessions beyond them wait for a permit before they start
+	 */
+	private final Semaphore runningSessions;
+
+	/**
+	 * Constructs a session scheduler whose sessions share the given global variables and all run at once
+	 * @param globalVariables The global variables shared by all sessions
+	 */
+	public AnonSessionScheduler(GlobalVariableStore globalVariables) {
+		this(globalVariables, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a session scheduler whose sessions share the given global variables
+	 * @param globalVariables        The global variables shared by all sessions
+	 * @param maximumRunningSessions The number of sessions that may run at once
+	 */
+	public AnonSessionScheduler(GlobalVariableStore globalVariables, int maximumRunningSessions) {
+		this.globalVariables = globalVariables;
+		this.runningSessions = new Semaphore(Math.max(1, maximumRunningSessions));
+		ExecutorService virtualThreadExecutor = Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_PROPERTY, "true")) ? newVirtualThreadExecutor() : null;
+		this.usingVirtualThreads = virtualThreadExecutor != null;
+		this.executor = usingVirtualThreads ? virtualThreadExecutor : Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "AnonLang session");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Creates an executor that runs every task on a new virtual thread, through reflection so that this class still runs on Java 8
+	 * @return The executor, or null if this JDK does not have virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a session that executes the given lines
+	 * @param fileName The name of the session's file
+	 * @param lines    The lines to execute
+	 * @param in       The reader the session reads input from
+	 * @param out      The stream the session writes output to
+	 * @return A future that completes with the session's interpreter when it finishes, or with its exception if it fails
+	 */
+	public Future<AnonLang> submit(String fileName, List<String> lines, BufferedReader in, PrintStream out) {
+		AnonLang anonLang = new AnonLang(fileName, lines, globalVariables, statementCache, in, out);
+		return submit(() -> {
+			anonLang.run();
+			return anonLang;
+		});
+	}
+
+	/**
+	 * Starts a session that runs the given task, which sets up and runs its own interpreter
+	 * @param session The task
+	 * @param <T>     The type of the result of the task
+	 * @return A future that completes with the result of the task, or with its exception if it fails
+	 */
+	public <T> Future<T> submit(Callable<T> session) {
+		activeSessions.incrementAndGet();
+		try {
+			return executor.submit(() -> {
+				try {
+					runningSessions.acquire();
+					try {
+						return session.call();
+					} finally {
+						runningSessions.release();
+					}
+				} finally {
+					activeSessions.decrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			activeSessions.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns whether or not sessions run on virtual threads
+	 * @return Whether or not sessions run on virtual threads
+	 */
+	public boolean isUsingVirtualThreads() {
+		return usingVirtualThreads;
+	}
+
+	/**
+	 * Returns the number of sessions that have been submitted but have not finished
+	 * @return The number of active sessions
+	 */
+	public int getActiveSessions() {
+		return activeSessions.get();
+	}
+
+	/**
+	 * Stops accepting sessions and waits for the active sessions to finish. <br>
+	 * If the calling thread is interrupted while waiting, the active sessions are interrupted instead and the interrupt
+	 * status of the calling thread is kept.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,16 +1,70 @@
 package io.github.anon10w1z.anonlang;
 
+import io.github.anon10w1z.anonlang.exceptions.IllegalAssignmentException;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
 /**
- * A variable created by an AnonLang program
+ * A variable created by an AnonLang program. <br>
+ * Numeric values are kept in unboxed fields selected by the variable's type, so numeric updates do not allocate. <br>
+ * String values that are appended to are kept in a builder, and are only turned into a string when they are read.
  */
 public final class AnonVariable {
 	/**
-	 * The value of this variable
+	 * The types a variable can have
 	 */
-	private Object value;
+	public enum Type {
+		INT(Integer.class),
+		DOUBLE(Double.class),
+		STRING(String.class);
+
+		/**
+		 * The class of the boxed values of this type
+		 */
+		private final Class<?> valueClass;
+
+		Type(Class<?> valueClass) {
+			this.valueClass = valueClass;
+		}
 
-	private AnonVariable(Object value) {
-		this.value = value;
+		/**
+		 * Returns the class of the boxed values of this type
+		 * @return The class of the boxed values of this type
+		 */
+		public Class<?> getValueClass() {
+			return valueClass;
+		}
+	}
+
+	/**
+	 * The type of this variable, which never changes
+	 */
+	private final Type type;
+	/**
+	 * The value of this variable if it is an int
+	 */
+	private int intValue;
+	/**
+	 * The value of this variable if it is a double
+	 */
+	private double doubleValue;
+	/**
+	 * The value of this variable if it is a string, or null if it has been appended to since it was last read
+	 */
+	private String stringValue;
+	/**
+	 * The value of this variable if it is a string that has been appended to, or null if it has not
+	 */
+	private StringBuilder stringBuilder;
+	/**
+	 * Whether or not the value of this variable contains a character that has a meaning when the value is substituted into a statement
+	 * @see #isSyntaxCharacter(char)
+	 */
+	private boolean containsSyntaxCharacters;
+
+	private AnonVariable(Type type) {
+		this.type = type;
 	}
 
 	/**
@@ -19,30 +73,311 @@ public final class AnonVariable {
 	 * @return A new AnonVariable with the specified value
 	 */
 	public static AnonVariable of(Object value) {
-		return new AnonVariable(value);
+		AnonVariable variable;
+		if (value instanceof Integer) {
+			variable = new AnonVariable(Type.INT);
+			variable.intValue = (Integer) value;
+		} else if (value instanceof Double) {
+			variable = new AnonVariable(Type.DOUBLE);
+			variable.doubleValue = (Double) value;
+		} else {
+			variable = new AnonVariable(Type.STRING);
+			variable.setString(value.toString());
+		}
+		return variable;
+	}
+
+	/**
+	 * Creates a new int AnonVariable with the specified value
+	 * @param value The value to assign to this variable
+	 * @return A new AnonVariable with the specified value
+	 */
+	public static AnonVariable ofInt(int value) {
+		AnonVariable variable = new AnonVariable(Type.INT);
+		variable.intValue = value;
+		return variable;
 	}
 
 	/**
-	 * Returns the value of this variable
+	 * Returns the value of this variable, boxing it if it is numeric
 	 * @return The value of this variable
 	 */
 	public Object getValue() {
-		return value;
+		switch (type) {
+			case INT:
+				return intValue;
+			case DOUBLE:
+				return doubleValue;
+			default:
+				return toString();
+		}
+	}
+
+	/**
+	 * Returns the type of this variable
+	 * @return The type of this variable
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Assigns the specified value to this variable, following AnonLang's assignment rules
+	 * @param name  The name of this variable
+	 * @param value The new value of this variable
+	 * @see #convert(String, Class, Object)
+	 */
+	public void assign(String name, Object value) {
+		if (value instanceof Integer)
+			assignInt(name, (Integer) value);
+		else if (value instanceof Double)
+			assignDouble(name, (Double) value);
+		else if (value instanceof String && type == Type.STRING)
+			setString((String) value);
+		else throw illegalAssignment(name, value);
+	}
+
+	/**
+	 * Assigns the specified int to this variable, widening it if this variable is a double
+	 * @param name  The name of this variable
+	 * @param value The new value of this variable
+	 */
+	public void assignInt(String name, int value) {
+		switch (type) {
+			case INT:
+				intValue = value;
+				break;
+			case DOUBLE:
+				doubleValue = value;
+				break;
+			default:
+				throw illegalAssignment(name, value);
+		}
+	}
+
+	/**
+	 * Assigns the specified double to this variable, rounding it if this variable is an int
+	 * @param name  The name of this variable
+	 * @param value The new value of this variable
+	 */
+	public void assignDouble(String name, double value) {
+		switch (type) {
+			case INT:
+				intValue = roundToInt(name, value);
+				break;
+			case DOUBLE:
+				doubleValue = value;
+				break;
+			default:
+				throw illegalAssignment(name, value);
+		}
 	}
 
 	/**
-	 * Sets the value of this variable to the specified object
+	 * Replaces the value of this string variable
 	 * @param value The new value of this variable
 	 */
-	public void setValue(Object value) {
-		this.value = value;
+	private void setString(String value) {
+		stringValue = value;
+		stringBuilder = null;
+		containsSyntaxCharacters = containsSyntaxCharacters(value);
+	}
+
+	/**
+	 * Appends the specified string to the value of this string variable in amortized constant time per character
+	 * @param string The string to append
+	 */
+	public void append(String string) {
+		if (type != Type.STRING)
+			throw new IllegalStateException("Variable is not a string");
+		if (stringBuilder == null)
+			stringBuilder = new StringBuilder(stringValue.length() + string.length() + 16).append(stringValue);
+		stringBuilder.append(string);
+		stringValue = null;
+		containsSyntaxCharacters = containsSyntaxCharacters || containsSyntaxCharacters(string);
 	}
 
 	/**
-	 * Returns the class type of this variable's value
-	 * @return The class type of this variable's value
+	 * Returns the characters of this string variable without turning them into a string
+	 * @return The characters of this variable, which must not be kept after this variable changes
 	 */
-	public Class getType() {
-		return value.getClass();
+	CharSequence getCharacters() {
+		return stringValue != null ? stringValue : stringBuilder;
+	}
+
+	/**
+	 * Returns whether or not the value of this string variable contains '&amp;', which has a meaning when the value is
+	 * substituted into a statement
+	 * @return Whether or not the value contains the character
+	 */
+	public boolean containsSyntaxCharacters() {
+		return containsSyntaxCharacters;
+	}
+
+	/**
+	 * Returns whether or not the given string contains a syntax character
+	 * @param string The string to check
+	 * @return Whether or not the string contains a syntax character
+	 * @see #isSyntaxCharacter(char)
+	 */
+	private static boolean containsSyntaxCharacters(String string) {
+		for (int i = 0; i < string.length(); ++i)
+			if (isSyntaxCharacter(string.charAt(i)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether or not the given character has a meaning when it is substituted into a statement
+	 * @param character The character to check
+	 * @return Whether or not the character is '&amp;'
+	 */
+	private static boolean isSyntaxCharacter(char character) {
+		return character == '&';
+	}
+
+	/**
+	 * Adds the specified amount to this variable if it is numeric
+	 * @param delta The amount to add
+	 * @return Whether or not this variable is numeric
+	 */
+	public boolean add(int delta) {
+		switch (type) {
+			case INT:
+				intValue += delta;
+				return true;
+			case DOUBLE:
+				doubleValue += delta;
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the value of this variable as a string
+	 * @return The value of this variable as a string
+	 */
+	@Override
+	public String toString() {
+		switch (type) {
+			case INT:
+				return Integer.toString(intValue);
+			case DOUBLE:
+				return Double.toString(doubleValue);
+			default:
+				if (stringValue == null)
+					stringValue = stringBuilder.toString();
+				return stringValue;
+		}
+	}
+
+	/**
+	 * Returns whether or not this variable is numeric and its string form is a plain decimal number, which is not the
+	 * case for doubles that are not finite or are written with an exponent
+	 * @return Whether or not the value of this variable is a plain decimal number
+	 */
+	boolean isPlainNumber() {
+		switch (type) {
+			case INT:
+				return true;
+			case DOUBLE:
+				double magnitude = Math.abs(doubleValue);
+				return magnitude == 0 || (magnitude >= 1e-3 && magnitude < 1e7);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns whether or not the string form of this numeric variable starts with a minus sign
+	 * @return Whether or not the value of this variable is negative or negative zero
+	 */
+	boolean isNegative() {
+		switch (type) {
+			case INT:
+				return intValue < 0;
+			default:
+				return Double.doubleToRawLongBits(doubleValue) < 0;
+		}
+	}
+
+	/**
+	 * Returns the value of this numeric variable as a decimal, rounded as its string form would be when it is parsed
+	 * @param mathContext The precision and rounding mode of the decimal
+	 * @return The value of this variable as a decimal
+	 */
+	BigDecimal toDecimal(MathContext mathContext) {
+		switch (type) {
+			case INT:
+				return new BigDecimal(intValue, mathContext);
+			default:
+				return new BigDecimal(Double.toString(doubleValue), mathContext);
+		}
+	}
+
+	/**
+	 * Appends the string form of the value of this variable to the given builder without creating a string for it
+	 * @param builder The builder to append to
+	 */
+	void appendTo(StringBuilder builder) {
+		switch (type) {
+			case INT:
+				builder.append(intValue);
+				break;
+			case DOUBLE:
+				builder.append(doubleValue);
+				break;
+			default:
+				builder.append(getCharacters());
+		}
+	}
+
+	/**
+	 * Creates the exception thrown when a value of the wrong type is assigned to this variable
+	 * @param name  The name of this variable
+	 * @param value The value that was assigned
+	 * @return The exception
+	 */
+	private IllegalAssignmentException illegalAssignment(String name, Object value) {
+		String currentTypeName = type.getValueClass().getSimpleName();
+		String newTypeName = value.getClass().getSimpleName();
+		return new IllegalAssignmentException("Variable " + name + " is of type " + currentTypeName + " but was assigned value " + value + " of type " + newTypeName);
+	}
+
+	/**
+	 * Rounds the given double to the nearest int, so that it can be assigned to an int variable
+	 * @param name  The name of the variable being assigned
+	 * @param value The value being assigned
+	 * @return The rounded value
+	 * @throws IllegalAssignmentException If the rounded value is out of the range of an int
+	 */
+	private static int roundToInt(String name, double value) {
+		long rounded = Math.round(value);
+		if (rounded != (int) rounded)
+			throw new IllegalAssignmentException("Variable " + name + " is of type Integer but was assigned value " + value + ", which is out of its range");
+		return (int) rounded;
+	}
+
+	/**
+	 * Converts the given value so it can be assigned to a variable of the given type. <br>
+	 * Integers are widened to doubles and doubles are rounded to integers, unless they are out of the range of an int;
+	 * any other change of type is illegal.
+	 * @param name  The name of the variable being assigned
+	 * @param type  The type of the variable being assigned
+	 * @param value The value being assigned
+	 * @return The converted value
+	 */
+	static Object convert(String name, Class<?> type, Object value) {
+		if (value.getClass() == Integer.class && type == Double.class)
+			value = ((Integer) value).doubleValue();
+		if (value.getClass() == Double.class && type == Integer.class)
+			value = roundToInt(name, (Double) value);
+		if (type != value.getClass()) {
+			String currentTypeName = type.getName().replaceFirst("java.lang.", "");
+			String newTypeName = value.getClass().getName().replaceFirst("java.lang.", "");
+			throw new IllegalAssignmentException("Variable " + name + " is of type " + currentTypeName + " but was assigned value " + value + " of type " + newTypeName);
+		}
+		return value;
 	}
 }
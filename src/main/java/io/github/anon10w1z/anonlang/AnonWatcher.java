@@ -0,0 +1,101 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.metrics.AnonMetrics;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Executes AnonLang files and executes them again in the same JVM whenever they change
+ */
+public final class AnonWatcher {
+	/**
+	 * How long to wait for more changes after a change is detected, since editors often save a file in several steps
+	 */
+	private static final long SETTLE_MILLISECONDS = 20;
+
+	private AnonWatcher() {
+
+	}
+
+	/**
+	 * Executes each of the given files, then watches their directories and executes every file that changes again. <br>
+	 * Global variables are kept between executions, and statements that did not change are not parsed again.
+	 * @param arguments An array of paths to AnonLang files
+	 */
+	public static void main(String[] arguments) {
+		if (arguments.length == 0)
+			throw new IllegalArgumentException("No AnonLang files specified");
+		AnonMetrics.registerInBackground();
+		GlobalVariableStore globalVariables = new GlobalVariableStore();
+		Map<Path, StatementCache> fileToStatementCacheMap = new LinkedHashMap<>();
+		for (String fileName : arguments)
+			fileToStatementCacheMap.put(Paths.get(fileName).toAbsolutePath().normalize(), new StatementCache());
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			Set<Path> directories = new HashSet<>();
+			for (Path filePath : fileToStatementCacheMap.keySet())
+				if (directories.add(filePath.getParent()))
+					filePath.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+			fileToStatementCacheMap.forEach((filePath, statementCache) -> execute(filePath, globalVariables, statementCache));
+			System.out.println("Watching " + fileToStatementCacheMap.size() + " file(s) for changes");
+			while (true) {
+				Set<Path> changedFiles = new HashSet<>();
+				WatchKey watchKey = watchService.take();
+				do {
+					Path directory = (Path) watchKey.watchable();
+					for (WatchEvent<?> event : watchKey.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							for (Path filePath : fileToStatementCacheMap.keySet())
+								if (filePath.getParent().equals(directory))
+									changedFiles.add(filePath);
+						} else changedFiles.add(directory.resolve((Path) event.context()));
+					}
+					watchKey.reset();
+					watchKey = watchService.poll(SETTLE_MILLISECONDS, TimeUnit.MILLISECONDS);
+				} while (watchKey != null);
+				fileToStatementCacheMap.forEach((filePath, statementCache) -> {
+					if (changedFiles.contains(filePath))
+						execute(filePath, globalVariables, statementCache);
+				});
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Watching failed");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Executes the given file, parsing only the statements that are not in its statement cache
+	 * @param filePath        The path to the file
+	 * @param globalVariables The global variables the file can read and write
+	 * @param statementCache  The statement cache of the file
+	 */
+	private static void execute(Path filePath, GlobalVariableStore globalVariables, StatementCache statementCache) {
+		long startTime = System.nanoTime();
+		AnonLang anonLang = null;
+		try {
+			List<String> lines = AnonLang.readLines(filePath);
+			statementCache.retainAll(lines);
+			int changedStatements = 0;
+			for (String line : lines)
+				if (!statementCache.contains(line))
+					++changedStatements;
+			System.out.println("Starting execution of file " + filePath + " (" + changedStatements + " of " + lines.size() + " statements changed)");
+			anonLang = new AnonLang(filePath.toString(), lines, globalVariables, statementCache, System.out);
+			anonLang.run();
+			System.out.println();
+			System.out.println("Finished execution of file " + filePath + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+		} catch (Throwable e) { //errors such as StackOverflowError fail only this run of the file
+			e.printStackTrace();
+			if (anonLang != null)
+				anonLang.getExecutionTrace().dump(System.err);
+			System.out.println("Execution of " + filePath + " failed");
+		}
+	}
+}
@@ -0,0 +1,578 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * A binary file of checkpoints of the execution state of an AnonLang file, from which its execution can be resumed. <br>
+ * The file starts with a header identifying the statements it was taken of, followed by records, each of which is either
+ * a full checkpoint or the changes since the previous record. Each record is written by a background thread, so taking a
+ * checkpoint only copies the state; a checkpoint is skipped if the previous one is still being written. When the changes
+ * written since the last full checkpoint grow larger than it, the file is replaced by one with a new full checkpoint. <br>
+ * A record cut short by a crash is detected by its checksum and ignored when the file is read.
+ */
+public final class CheckpointLog implements Closeable {
+	/**
+	 * The number identifying a checkpoint file
+	 */
+	private static final int MAGIC = 0x414E4350;
+	/**
+	 * The version of the format of checkpoint files
+	 */
+	private static final int VERSION = 2;
+	/**
+	 * The kind of record that holds a full checkpoint
+	 */
+	private static final byte FULL_RECORD = 0;
+	/**
+	 * The kind of record that holds the changes since the previous record
+	 */
+	private static final byte CHANGES_RECORD = 1;
+
+	/**
+	 * The path to the checkpoint file
+	 */
+	private final Path path;
+	/**
+	 * The hash of the statements the checkpoints are taken of
+	 */
+	private final byte[] statementsHash;
+	/**
+	 * How long to wait between checkpoints, in nanoseconds
+	 */
+	private final long intervalNanos;
+	/**
+	 * The thread checkpoints are written by
+	 */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "AnonLang checkpoint writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Whether or not a checkpoint is waiting to be written or being written
+	 */
+	private final AtomicBoolean writing = new AtomicBoolean();
+	/**
+	 * The time the next checkpoint is due, in nanoseconds
+	 */
+	private long nextCheckpointTime;
+
+	/**
+	 * The channel records are appended to, or null if no full checkpoint has been written yet (used by the writer only)
+	 */
+	private FileChannel channel;
+	/**
+	 * The state written by the latest record (used by the writer only)
+	 */
+	private State writtenState;
+	/**
+	 * The size of the latest full record, in bytes (used by the writer only)
+	 */
+	private long fullRecordBytes;
+	/**
+	 * The size of the records written since the latest full record, in bytes (used by the writer only)
+	 */
+	private long changesRecordBytes;
+	/**
+	 * The first failure of the writer, or null if it has not failed
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Constructs a checkpoint log that replaces the given file the first time a checkpoint is written
+	 * @param path          The path to the checkpoint file
+	 * @param statements    The statements the checkpoints are taken of
+	 * @param intervalNanos How long to wait between checkpoints, in nanoseconds
+	 */
+	public CheckpointLog(Path path, List<String> statements, long intervalNanos) {
+		this.path = path;
+		this.statementsHash = hash(statements);
+		this.intervalNanos = intervalNanos;
+		this.nextCheckpointTime = System.nanoTime() + intervalNanos;
+	}
+
+	/**
+	 * Returns the path to the checkpoint file of the given AnonLang file
+	 * @param filePath The path to the AnonLang file
+	 * @return The path to the checkpoint file
+	 */
+	public static Path getPath(Path filePath) {
+		return filePath.resolveSibling(filePath.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * Returns whether or not a checkpoint is due, which is when the interval has passed and the previous one has been written
+	 * @return Whether or not a checkpoint should be taken
+	 */
+	public boolean isDue() {
+		return System.nanoTime() >= nextCheckpointTime && !writing.get();
+	}
+
+	/**
+	 * Writes the given state in the background
+	 * @param state The state, which must not be changed afterwards
+	 */
+	public void write(State state) {
+		nextCheckpointTime = System.nanoTime() + intervalNanos;
+		if (!writing.compareAndSet(false, true))
+			return;
+		writer.execute(() -> {
+			try {
+				if (failure == null)
+					writeRecord(state);
+			} catch (IOException e) {
+				failure = e;
+			} finally {
+				writing.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Waits for the checkpoint being written, then closes the checkpoint file
+	 * @throws IOException If a checkpoint could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (channel != null)
+			channel.close();
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Writes a record of the given state, replacing the checkpoint file with a full checkpoint if there is none yet or
+	 * if the changes written since the last one are larger than it
+	 * @param state The state
+	 * @throws IOException If the record could not be written
+	 */
+	private void writeRecord(State state) throws IOException {
+		if (channel == null || changesRecordBytes > fullRecordBytes) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.write(statementsHash);
+			int headerBytes = bytes.size();
+			writeRecord(output, FULL_RECORD, state, null);
+			Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+			try (FileChannel temporaryChannel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				writeFully(temporaryChannel, bytes.toByteArray());
+				temporaryChannel.force(false);
+			}
+			if (channel != null)
+				channel.close();
+			Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			fullRecordBytes = bytes.size() - headerBytes;
+			changesRecordBytes = 0;
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writeRecord(new DataOutputStream(bytes), CHANGES_RECORD, state, writtenState);
+			writeFully(channel, bytes.toByteArray());
+			channel.force(false);
+			changesRecordBytes += bytes.size();
+		}
+		writtenState = state;
+	}
+
+	/**
+	 * Writes a record of the given state, which is its length, its content and the checksum of its content
+	 * @param output        The output to write the record to
+	 * @param kind          {@link #FULL_RECORD} or {@link #CHANGES_RECORD}
+	 * @param state         The state
+	 * @param previousState The state of the previous record, or null for a full record
+	 * @throws IOException If the record could not be written
+	 */
+	private static void writeRecord(DataOutputStream output, byte kind, State state, State previousState) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream content = new DataOutputStream(bytes);
+		content.writeByte(kind);
+		content.writeInt(state.statementIndex);
+		content.writeInt(state.repeatCounter);
+		content.writeLong(state.linesRead);
+		writeInts(content, state.repeatLoops);
+		writeInts(content, state.linesToSkip);
+		writeInts(content, state.functionStatements);
+		writeChanges(content, state.variables, previousState == null ? Collections.emptyMap() : previousState.variables);
+		writeChanges(content, state.globalVariables, previousState == null ? Collections.emptyMap() : previousState.globalVariables);
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes.toByteArray());
+		output.writeInt(bytes.size());
+		bytes.writeTo(output);
+		output.writeInt((int) checksum.getValue());
+	}
+
+	/**
+	 * Writes the values that are not in the given previous values, followed by the names that are no longer there
+	 * @param output         The output to write the changes to
+	 * @param values         Maps names to values
+	 * @param previousValues Maps names to the values written before
+	 * @throws IOException If the changes could not be written
+	 */
+	private static void writeChanges(DataOutputStream output, Map<String, Object> values, Map<String, Object> previousValues) throws IOException {
+		List<String> changedNames = new ArrayList<>();
+		for (Map.Entry<String, Object> entry : values.entrySet())
+			if (!entry.getValue().equals(previousValues.get(entry.getKey())))
+				changedNames.add(entry.getKey());
+		output.writeInt(changedNames.size());
+		for (String name : changedNames) {
+			writeString(output, name);
+			writeValue(output, values.get(name));
+		}
+		List<String> removedNames = new ArrayList<>();
+		for (String name : previousValues.keySet())
+			if (!values.containsKey(name))
+				removedNames.add(name);
+		output.writeInt(removedNames.size());
+		for (String name : removedNames)
+			writeString(output, name);
+	}
+
+	/**
+	 * Reads the latest complete checkpoint from the given checkpoint file
+	 * @param path       The path to the checkpoint file
+	 * @param statements The statements of the file being resumed
+	 * @return The state of the latest complete checkpoint
+	 * @throws IOException If the checkpoint file could not be read, has no complete checkpoint or was taken of other statements
+	 */
+	public static State read(Path path, List<String> statements) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			byte[] statementsHash = new byte[32];
+			if (input.readInt() != MAGIC || input.readInt() != VERSION)
+				throw new IOException(path + " is not a checkpoint file");
+			input.readFully(statementsHash);
+			if (!Arrays.equals(statementsHash, hash(statements)))
+				throw new IOException("The checkpoint " + path + " was taken of a different version of the file");
+			State state = null;
+			byte[] content;
+			while ((content = readRecord(input)) != null)
+				state = readRecord(new DataInputStream(new ByteArrayInputStream(content)), state);
+			if (state == null)
+				throw new IOException("The checkpoint file " + path + " has no complete checkpoint");
+			return state;
+		} catch (EOFException e) {
+			throw new IOException(path + " is not a checkpoint file", e);
+		}
+	}
+
+	/**
+	 * Reads the content of the next record, if it is complete and its checksum is correct
+	 * @param input The input to read the record from
+	 * @return The content of the record, or null if there is no complete record left
+	 * @throws IOException If the record could not be read
+	 */
+	private static byte[] readRecord(DataInputStream input) throws IOException {
+		try {
+			int length = input.readInt();
+			if (length <= 0)
+				return null;
+			byte[] content = new byte[length];
+			input.readFully(content);
+			CRC32 checksum = new CRC32();
+			checksum.update(content);
+			return input.readInt() == (int) checksum.getValue() ? content : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the state of a record
+	 * @param content       The content of the record
+	 * @param previousState The state of the previous record, or null if there is none
+	 * @return The state of the record
+	 * @throws IOException If the record is malformed
+	 */
+	private static State readRecord(DataInputStream content, State previousState) throws IOException {
+		byte kind = content.readByte();
+		if (kind != FULL_RECORD && (kind != CHANGES_RECORD || previousState == null))
+			throw new IOException("Malformed checkpoint record");
+		int statementIndex = content.readInt();
+		int repeatCounter = content.readInt();
+		long linesRead = content.readLong();
+		int[] repeatLoops = readInts(content);
+		int[] linesToSkip = readInts(content);
+		int[] functionStatements = readInts(content);
+		Map<String, Object> variables = new HashMap<>(kind == FULL_RECORD ? Collections.emptyMap() : previousState.variables);
+		readChanges(content, variables);
+		Map<String, Object> globalVariables = new HashMap<>(kind == FULL_RECORD ? Collections.emptyMap() : previousState.globalVariables);
+		readChanges(content, globalVariables);
+		return new State(statementIndex, repeatCounter, repeatLoops, linesToSkip, functionStatements, linesRead, variables, globalVariables);
+	}
+
+	/**
+	 * Reads changes written by {@link #writeChanges(DataOutputStream, Map, Map)} and applies them to the given values
+	 * @param input  The input to read the changes from
+	 * @param values Maps names to values
+	 * @throws IOException If the changes are malformed
+	 */
+	private static void readChanges(DataInputStream input, Map<String, Object> values) throws IOException {
+		for (int i = input.readInt(); i > 0; --i) {
+			String name = readString(input);
+			values.put(name, readValue(input));
+		}
+		for (int i = input.readInt(); i > 0; --i)
+			values.remove(readString(input));
+	}
+
+	/**
+	 * Writes the given value of a variable, preceded by its type
+	 * @param output The output to write the value to
+	 * @param value  The value
+	 * @throws IOException If the value could not be written
+	 */
+	static void writeValue(DataOutputStream output, Object value) throws IOException {
+		if (value instanceof Integer) {
+			output.writeByte('I');
+			output.writeInt((Integer) value);
+		} else if (value instanceof Double) {
+			output.writeByte('D');
+			output.writeDouble((Double) value);
+		} else {
+			output.writeByte('S');
+			writeString(output, value.toString());
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #writeValue(DataOutputStream, Object)}
+	 * @param input The input to read the value from
+	 * @return The value
+	 * @throws IOException If the value is malformed
+	 */
+	static Object readValue(DataInputStream input) throws IOException {
+		byte type = input.readByte();
+		switch (type) {
+			case 'I':
+				return input.readInt();
+			case 'D':
+				return input.readDouble();
+			case 'S':
+				return readString(input);
+			default:
+				throw new IOException("Malformed value of type " + type);
+		}
+	}
+
+	/**
+	 * Writes the given ints, preceded by their number
+	 * @param output The output to write the ints to
+	 * @param ints   The ints
+	 * @throws IOException If the ints could not be written
+	 */
+	private static void writeInts(DataOutputStream output, int[] ints) throws IOException {
+		output.writeInt(ints.length);
+		for (int value : ints)
+			output.writeInt(value);
+	}
+
+	/**
+	 * Reads ints written by {@link #writeInts(DataOutputStream, int[])}
+	 * @param input The input to read the ints from
+	 * @return The ints
+	 * @throws IOException If the ints could not be read
+	 */
+	private static int[] readInts(DataInputStream input) throws IOException {
+		int[] ints = new int[input.readInt()];
+		for (int i = 0; i < ints.length; ++i)
+			ints[i] = input.readInt();
+		return ints;
+	}
+
+	/**
+	 * Writes the given string as UTF-8, preceded by its length in bytes, since strings may be longer than {@link DataOutputStream#writeUTF(String)} allows
+	 * @param output The output to write the string to
+	 * @param string The string
+	 * @throws IOException If the string could not be written
+	 */
+	static void writeString(DataOutputStream output, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 * @param input The input to read the string from
+	 * @return The string
+	 * @throws IOException If the string could not be read
+	 */
+	static String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes all of the given bytes to the given channel
+	 * @param channel The channel
+	 * @param bytes   The bytes
+	 * @throws IOException If the bytes could not be written
+	 */
+	private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the given statements
+	 * @param statements The statements
+	 * @return The hash
+	 */
+	private static byte[] hash(List<String> statements) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String statement : statements) {
+				digest.update(statement.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) ';');
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * The execution state of an AnonLang file between two statements
+	 */
+	public static final class State {
+		/**
+		 * The index of the next statement to execute, or of the innermost repeat statement if repeat loops are running
+		 */
+		private final int statementIndex;
+		/**
+		 * The value the next {@code loopCounter} is set to
+		 */
+		private final int repeatCounter;
+		/**
+		 * The statement index, repeat amount and completed iterations of each running repeat loop, outermost first
+		 */
+		private final int[] repeatLoops;
+		/**
+		 * The indices of the statements that are skipped because they are the body of a repeat statement
+		 */
+		private final int[] linesToSkip;
+		/**
+		 * The indices of the function definitions and imports that have been executed, in the order they were executed
+		 */
+		private final int[] functionStatements;
+		/**
+		 * The number of lines read from the input
+		 */
+		private final long linesRead;
+		/**
+		 * Maps the names of the local variables to their values
+		 */
+		private final Map<String, Object> variables;
+		/**
+		 * Maps the qualified names of the global variables to their values
+		 */
+		private final Map<String, Object> globalVariables;
+
+		/**
+		 * Constructs an execution state
+		 * @param statementIndex     The index of the next statement to execute, or of the innermost repeat statement if repeat loops are running
+		 * @param repeatCounter      The value the next {@code loopCounter} is set to
+		 * @param repeatLoops        The statement index, repeat amount and completed iterations of each running repeat loop, outermost first
+		 * @param linesToSkip        The indices of the statements that are skipped because they are the body of a repeat statement
+		 * @param functionStatements The indices of the function definitions and imports that have been executed, in the order they were executed
+		 * @param linesRead          The number of lines read from the input
+		 * @param variables          Maps the names of the local variables to their values
+		 * @param globalVariables    Maps the qualified names of the global variables to their values
+		 */
+		public State(int statementIndex, int repeatCounter, int[] repeatLoops, int[] linesToSkip, int[] functionStatements, long linesRead, Map<String, Object> variables, Map<String, Object> globalVariables) {
+			this.statementIndex = statementIndex;
+			this.repeatCounter = repeatCounter;
+			this.repeatLoops = repeatLoops;
+			this.linesToSkip = linesToSkip;
+			this.functionStatements = functionStatements;
+			this.linesRead = linesRead;
+			this.variables = variables;
+			this.globalVariables = globalVariables;
+		}
+
+		/**
+		 * Returns the index of the next statement to execute, or of the innermost repeat statement if repeat loops are running
+		 * @return The statement index
+		 */
+		public int getStatementIndex() {
+			return statementIndex;
+		}
+
+		/**
+		 * Returns the value the next {@code loopCounter} is set to
+		 * @return The repeat counter
+		 */
+		public int getRepeatCounter() {
+			return repeatCounter;
+		}
+
+		/**
+		 * Returns the statement index, repeat amount and completed iterations of each running repeat loop, outermost first
+		 * @return Three ints for each running repeat loop
+		 */
+		public int[] getRepeatLoops() {
+			return repeatLoops;
+		}
+
+		/**
+		 * Returns the indices of the statements that are skipped because they are the body of a repeat statement
+		 * @return The indices of the skipped statements
+		 */
+		public int[] getLinesToSkip() {
+			return linesToSkip;
+		}
+
+		/**
+		 * Returns the indices of the function definitions that have been executed, in the order they were executed
+		 * @return The indices of the function definitions and imports
+		 */
+		public int[] getFunctionStatements() {
+			return functionStatements;
+		}
+
+		/**
+		 * Returns the number of lines read from the input
+		 * @return The number of lines read
+		 */
+		public long getLinesRead() {
+			return linesRead;
+		}
+
+		/**
+		 * Returns the values of the local variables
+		 * @return Maps the names of the local variables to their values
+		 */
+		public Map<String, Object> getVariables() {
+			return variables;
+		}
+
+		/**
+		 * Returns the values of the global variables
+		 * @return Maps the qualified names of the global variables to their values
+		 */
+		public Map<String, Object> getGlobalVariables() {
+			return globalVariables;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package io.github.anon10w1z.anonlang;
+
+/**
+ * Limits on how much work a single script may do
+ */
+public final class ExecutionBudget {
+	/**
+	 * A budget without limits
+	 */
+	public static final ExecutionBudget UNLIMITED = new ExecutionBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Action.ABORT);
+
+	/**
+	 * What happens to a script that exceeds its budget
+	 */
+	public enum Action {
+		/**
+		 * The script fails with a {@link io.github.anon10w1z.anonlang.exceptions.BudgetExceededException}
+		 */
+		ABORT,
+		/**
+		 * The script waits until {@link ExecutionMeter#resume()} grants it the same budget again
+		 */
+		PAUSE
+	}
+
+	/**
+	 * The maximum number of statements the script may execute
+	 */
+	private final long maximumStatements;
+	/**
+	 * The maximum number of expressions the script may evaluate
+	 */
+	private final long maximumEvaluations;
+	/**
+	 * The maximum number of bytes the script may allocate for string values
+	 */
+	private final long maximumStringBytes;
+	/**
+	 * What happens when the script exceeds this budget
+	 */
+	private final Action action;
+
+	/**
+	 * Constructs an execution budget
+	 * @param maximumStatements  The maximum number of statements the script may execute
+	 * @param maximumEvaluations The maximum number of expressions the script may evaluate
+	 * @param maximumStringBytes The maximum number of bytes the script may allocate for string values
+	 * @param action             What happens when the script exceeds this budget
+	 */
+	public ExecutionBudget(long maximumStatements, long maximumEvaluations, long maximumStringBytes, Action action) {
+		if (maximumStatements < 0 || maximumEvaluations < 0 || maximumStringBytes < 0)
+			throw new IllegalArgumentException("Budget limits must not be negative");
+		this.maximumStatements = maximumStatements;
+		this.maximumEvaluations = maximumEvaluations;
+		this.maximumStringBytes = maximumStringBytes;
+		this.action = action;
+	}
+
+	/**
+	 * Returns the maximum number of statements the script may execute
+	 * @return The maximum number of statements the script may execute
+	 */
+	public long getMaximumStatements() {
+		return maximumStatements;
+	}
+
+	/**
+	 * Returns the maximum number of expressions the script may evaluate
+	 * @return The maximum number of expressions the script may evaluate
+	 */
+	public long getMaximumEvaluations() {
+		return maximumEvaluations;
+	}
+
+	/**
+	 * Returns the maximum number of bytes the script may allocate for string values
+	 * @return The maximum number of bytes the script may allocate for string values
+	 */
+	public long getMaximumStringBytes() {
+		return maximumStringBytes;
+	}
+
+	/**
+	 * Returns what happens when the script exceeds this budget
+	 * @return What happens when the script exceeds this budget
+	 */
+	public Action getAction() {
+		return action;
+	}
+}
@@ -0,0 +1,203 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.BudgetExceededException;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the work done by a single script and enforces its {@link ExecutionBudget}. <br>
+ * Counting is done with plain fields by the script's own thread; the budget is only checked at loop back-edges
+ * and between top-level statements, so scripts that stay within their budget pay almost nothing for it. <br>
+ * A paused script waits on a {@link ReentrantLock} rather than a monitor, so that it does not pin a virtual thread to its carrier.
+ */
+public final class ExecutionMeter {
+	/**
+	 * The number of statements executed
+	 */
+	private long statementsExecuted;
+	/**
+	 * The number of expressions evaluated
+	 */
+	private long expressionsEvaluated;
+	/**
+	 * The approximate number of bytes allocated for string values
+	 */
+	private long stringBytesAllocated;
+
+	/**
+	 * The budget of the script
+	 */
+	private volatile ExecutionBudget budget = ExecutionBudget.UNLIMITED;
+	/**
+	 * The number of statements after which the budget is exceeded
+	 */
+	private volatile long statementLimit = Long.MAX_VALUE;
+	/**
+	 * The number of expression evaluations after which the budget is exceeded
+	 */
+	private volatile long evaluationLimit = Long.MAX_VALUE;
+	/**
+	 * The number of string bytes after which the budget is exceeded
+	 */
+	private volatile long stringByteLimit = Long.MAX_VALUE;
+	/**
+	 * Guards changes of the budget and pausing
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * Signalled when a paused script is resumed
+	 */
+	private final Condition resumed = lock.newCondition();
+	/**
+	 * Whether or not the script is waiting to be resumed
+	 */
+	private boolean paused;
+
+	/**
+	 * Records that a statement was executed
+	 */
+	void countStatement() {
+		++statementsExecuted;
+	}
+
+	/**
+	 * Records that an expression was evaluated
+	 */
+	void countEvaluation() {
+		++expressionsEvaluated;
+	}
+
+	/**
+	 * Records that a string value was allocated
+	 * @param length The length of the string
+	 */
+	void countString(int length) {
+		stringBytesAllocated += 2L * length;
+	}
+
+	/**
+	 * Checks whether the budget has been exceeded, and aborts or pauses the script if it has
+	 */
+	void checkBudget() {
+		if (statementsExecuted > statementLimit || expressionsEvaluated > evaluationLimit || stringBytesAllocated > stringByteLimit)
+			budgetExceeded();
+	}
+
+	/**
+	 * Aborts or pauses the script, depending on its budget
+	 */
+	private void budgetExceeded() {
+		lock.lock();
+		try {
+			String message = getExceededMessage();
+			if (budget.getAction() == ExecutionBudget.Action.ABORT)
+				throw new BudgetExceededException(message);
+			paused = true;
+			while (paused)
+				resumed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BudgetExceededException(getExceededMessage() + " and the paused script was interrupted");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Describes which limit of the budget was exceeded
+	 * @return A description of the exceeded limit
+	 */
+	private String getExceededMessage() {
+		if (statementsExecuted > statementLimit)
+			return "Budget of " + budget.getMaximumStatements() + " statements exceeded";
+		if (expressionsEvaluated > evaluationLimit)
+			return "Budget of " + budget.getMaximumEvaluations() + " expression evaluations exceeded";
+		return "Budget of " + budget.getMaximumStringBytes() + " string bytes exceeded";
+	}
+
+	/**
+	 * Sets the budget of the script, counting from the work it has done so far
+	 * @param budget The new budget
+	 */
+	public void setBudget(ExecutionBudget budget) {
+		lock.lock();
+		try {
+			this.budget = budget;
+			statementLimit = limit(statementsExecuted, budget.getMaximumStatements());
+			evaluationLimit = limit(expressionsEvaluated, budget.getMaximumEvaluations());
+			stringByteLimit = limit(stringBytesAllocated, budget.getMaximumStringBytes());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the budget of the script
+	 * @return The budget of the script
+	 */
+	public ExecutionBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Lets a paused script continue with the same budget again, counting from the work it has done so far
+	 */
+	public void resume() {
+		lock.lock();
+		try {
+			setBudget(budget);
+			paused = false;
+			resumed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns whether or not the script is paused because it exceeded its budget
+	 * @return Whether or not the script is paused
+	 */
+	public boolean isPaused() {
+		lock.lock();
+		try {
+			return paused;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of statements executed
+	 * @return The number of statements executed
+	 */
+	public long getStatementsExecuted() {
+		return statementsExecuted;
+	}
+
+	/**
+	 * Returns the number of expressions evaluated
+	 * @return The number of expressions evaluated
+	 */
+	public long getExpressionsEvaluated() {
+		return expressionsEvaluated;
+	}
+
+	/**
+	 * Returns the approximate number of bytes allocated for string values, counting two bytes per character
+	 * @return The approximate number of bytes allocated for string values
+	 */
+	public long getStringBytesAllocated() {
+		return stringBytesAllocated;
+	}
+
+	/**
+	 * Adds a budget to a count without overflowing
+	 * @param count   The count
+	 * @param maximum The budget
+	 * @return The count after which the budget is exceeded
+	 */
+	private static long limit(long count, long maximum) {
+		return count > Long.MAX_VALUE - maximum ? Long.MAX_VALUE : count + maximum;
+	}
+}
@@ -0,0 +1,195 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.MalformedPrefixException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A store of global variables that can be shared by AnonLang scripts running at the same time. <br>
+ * Variables live in namespaces and every value is kept as an immutable, versioned snapshot,
+ * so reads never lock and writes are compare-and-set operations on a concurrent map.
+ */
+public final class GlobalVariableStore {
+	/**
+	 * Maps namespaces to maps of variable names to their current snapshots
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, Snapshot>> namespaceToVariablesMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the qualified name of the given variable, as it is referenced from other namespaces
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @return The qualified name of the variable
+	 */
+	public static String qualify(String namespace, String name) {
+		return namespace + '.' + name;
+	}
+
+	/**
+	 * Returns the current snapshot of the given variable
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @return The current snapshot of the variable, or null if it does not exist
+	 */
+	public Snapshot read(String namespace, String name) {
+		Map<String, Snapshot> variables = namespaceToVariablesMap.get(namespace);
+		return variables == null ? null : variables.get(name);
+	}
+
+	/**
+	 * Returns whether or not the given variable exists
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @return Whether or not the variable exists
+	 */
+	public boolean contains(String namespace, String name) {
+		return read(namespace, name) != null;
+	}
+
+	/**
+	 * Sets the given variable to the given value, following the same assignment rules as local variables. <br>
+	 * If the variable does not exist, it is created.
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @param value     The new value of the variable
+	 * @return The snapshot that was written
+	 */
+	public Snapshot set(String namespace, String name, Object value) {
+		ConcurrentMap<String, Snapshot> variables = getVariables(namespace);
+		while (true) {
+			Snapshot current = variables.get(name);
+			if (current == null) {
+				Snapshot created = new Snapshot(value, 1);
+				if (variables.putIfAbsent(name, created) == null)
+					return created;
+			} else {
+				Snapshot updated = new Snapshot(AnonVariable.convert(name, current.getValue().getClass(), value), current.getVersion() + 1);
+				if (variables.replace(name, current, updated))
+					return updated;
+			}
+		}
+	}
+
+	/**
+	 * Sets the given variable to the given value only if it has not been written since the given snapshot was read
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @param expected  The snapshot the update is based on
+	 * @param value     The new value of the variable
+	 * @return Whether or not the variable was updated
+	 */
+	public boolean compareAndSet(String namespace, String name, Snapshot expected, Object value) {
+		Object converted = AnonVariable.convert(name, expected.getValue().getClass(), value);
+		return getVariables(namespace).replace(name, expected, new Snapshot(converted, expected.getVersion() + 1));
+	}
+
+	/**
+	 * Atomically adds the given amount to the given numeric variable
+	 * @param namespace The namespace of the variable
+	 * @param name      The name of the variable
+	 * @param delta     The amount to add
+	 * @return The snapshot that was written
+	 */
+	public Snapshot add(String namespace, String name, int delta) {
+		ConcurrentMap<String, Snapshot> variables = getVariables(namespace);
+		String operation = delta < 0 ? "decrement" : "increment";
+		while (true) {
+			Snapshot current = variables.get(name);
+			if (current == null)
+				throw new MalformedPrefixException("Tried to " + operation + " non-existent variable " + name);
+			Object value = current.getValue();
+			Object newValue;
+			if (value instanceof Integer)
+				newValue = (Integer) value + delta;
+			else if (value instanceof Double)
+				newValue = (Double) value + delta;
+			else throw new MalformedPrefixException("Tried to " + operation + " non-numeric variable " + name);
+			Snapshot updated = new Snapshot(newValue, current.getVersion() + 1);
+			if (variables.replace(name, current, updated))
+				return updated;
+		}
+	}
+
+	/**
+	 * Returns the names of all variables in the given namespace
+	 * @param namespace The namespace
+	 * @return The names of all variables in the namespace
+	 */
+	public Set<String> getNames(String namespace) {
+		Map<String, Snapshot> variables = namespaceToVariablesMap.get(namespace);
+		return variables == null ? Collections.emptySet() : Collections.unmodifiableSet(variables.keySet());
+	}
+
+	/**
+	 * Returns all namespaces that contain variables
+	 * @return All namespaces that contain variables
+	 */
+	public Set<String> getNamespaces() {
+		return Collections.unmodifiableSet(namespaceToVariablesMap.keySet());
+	}
+
+	/**
+	 * Performs the given action for every variable, using its qualified name
+	 * @param action The action to perform
+	 */
+	public void forEach(BiConsumer<String, Object> action) {
+		namespaceToVariablesMap.forEach((namespace, variables) -> variables.forEach((name, snapshot) -> action.accept(qualify(namespace, name), snapshot.getValue())));
+	}
+
+	/**
+	 * Removes all variables in the given namespace
+	 * @param namespace The namespace to remove
+	 */
+	public void removeNamespace(String namespace) {
+		namespaceToVariablesMap.remove(namespace);
+	}
+
+	/**
+	 * Returns the variables of the given namespace, creating the namespace if it does not exist
+	 * @param namespace The namespace
+	 * @return The variables of the namespace
+	 */
+	private ConcurrentMap<String, Snapshot> getVariables(String namespace) {
+		return namespaceToVariablesMap.computeIfAbsent(namespace, key -> new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * An immutable value of a global variable together with the version it was written at
+	 */
+	public static final class Snapshot {
+		/**
+		 * The value of the variable
+		 */
+		private final Object value;
+		/**
+		 * The number of times the variable had been written when this value was written
+		 */
+		private final long version;
+
+		private Snapshot(Object value, long version) {
+			this.value = value;
+			this.version = version;
+		}
+
+		/**
+		 * Returns the value of the variable
+		 * @return The value of the variable
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * Returns the version of this value, which increases by one with every write
+		 * @return The version of this value
+		 */
+		public long getVersion() {
+			return version;
+		}
+	}
+}
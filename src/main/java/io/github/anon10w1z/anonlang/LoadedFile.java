@@ -0,0 +1,101 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.AnonLangException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * An AnonLang file that was read, and whose types were inferred, ahead of its execution
+ */
+final class LoadedFile {
+	/**
+	 * The name of the file as it was given
+	 */
+	private final String fileName;
+	/**
+	 * The path to the file, or null if loading failed
+	 */
+	private final Path filePath;
+	/**
+	 * The statements of the file, or null if loading failed
+	 */
+	private final SourceStatements lines;
+	/**
+	 * The types inferred for the statements, or null if inference failed, in which case it is done again when the file
+	 * runs so that the failure is reported the same way
+	 */
+	private final TypeInference typeInference;
+	/**
+	 * Why loading failed, or null if it did not
+	 */
+	private final Throwable failure;
+
+	private LoadedFile(String fileName, Path filePath, SourceStatements lines, TypeInference typeInference, Throwable failure) {
+		this.fileName = fileName;
+		this.filePath = filePath;
+		this.lines = lines;
+		this.typeInference = typeInference;
+		this.failure = failure;
+	}
+
+	/**
+	 * Reads the given file and infers its types
+	 * @param fileName The path to the file
+	 * @return The loaded file, which holds the failure instead if the file could not be read or loading it threw an
+	 * error such as StackOverflowError
+	 */
+	static LoadedFile load(String fileName) {
+		try {
+			Path filePath = Paths.get(fileName);
+			SourceStatements lines = AnonLang.readLines(filePath);
+			TypeInference typeInference;
+			try {
+				typeInference = TypeInference.infer(lines);
+			} catch (AnonLangException e) {
+				typeInference = null;
+			}
+			return new LoadedFile(fileName, filePath, lines, typeInference, null);
+		} catch (Throwable e) { //reported when the file runs, so that only this file fails
+			return new LoadedFile(fileName, null, null, null, e);
+		}
+	}
+
+	/**
+	 * Returns the name of the file as it was given
+	 * @return The name of the file
+	 */
+	String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the path to the file
+	 * @return The path to the file
+	 * @throws Throwable If the file could not be loaded
+	 */
+	Path getFilePath() throws Throwable {
+		if (failure != null)
+			throw failure;
+		return filePath;
+	}
+
+	/**
+	 * Returns the statements of the file
+	 * @return The statements of the file, with their tokens
+	 * @throws Throwable If the file could not be loaded
+	 */
+	SourceStatements getLines() throws Throwable {
+		if (failure != null)
+			throw failure;
+		return lines;
+	}
+
+	/**
+	 * Returns the types inferred for the statements of the file
+	 * @return The inferred types, or null if they must be inferred when the file runs
+	 */
+	TypeInference getTypeInference() {
+		return typeInference;
+	}
+}
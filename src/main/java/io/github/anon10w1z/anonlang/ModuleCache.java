@@ -0,0 +1,212 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.AnonLangException;
+import io.github.anon10w1z.anonlang.exceptions.ImportException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of the AnonLang files imported as modules, keyed by their path and the hash of their content. <br>
+ * A module is initialized by executing it on its own, with no global variables and no input, so what it produces depends
+ * only on its content and that of the modules it imports: its local variables, the functions it defines, the global
+ * variables it declares and its output. Importing a module that is already cached applies what it produced without parsing or executing it again,
+ * until its content or the content of a module it imports, directly or through other modules, changes.
+ */
+public final class ModuleCache {
+	/**
+	 * The paths of the modules being initialized by the current thread, used to detect circular imports
+	 */
+	private static final ThreadLocal<Set<Path>> initializingModules = ThreadLocal.withInitial(HashSet::new);
+	/**
+	 * For each module being initialized by the current thread, innermost first, maps the paths of the modules it imported
+	 * so far, directly or through other modules, to the hashes of their content
+	 */
+	private static final ThreadLocal<Deque<Map<Path, byte[]>>> importedModuleHashes = ThreadLocal.withInitial(ArrayDeque::new);
+
+	/**
+	 * Maps the absolute paths of modules to the modules initialized from their latest content
+	 */
+	private final ConcurrentMap<Path, Module> pathToModuleMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the module at the given path, initializing it if it is not cached or its content or the content of a module
+	 * it imports changed. <br>
+	 * Two files that import the same module at the same time may both initialize it, but only one of the results is kept.
+	 * @param modulePath The absolute, normalized path to the module
+	 * @return The module
+	 * @throws ImportException If the module cannot be read, imports itself or fails to initialize
+	 */
+	public Module load(Path modulePath) {
+		if (initializingModules.get().contains(modulePath))
+			throw new ImportException("Circular import of module " + modulePath);
+		byte[] content;
+		try {
+			content = Files.readAllBytes(modulePath);
+		} catch (IOException e) {
+			throw new ImportException("Could not read module " + modulePath + ": " + e);
+		}
+		byte[] contentHash = hash(content);
+		Module module = pathToModuleMap.get(modulePath);
+		if (module == null || !Arrays.equals(module.contentHash, contentHash) || !module.areImportedModulesUnchanged()) {
+			module = initialize(modulePath, content, contentHash);
+			pathToModuleMap.put(modulePath, module);
+		}
+		Map<Path, byte[]> importingModuleHashes = importedModuleHashes.get().peek();
+		if (importingModuleHashes != null) { //the module being initialized depends on this module and what it imports
+			importingModuleHashes.put(modulePath, contentHash);
+			importingModuleHashes.putAll(module.importedModuleHashes);
+		}
+		return module;
+	}
+
+	/**
+	 * Returns the number of modules in this cache
+	 * @return The number of modules
+	 */
+	public int size() {
+		return pathToModuleMap.size();
+	}
+
+	/**
+	 * Initializes the module at the given path by executing it
+	 * @param modulePath  The path to the module
+	 * @param content     The content of the module
+	 * @param contentHash The hash of the content
+	 * @return The module
+	 */
+	private static Module initialize(Path modulePath, byte[] content, byte[] contentHash) {
+		Set<Path> initializing = initializingModules.get();
+		initializing.add(modulePath);
+		Map<Path, byte[]> moduleHashes = new HashMap<>();
+		importedModuleHashes.get().push(moduleHashes);
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			GlobalVariableStore globalVariables = new GlobalVariableStore();
+			SourceStatements lines = SourceStatements.lex(modulePath.toString(), new String(content, StandardCharsets.UTF_8));
+			BufferedReader noInput = new BufferedReader(new StringReader(""));
+			AnonLang anonLang = new AnonLang(modulePath.toString(), lines, globalVariables, new StatementCache(), noInput, new PrintStream(output, true, "UTF-8"));
+			anonLang.run();
+			return new Module(contentHash, moduleHashes, anonLang.getVariableValues(), anonLang.getUserFunctions(), globalVariables, output.toString("UTF-8"));
+		} catch (AnonLangException e) {
+			throw new ImportException("Initialization of module " + modulePath + " failed: " + e.getReport());
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		} finally {
+			importedModuleHashes.get().pop();
+			initializing.remove(modulePath);
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the given content
+	 * @param content The content
+	 * @return The hash
+	 */
+	private static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * What an initialized module produced, which is never changed after it is initialized
+	 */
+	public static final class Module {
+		/**
+		 * The hash of the content the module was initialized from
+		 */
+		private final byte[] contentHash;
+		/**
+		 * Maps the paths of the modules the module imported, directly or through other modules, to the hashes of the
+		 * content they had when it was initialized
+		 */
+		private final Map<Path, byte[]> importedModuleHashes;
+		/**
+		 * Maps the names of the local variables of the module to their values
+		 */
+		private final Map<String, Object> variableValues;
+		/**
+		 * The functions the module defined
+		 */
+		private final AnonExpression.UserFunctions userFunctions;
+		/**
+		 * The global variables the module declared
+		 */
+		private final GlobalVariableStore globalVariables;
+		/**
+		 * The output of the module
+		 */
+		private final String output;
+
+		private Module(byte[] contentHash, Map<Path, byte[]> importedModuleHashes, Map<String, Object> variableValues, AnonExpression.UserFunctions userFunctions, GlobalVariableStore globalVariables, String output) {
+			this.contentHash = contentHash;
+			this.importedModuleHashes = importedModuleHashes;
+			this.variableValues = Collections.unmodifiableMap(variableValues);
+			this.userFunctions = userFunctions;
+			this.globalVariables = globalVariables;
+			this.output = output;
+		}
+
+		/**
+		 * Returns whether or not every module the module imported still has the content it had when the module was initialized
+		 * @return Whether or not no imported module changed or became unreadable
+		 */
+		private boolean areImportedModulesUnchanged() {
+			for (Map.Entry<Path, byte[]> importedModule : importedModuleHashes.entrySet()) {
+				try {
+					if (!Arrays.equals(hash(Files.readAllBytes(importedModule.getKey())), importedModule.getValue()))
+						return false;
+				} catch (IOException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the local variables of the module
+		 * @return An unmodifiable map of the names of the local variables to their values
+		 */
+		public Map<String, Object> getVariableValues() {
+			return variableValues;
+		}
+
+		/**
+		 * Defines each function of the module in the given functions, unless a function of the same name is already defined
+		 * @param target The functions to define the functions of the module in
+		 * @return Whether or not a function was defined
+		 */
+		public boolean defineUserFunctions(AnonExpression.UserFunctions target) {
+			return target.defineAll(userFunctions);
+		}
+
+		/**
+		 * Declares each global variable of the module in the given store, unless the store already has it
+		 * @param target The store to declare the global variables in
+		 */
+		public void declareGlobalVariables(GlobalVariableStore target) {
+			for (String namespace : globalVariables.getNamespaces())
+				for (String name : globalVariables.getNames(namespace))
+					if (!target.contains(namespace, name))
+						target.set(namespace, name, globalVariables.read(namespace, name).getValue());
+		}
+
+		/**
+		 * Returns the output of the module
+		 * @return The output the module wrote while it was initialized
+		 */
+		public String getOutput() {
+			return output;
+		}
+	}
+}
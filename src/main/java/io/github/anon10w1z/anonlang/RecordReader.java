@@ -0,0 +1,172 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a UTF-8 file one at a time, through a channel and buffers that are allocated once, so that the
+ * memory it uses does not depend on the size of the file. <br>
+ * Records are separated by line breaks ({@code \n}, {@code \r\n} or {@code \r}) or by a given delimiter. As with
+ * {@link java.io.BufferedReader#readLine()}, a separator at the end of the file does not start another record. When
+ * records are separated by a delimiter, a line break at the end of the file ends its last line rather than being part
+ * of the last record, so it is dropped as well.
+ */
+public final class RecordReader implements Closeable {
+	/**
+	 * The size of the byte and character buffers
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The channel the file is read through
+	 */
+	private final FileChannel channel;
+	/**
+	 * The bytes read from the file that have not been decoded yet
+	 */
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	/**
+	 * The decoded characters that have not been read yet
+	 */
+	private final CharBuffer characters = CharBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * The decoder of the file, which replaces malformed input
+	 */
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/**
+	 * The delimiter that separates records, or null if records are lines
+	 */
+	private final String delimiter;
+	/**
+	 * The current record, which is reused for every record
+	 */
+	private final StringBuilder record = new StringBuilder();
+	/**
+	 * Whether or not the end of the file has been read
+	 */
+	private boolean endOfFile;
+	/**
+	 * Whether or not every byte of the file has been decoded
+	 */
+	private boolean decoded;
+	/**
+	 * Whether or not the previous record ended with {@code \r}, so that a {@code \n} right after it is skipped
+	 */
+	private boolean skipLineFeed;
+
+	/**
+	 * Opens the given file
+	 * @param path      The path to the file
+	 * @param delimiter The delimiter that separates records, or null to read lines
+	 * @throws IOException If the file could not be opened
+	 */
+	public RecordReader(Path path, String delimiter) throws IOException {
+		if (delimiter != null && delimiter.isEmpty())
+			throw new IllegalArgumentException("The delimiter of records must not be empty");
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.delimiter = delimiter;
+		characters.flip();
+	}
+
+	/**
+	 * Reads the next record
+	 * @return The record, which is only valid until the next record is read, or null if there are no records left
+	 * @throws IOException If the file could not be read
+	 */
+	public CharSequence next() throws IOException {
+		record.setLength(0);
+		boolean recordStarted = false;
+		while (characters.hasRemaining() || fill()) {
+			char character = characters.get();
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (character == '\n')
+					continue;
+			}
+			recordStarted = true;
+			if (delimiter == null) {
+				if (character == '\n')
+					return record;
+				if (character == '\r') {
+					skipLineFeed = true;
+					return record;
+				}
+				record.append(character);
+			} else {
+				record.append(character);
+				if (endsWithDelimiter()) {
+					record.setLength(record.length() - delimiter.length());
+					return record;
+				}
+			}
+		}
+		if (!recordStarted || (delimiter != null && removeFinalLineBreak() && record.length() == 0))
+			return null;
+		return record;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Removes the line break at the end of the file from the last record
+	 * @return Whether or not the last record ended with a line break
+	 */
+	private boolean removeFinalLineBreak() {
+		int length = record.length();
+		if (length > 0 && record.charAt(length - 1) == '\n')
+			--length;
+		if (length > 0 && record.charAt(length - 1) == '\r')
+			--length;
+		boolean removed = length != record.length();
+		record.setLength(length);
+		return removed;
+	}
+
+	/**
+	 * Returns whether or not the current record ends with the delimiter
+	 * @return Whether or not the current record ends with the delimiter
+	 */
+	private boolean endsWithDelimiter() {
+		int start = record.length() - delimiter.length();
+		if (start < 0)
+			return false;
+		for (int i = 0; i < delimiter.length(); ++i)
+			if (record.charAt(start + i) != delimiter.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Reads and decodes more of the file
+	 * @return Whether or not there are characters to read
+	 * @throws IOException If the file could not be read
+	 */
+	private boolean fill() throws IOException {
+		characters.clear();
+		while (characters.position() == 0 && !decoded) {
+			if (!endOfFile && channel.read(bytes) == -1)
+				endOfFile = true;
+			bytes.flip();
+			CoderResult result = decoder.decode(bytes, characters, endOfFile);
+			bytes.compact();
+			if (endOfFile && result.isUnderflow()) {
+				decoder.flush(characters);
+				decoded = true;
+			}
+		}
+		characters.flip();
+		return characters.hasRemaining();
+	}
+}
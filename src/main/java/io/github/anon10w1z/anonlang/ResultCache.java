@@ -0,0 +1,338 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A directory of the results of deterministic AnonLang files, which are their output and the global variables they
+ * changed. <br>
+ * A result is keyed by the hash of the statements of the file, its namespace, its execution budget, the version of the
+ * interpreter and the global variables before it ran, so a file whose result is cached can be replayed without running
+ * it. A file is only cached if it reads no input, imports no module and iterates over no file, and if no value it
+ * evaluated while running called {@code random} or {@code randomBetween}. When the results in the directory grow larger
+ * than the maximum size, the least recently used results are deleted.
+ */
+public final class ResultCache {
+	/**
+	 * The default maximum size of the results in a result cache, in bytes
+	 */
+	public static final long DEFAULT_MAXIMUM_BYTES = 64L << 20;
+
+	/**
+	 * The number identifying a result file
+	 */
+	private static final int MAGIC = 0x414E5243;
+	/**
+	 * The extension of result files
+	 */
+	private static final String RESULT_EXTENSION = ".result";
+	/**
+	 * The version of the interpreter, which is null until a key is first computed
+	 */
+	private static volatile String interpreterVersion;
+
+	/**
+	 * The directory the results are stored in
+	 */
+	private final Path directory;
+	/**
+	 * The maximum size of the results, in bytes
+	 */
+	private final long maximumBytes;
+
+	/**
+	 * Constructs a result cache
+	 * @param directory    The directory to store the results in, which is created if it does not exist
+	 * @param maximumBytes The maximum size of the results, in bytes
+	 */
+	public ResultCache(Path directory, long maximumBytes) {
+		this.directory = directory;
+		this.maximumBytes = maximumBytes;
+	}
+
+	/**
+	 * Returns whether or not the result of the given statements may be cached, which is when none of them reads input,
+	 * imports a module, iterates over a file or calls a function whose result is not always the same
+	 * @param statements The statements of a file
+	 * @return Whether or not the statements are deterministic as far as can be seen before they run
+	 */
+	public static boolean isCacheable(List<String> statements) {
+		SourceStatements source = SourceStatements.of(null, statements);
+		SourceStatements.Cursor tokens = source.cursor();
+		for (int statementIndex = 0; statementIndex < source.size(); ++statementIndex) {
+			if (!AnonExpression.isDeterministic(source.get(statementIndex)))
+				return false;
+			tokens.reset(statementIndex);
+			tokens.next();
+			if (tokens.isKeyword("import") || tokens.isKeyword("for"))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the key of the result of the given file
+	 * @param namespace       The namespace of the file
+	 * @param statements      The statements of the file
+	 * @param globalVariables The global variables the file can read and write, before it runs
+	 * @param budget          The execution budget of the file
+	 * @return The key
+	 */
+	public static String getKey(String namespace, List<String> statements, GlobalVariableStore globalVariables, ExecutionBudget budget) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			CheckpointLog.writeString(output, getInterpreterVersion());
+			CheckpointLog.writeString(output, namespace);
+			output.writeLong(budget.getMaximumStatements());
+			output.writeLong(budget.getMaximumEvaluations());
+			output.writeLong(budget.getMaximumStringBytes());
+			output.writeInt(budget.getAction().ordinal());
+			output.writeInt(statements.size());
+			for (String statement : statements)
+				CheckpointLog.writeString(output, statement);
+			Map<String, Object> values = new TreeMap<>(getValues(globalVariables));
+			output.writeInt(values.size());
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				CheckpointLog.writeString(output, entry.getKey());
+				CheckpointLog.writeValue(output, entry.getValue());
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte hashByte : MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()))
+				key.append(Character.forDigit((hashByte >> 4) & 0xF, 16)).append(Character.forDigit(hashByte & 0xF, 16));
+			return key.toString();
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Writes the output of the cached result with the given key and sets the global variables it changed
+	 * @param key             The key of the result
+	 * @param out             The stream to write the output to
+	 * @param globalVariables The global variables to set
+	 * @return Whether or not the result was cached
+	 */
+	public boolean replay(String key, PrintStream out, GlobalVariableStore globalVariables) {
+		Path resultPath = directory.resolve(key + RESULT_EXTENSION);
+		byte[] output;
+		Map<String, Object> changedValues = new HashMap<>();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(resultPath)))) {
+			if (input.readInt() != MAGIC)
+				return false;
+			output = new byte[input.readInt()];
+			input.readFully(output);
+			for (int i = input.readInt(); i > 0; --i) {
+				String qualifiedName = CheckpointLog.readString(input);
+				changedValues.put(qualifiedName, CheckpointLog.readValue(input));
+			}
+			Files.setLastModifiedTime(resultPath, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			return false; //not cached, or being replaced
+		}
+		out.write(output, 0, output.length);
+		out.flush();
+		changedValues.forEach((qualifiedName, value) -> {
+			int separatorIndex = qualifiedName.lastIndexOf('.');
+			globalVariables.set(qualifiedName.substring(0, separatorIndex), qualifiedName.substring(separatorIndex + 1), value);
+		});
+		return true;
+	}
+
+	/**
+	 * Starts recording the result of a file, which is stored by {@link Recording#store()} if the file turns out to be
+	 * deterministic
+	 * @param key             The key of the result
+	 * @param out             The stream the output of the file is written to
+	 * @param globalVariables The global variables the file can read and write
+	 * @return The recording
+	 */
+	public Recording record(String key, PrintStream out, GlobalVariableStore globalVariables) {
+		return new Recording(key, out, globalVariables);
+	}
+
+	/**
+	 * Stores the given result, then deletes the least recently used results until the results fit the maximum size
+	 * @param key           The key of the result
+	 * @param output        The output of the file
+	 * @param changedValues Maps the qualified names of the global variables the file changed to their new values
+	 * @throws IOException If the result could not be stored
+	 */
+	private void store(String key, byte[] output, Map<String, Object> changedValues) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream result = new DataOutputStream(bytes);
+		result.writeInt(MAGIC);
+		result.writeInt(output.length);
+		result.write(output);
+		result.writeInt(changedValues.size());
+		for (Map.Entry<String, Object> entry : changedValues.entrySet()) {
+			CheckpointLog.writeString(result, entry.getKey());
+			CheckpointLog.writeValue(result, entry.getValue());
+		}
+		if (bytes.size() > maximumBytes)
+			return;
+		Files.createDirectories(directory);
+		Path temporaryPath = Files.createTempFile(directory, key, ".tmp");
+		try {
+			Files.write(temporaryPath, bytes.toByteArray());
+			Files.move(temporaryPath, directory.resolve(key + RESULT_EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used results until the results fit the maximum size
+	 * @throws IOException If the directory could not be listed
+	 */
+	private void evict() throws IOException {
+		List<Path> resultPaths;
+		try (Stream<Path> paths = Files.list(directory)) {
+			resultPaths = paths.filter(path -> path.toString().endsWith(RESULT_EXTENSION)).collect(Collectors.toList());
+		}
+		Map<Path, FileTime> lastUses = new HashMap<>();
+		long totalBytes = 0;
+		for (Path resultPath : resultPaths) {
+			try {
+				lastUses.put(resultPath, Files.getLastModifiedTime(resultPath));
+				totalBytes += Files.size(resultPath);
+			} catch (NoSuchFileException e) {
+				//deleted by another process
+			}
+		}
+		if (totalBytes <= maximumBytes)
+			return;
+		List<Path> leastRecentlyUsed = new ArrayList<>(lastUses.keySet());
+		leastRecentlyUsed.sort(Comparator.comparing(lastUses::get));
+		for (Path resultPath : leastRecentlyUsed) {
+			if (totalBytes <= maximumBytes)
+				break;
+			try {
+				long resultBytes = Files.size(resultPath);
+				Files.delete(resultPath);
+				totalBytes -= resultBytes;
+			} catch (NoSuchFileException e) {
+				//deleted by another process
+			}
+		}
+	}
+
+	/**
+	 * Returns the values of the given global variables
+	 * @param globalVariables The global variables
+	 * @return A map of the qualified names of the global variables to their values
+	 */
+	private static Map<String, Object> getValues(GlobalVariableStore globalVariables) {
+		Map<String, Object> values = new HashMap<>();
+		for (String namespace : globalVariables.getNamespaces())
+			for (String name : globalVariables.getNames(namespace)) {
+				GlobalVariableStore.Snapshot snapshot = globalVariables.read(namespace, name);
+				if (snapshot != null)
+					values.put(GlobalVariableStore.qualify(namespace, name), snapshot.getValue());
+			}
+		return values;
+	}
+
+	/**
+	 * Returns the version of the interpreter, which is its implementation version followed by the name, size and time of
+	 * modification of each file it was loaded from, so that a result is not replayed by a different build
+	 * @return The version of the interpreter
+	 */
+	private static String getInterpreterVersion() {
+		String version = interpreterVersion;
+		if (version == null) {
+			StringBuilder builder = new StringBuilder(String.valueOf(ResultCache.class.getPackage().getImplementationVersion()));
+			try {
+				Path codeSource = Paths.get(ResultCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+				try (Stream<Path> paths = Files.walk(codeSource)) {
+					for (Path path : paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList()))
+						builder.append(';').append(codeSource.relativize(path)).append(',').append(Files.size(path)).append(',').append(Files.getLastModifiedTime(path).toMillis());
+				}
+			} catch (Exception e) {
+				builder.append(";unknown");
+			}
+			version = interpreterVersion = builder.toString();
+		}
+		return version;
+	}
+
+	/**
+	 * The result of a file that is being recorded while it runs
+	 */
+	public final class Recording {
+		/**
+		 * The key of the result
+		 */
+		private final String key;
+		/**
+		 * The global variables the file can read and write
+		 */
+		private final GlobalVariableStore globalVariables;
+		/**
+		 * The values of the global variables before the file ran
+		 */
+		private final Map<String, Object> initialValues;
+		/**
+		 * The output of the file so far
+		 */
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		/**
+		 * The stream the file writes to, which writes both to the output of the file and to the recorded output
+		 */
+		private final PrintStream teeOut;
+
+		private Recording(String key, PrintStream out, GlobalVariableStore globalVariables) {
+			this.key = key;
+			this.globalVariables = globalVariables;
+			this.initialValues = getValues(globalVariables);
+			this.teeOut = new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+					out.write(b);
+					output.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					out.write(b, off, len);
+					output.write(b, off, len);
+				}
+
+				@Override
+				public void flush() {
+					out.flush();
+				}
+			});
+		}
+
+		/**
+		 * Returns the stream the file should write its output to
+		 * @return The stream to write the output to
+		 */
+		public PrintStream getOut() {
+			return teeOut;
+		}
+
+		/**
+		 * Stores the recorded result, once the file has finished
+		 * @throws IOException If the result could not be stored
+		 */
+		public void store() throws IOException {
+			teeOut.flush();
+			Map<String, Object> changedValues = new HashMap<>();
+			getValues(globalVariables).forEach((qualifiedName, value) -> {
+				Object initialValue = initialValues.get(qualifiedName);
+				if (initialValue == null || !initialValue.equals(value))
+					changedValues.put(qualifiedName, value);
+			});
+			ResultCache.this.store(key, output.toByteArray(), changedValues);
+		}
+	}
+}
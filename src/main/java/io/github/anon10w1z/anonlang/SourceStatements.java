@@ -0,0 +1,456 @@
+package io.github.anon10w1z.anonlang;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The statements of an AnonLang file, lexed once when the file is loaded. <br>
+ * Besides the text of each statement, the kind, range, keyword and source position of each of its tokens are kept in
+ * flat arrays, which a {@link Cursor} reads so that processing a statement again does not lex it again. A position is
+ * the line and column in the file of the first character of a token or statement, both counting from 1.
+ */
+public final class SourceStatements extends AbstractList<String> implements RandomAccess {
+	/**
+	 * The name of the file the statements are from, or null if it is unknown
+	 */
+	private final String fileName;
+	/**
+	 * The statements, as they are returned by {@link #get(int)}
+	 */
+	private final String[] statements;
+	/**
+	 * The trimmed statements, which the ranges of tokens are relative to
+	 */
+	private final String[] trimmedStatements;
+	/**
+	 * The line of the first character of each trimmed statement
+	 */
+	private final int[] statementLines;
+	/**
+	 * The column of the first character of each trimmed statement
+	 */
+	private final int[] statementColumns;
+	/**
+	 * The index of the first token of each statement, followed by the number of tokens
+	 */
+	private final int[] firstTokens;
+	/**
+	 * The kind of each token
+	 */
+	private final AnonLexer.TokenKind[] tokenKinds;
+	/**
+	 * The index of the first character of each token in its trimmed statement
+	 */
+	private final int[] tokenStarts;
+	/**
+	 * The index after the last character of each token in its trimmed statement
+	 */
+	private final int[] tokenEnds;
+	/**
+	 * The keyword of each token, or null for tokens that are not keywords
+	 */
+	private final String[] tokenKeywords;
+	/**
+	 * The line of each token
+	 */
+	private final int[] tokenLines;
+	/**
+	 * The column of each token
+	 */
+	private final int[] tokenColumns;
+
+	/**
+	 * Constructs the statements that the given builder lexed
+	 * @param builder        The builder
+	 * @param statementCount The number of statements to keep, which leaves out the statements lexed after them
+	 */
+	private SourceStatements(Builder builder, int statementCount) {
+		int tokenCount = builder.firstTokens[statementCount];
+		this.fileName = builder.fileName;
+		this.statements = Arrays.copyOf(builder.statements, statementCount);
+		this.trimmedStatements = Arrays.copyOf(builder.trimmedStatements, statementCount);
+		this.statementLines = Arrays.copyOf(builder.statementLines, statementCount);
+		this.statementColumns = Arrays.copyOf(builder.statementColumns, statementCount);
+		this.firstTokens = Arrays.copyOf(builder.firstTokens, statementCount + 1);
+		this.tokenKinds = Arrays.copyOf(builder.tokenKinds, tokenCount);
+		this.tokenStarts = Arrays.copyOf(builder.tokenStarts, tokenCount);
+		this.tokenEnds = Arrays.copyOf(builder.tokenEnds, tokenCount);
+		this.tokenKeywords = Arrays.copyOf(builder.tokenKeywords, tokenCount);
+		this.tokenLines = Arrays.copyOf(builder.tokenLines, tokenCount);
+		this.tokenColumns = Arrays.copyOf(builder.tokenColumns, tokenCount);
+	}
+
+	/**
+	 * Splits the given source into statements and lexes them, the way AnonLang has always split files: line breaks are
+	 * removed, the source is split at every {@code ;}, empty statements at the end are left out and every statement is
+	 * trimmed
+	 * @param fileName The name of the file the source is from
+	 * @param source   The source
+	 * @return The trimmed statements and their tokens
+	 */
+	public static SourceStatements lex(String fileName, String source) {
+		Builder builder = new Builder(fileName);
+		StringBuilder statement = new StringBuilder();
+		int[] lines = new int[16];
+		int[] columns = new int[16];
+		int line = 1;
+		int column = 1;
+		int nonEmptyStatements = 0;
+		for (int i = 0; i <= source.length(); ++i) {
+			char character = i < source.length() ? source.charAt(i) : ';';
+			if (character == ';') {
+				builder.add(statement.toString(), true, lines, columns, line, column);
+				if (i == source.length() && builder.statementCount == 1)
+					return new SourceStatements(builder, 1); //a file without a ; is a single statement, even if it is empty
+				if (statement.length() > 0)
+					nonEmptyStatements = builder.statementCount;
+				statement.setLength(0);
+				++column;
+			} else if (character == '\n' || character == '\r') {
+				if (character == '\r' || i == 0 || source.charAt(i - 1) != '\r') //\r\n is a single line break
+					++line;
+				column = 1;
+			} else {
+				if (statement.length() == lines.length) {
+					lines = Arrays.copyOf(lines, lines.length * 2);
+					columns = Arrays.copyOf(columns, columns.length * 2);
+				}
+				lines[statement.length()] = line;
+				columns[statement.length()] = column;
+				statement.append(character);
+				++column;
+			}
+		}
+		return new SourceStatements(builder, nonEmptyStatements);
+	}
+
+	/**
+	 * Returns the given statements lexed, which are the statements themselves if they were lexed already. <br>
+	 * Statements that were not lexed from a file are taken to be the lines of one, so the position of a token is the
+	 * number of its statement and its index in its statement.
+	 * @param fileName   The name of the file the statements are from, or null if it is unknown
+	 * @param statements The statements
+	 * @return The statements and their tokens
+	 */
+	static SourceStatements of(String fileName, List<String> statements) {
+		if (statements instanceof SourceStatements)
+			return (SourceStatements) statements;
+		Builder builder = new Builder(fileName);
+		for (int i = 0; i < statements.size(); ++i) {
+			String statement = statements.get(i);
+			int[] lines = new int[statement.length()];
+			int[] columns = new int[statement.length()];
+			Arrays.fill(lines, i + 1);
+			for (int j = 0; j < columns.length; ++j)
+				columns[j] = j + 1;
+			builder.add(statement, false, lines, columns, i + 1, statement.length() + 1);
+		}
+		return new SourceStatements(builder, statements.size());
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= statements.length)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + statements.length);
+		return statements[index];
+	}
+
+	@Override
+	public int size() {
+		return statements.length;
+	}
+
+	/**
+	 * Returns the line of the given statement
+	 * @param statementIndex The index of the statement
+	 * @return The line of the first character of the trimmed statement
+	 */
+	public int getLine(int statementIndex) {
+		return statementLines[statementIndex];
+	}
+
+	/**
+	 * Returns the column of the given statement
+	 * @param statementIndex The index of the statement
+	 * @return The column of the first character of the trimmed statement
+	 */
+	public int getColumn(int statementIndex) {
+		return statementColumns[statementIndex];
+	}
+
+	/**
+	 * Describes the position of the given statement the way it is reported to the user
+	 * @param statementIndex The index of the statement
+	 * @return The line and column of the statement, and the file it is in if it is known
+	 */
+	String getPosition(int statementIndex) {
+		return describePosition(statementLines[statementIndex], statementColumns[statementIndex]);
+	}
+
+	/**
+	 * Describes the given position the way it is reported to the user
+	 * @param line   The line
+	 * @param column The column
+	 * @return The line and column, and the file they are in if it is known
+	 */
+	private String describePosition(int line, int column) {
+		String position = "line " + line + ", column " + column;
+		return fileName == null ? position : position + " of " + fileName;
+	}
+
+	/**
+	 * Returns a cursor over the tokens of these statements
+	 * @return The cursor, which is at no statement until it is reset
+	 */
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A cursor over the tokens of the statements, which gives the same tokens {@link AnonLexer} gave when they were
+	 * lexed. Nothing is allocated until the text of a token is asked for.
+	 */
+	final class Cursor {
+		/**
+		 * The index of the statement, or -1 if the cursor is at no statement
+		 */
+		private int statementIndex = -1;
+		/**
+		 * The index of the current token, which is the index of the first token of the next statement once the end
+		 * of the statement is reached
+		 */
+		private int token;
+		/**
+		 * The index after the last token of the statement
+		 */
+		private int tokenLimit;
+		/**
+		 * The kind of the current token, or null if no token has been read yet
+		 */
+		private AnonLexer.TokenKind tokenKind;
+
+		/**
+		 * Constructs a cursor that is at no statement
+		 */
+		private Cursor() {
+		}
+
+		/**
+		 * Moves to the start of the given statement
+		 * @param statementIndex The index of the statement
+		 */
+		void reset(int statementIndex) {
+			this.statementIndex = statementIndex;
+			this.token = firstTokens[statementIndex] - 1;
+			this.tokenLimit = firstTokens[statementIndex + 1];
+			this.tokenKind = null;
+		}
+
+		/**
+		 * Moves to the next token
+		 * @return The kind of the token, which is {@link AnonLexer.TokenKind#END} after the last token of the statement
+		 */
+		AnonLexer.TokenKind next() {
+			if (token < tokenLimit)
+				++token;
+			tokenKind = token < tokenLimit ? tokenKinds[token] : AnonLexer.TokenKind.END;
+			return tokenKind;
+		}
+
+		/**
+		 * Returns the index of the statement the cursor is at
+		 * @return The index of the statement, or -1 if the cursor is at no statement
+		 */
+		int getStatementIndex() {
+			return statementIndex;
+		}
+
+		/**
+		 * Returns the kind of the current token
+		 * @return The kind of the current token, or null if no token has been read yet
+		 */
+		AnonLexer.TokenKind getTokenKind() {
+			return tokenKind;
+		}
+
+		/**
+		 * Returns whether or not the current token is the given keyword
+		 * @param candidate The keyword in lower case
+		 * @return Whether or not the current token is the keyword
+		 */
+		boolean isKeyword(String candidate) {
+			return isToken() && candidate.equals(tokenKeywords[token]);
+		}
+
+		/**
+		 * Returns whether or not the current token is the given operator
+		 * @param operator The operator
+		 * @return Whether or not the current token is the operator
+		 */
+		boolean isOperator(String operator) {
+			if (tokenKind != AnonLexer.TokenKind.OPERATOR)
+				return false;
+			String statement = trimmedStatements[statementIndex];
+			int start = tokenStarts[token];
+			return operator.equals("++") ? statement.startsWith("++", start) : tokenEnds[token] - start == operator.length() && statement.startsWith(operator, start);
+		}
+
+		/**
+		 * Returns the text of the current token, without line breaks
+		 * @return The text of the current token, which is empty at the end of the statement
+		 */
+		String getTokenText() {
+			return isToken() ? AnonLexer.getText(trimmedStatements[statementIndex], tokenStarts[token], tokenEnds[token]) : "";
+		}
+
+		/**
+		 * Returns the text from the start of the current token to the end of its statement, without line breaks
+		 * @return The rest of the statement
+		 */
+		String getRestOfStatement() {
+			if (!isToken() || tokenKind == AnonLexer.TokenKind.STATEMENT_END)
+				return "";
+			String statement = trimmedStatements[statementIndex];
+			int end = statement.indexOf(';', tokenStarts[token]);
+			return AnonLexer.getText(statement, tokenStarts[token], end == -1 ? statement.length() : end);
+		}
+
+		/**
+		 * Describes the position of the current token the way it is reported to the user
+		 * @return The line and column of the current token, or of the statement if the cursor is at no token of it, and
+		 * the file it is in if it is known
+		 */
+		String getPosition() {
+			return isToken() ? describePosition(tokenLines[token], tokenColumns[token]) : SourceStatements.this.getPosition(statementIndex);
+		}
+
+		/**
+		 * Returns whether or not the cursor is at a token of the statement
+		 * @return Whether or not a token has been read and the end of the statement has not been reached
+		 */
+		private boolean isToken() {
+			return tokenKind != null && tokenKind != AnonLexer.TokenKind.END;
+		}
+	}
+
+	/**
+	 * Lexes statements into growing arrays
+	 */
+	private static final class Builder {
+		/**
+		 * The lexer of each statement
+		 */
+		private final AnonLexer lexer = new AnonLexer("");
+		/**
+		 * The name of the file the statements are from, or null if it is unknown
+		 */
+		private final String fileName;
+		/**
+		 * The statements so far
+		 */
+		private String[] statements = new String[16];
+		/**
+		 * The trimmed statements so far
+		 */
+		private String[] trimmedStatements = new String[16];
+		/**
+		 * The line of each statement so far
+		 */
+		private int[] statementLines = new int[16];
+		/**
+		 * The column of each statement so far
+		 */
+		private int[] statementColumns = new int[16];
+		/**
+		 * The index of the first token of each statement so far, followed by the number of tokens
+		 */
+		private int[] firstTokens = new int[17];
+		/**
+		 * The number of statements so far
+		 */
+		private int statementCount;
+		/**
+		 * The kind of each token so far
+		 */
+		private AnonLexer.TokenKind[] tokenKinds = new AnonLexer.TokenKind[32];
+		/**
+		 * The start of each token so far
+		 */
+		private int[] tokenStarts = new int[32];
+		/**
+		 * The end of each token so far
+		 */
+		private int[] tokenEnds = new int[32];
+		/**
+		 * The keyword of each token so far
+		 */
+		private String[] tokenKeywords = new String[32];
+		/**
+		 * The line of each token so far
+		 */
+		private int[] tokenLines = new int[32];
+		/**
+		 * The column of each token so far
+		 */
+		private int[] tokenColumns = new int[32];
+		/**
+		 * The number of tokens so far
+		 */
+		private int tokenCount;
+
+		/**
+		 * Constructs a builder without statements
+		 * @param fileName The name of the file the statements are from, or null if it is unknown
+		 */
+		private Builder(String fileName) {
+			this.fileName = fileName;
+		}
+
+		/**
+		 * Lexes the given statement and adds it
+		 * @param statement The statement, without line breaks unless it was not lexed from a file
+		 * @param trim      Whether to keep the trimmed statement rather than the statement as it is
+		 * @param lines     The line of each character of the statement
+		 * @param columns   The column of each character of the statement
+		 * @param endLine   The line of the end of the statement, which is the position of an empty statement
+		 * @param endColumn The column of the end of the statement
+		 */
+		private void add(String statement, boolean trim, int[] lines, int[] columns, int endLine, int endColumn) {
+			if (statementCount == statements.length) {
+				statements = Arrays.copyOf(statements, statementCount * 2);
+				trimmedStatements = Arrays.copyOf(trimmedStatements, statementCount * 2);
+				statementLines = Arrays.copyOf(statementLines, statementCount * 2);
+				statementColumns = Arrays.copyOf(statementColumns, statementCount * 2);
+				firstTokens = Arrays.copyOf(firstTokens, statementCount * 2 + 1);
+			}
+			String trimmedStatement = statement.trim();
+			int leadingWhitespace = trimmedStatement.isEmpty() ? statement.length() : statement.indexOf(trimmedStatement.charAt(0));
+			statements[statementCount] = trim ? trimmedStatement : statement;
+			trimmedStatements[statementCount] = trimmedStatement;
+			statementLines[statementCount] = trimmedStatement.isEmpty() ? endLine : lines[leadingWhitespace];
+			statementColumns[statementCount] = trimmedStatement.isEmpty() ? endColumn : columns[leadingWhitespace];
+			lexer.reset(trimmedStatement);
+			AnonLexer.TokenKind kind;
+			while ((kind = lexer.next()) != AnonLexer.TokenKind.END) {
+				if (tokenCount == tokenKinds.length) {
+					tokenKinds = Arrays.copyOf(tokenKinds, tokenCount * 2);
+					tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+					tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+					tokenKeywords = Arrays.copyOf(tokenKeywords, tokenCount * 2);
+					tokenLines = Arrays.copyOf(tokenLines, tokenCount * 2);
+					tokenColumns = Arrays.copyOf(tokenColumns, tokenCount * 2);
+				}
+				tokenKinds[tokenCount] = kind;
+				tokenStarts[tokenCount] = lexer.getTokenStart();
+				tokenEnds[tokenCount] = lexer.getTokenEnd();
+				tokenKeywords[tokenCount] = lexer.getKeyword();
+				tokenLines[tokenCount] = lines[leadingWhitespace + lexer.getTokenStart()];
+				tokenColumns[tokenCount] = columns[leadingWhitespace + lexer.getTokenStart()];
+				++tokenCount;
+			}
+			firstTokens[++statementCount] = tokenCount;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package io.github.anon10w1z.anonlang;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers which line processor each statement resolved to, so that a statement whose text has been seen before
+ * is not parsed again to find out what kind of statement it is. <br>
+ * Statements whose kind depends on the variables that exist at the time (such as assignments) are remembered
+ * together with the first line processor that may be able to process them, so that the line processors before it are skipped.
+ */
+public final class StatementCache {
+	/**
+	 * The maximum number of statements to remember before the cache is cleared
+	 */
+	private static final int MAXIMUM_SIZE = 65536;
+
+	/**
+	 * Maps statements to the indices of the line processors they resolved to, or to the encoded index of the first
+	 * line processor to try for statements that could not be resolved ahead of time
+	 */
+	private final ConcurrentMap<String, Integer> statementToProcessorMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the cached entry of the given statement
+	 * @param statement The trimmed statement
+	 * @return The cached entry, or -1 if the statement is not cached
+	 * @see #isResolved(int)
+	 * @see #getProcessorIndex(int)
+	 */
+	public int get(String statement) {
+		Integer entry = statementToProcessorMap.get(statement);
+		return entry == null ? -1 : entry;
+	}
+
+	/**
+	 * Returns whether or not the given cached entry is the line processor that always processes its statement
+	 * @param entry The cached entry
+	 * @return Whether or not the entry is the line processor that always processes its statement
+	 */
+	public static boolean isResolved(int entry) {
+		return entry >= 0;
+	}
+
+	/**
+	 * Returns the index of the line processor of the given cached entry
+	 * @param entry The cached entry
+	 * @return The index of the line processor that processes the statement, or of the first line processor to try
+	 */
+	public static int getProcessorIndex(int entry) {
+		return entry >= 0 ? entry : -entry - 2;
+	}
+
+	/**
+	 * Remembers the line processor that always processes the given statement
+	 * @param statement      The trimmed statement
+	 * @param processorIndex The index of the line processor
+	 */
+	public void putResolved(String statement, int processorIndex) {
+		put(statement, processorIndex);
+	}
+
+	/**
+	 * Remembers the first line processor that may be able to process the given statement
+	 * @param statement      The trimmed statement
+	 * @param processorIndex The index of the first line processor to try
+	 */
+	public void putUnresolved(String statement, int processorIndex) {
+		put(statement, -processorIndex - 2);
+	}
+
+	/**
+	 * Remembers the given entry for the given statement
+	 * @param statement The trimmed statement
+	 * @param entry     The entry
+	 */
+	private void put(String statement, int entry) {
+		if (statementToProcessorMap.size() >= MAXIMUM_SIZE)
+			statementToProcessorMap.clear();
+		statementToProcessorMap.put(statement, entry);
+	}
+
+	/**
+	 * Returns whether or not the given statement is cached
+	 * @param statement The trimmed statement
+	 * @return Whether or not the statement is cached
+	 */
+	public boolean contains(String statement) {
+		return statementToProcessorMap.containsKey(statement);
+	}
+
+	/**
+	 * Forgets every statement that is not one of the given statements
+	 * @param statements The statements to keep
+	 */
+	public void retainAll(Collection<String> statements) {
+		Set<String> toKeep = statements instanceof Set ? (Set<String>) statements : new HashSet<>(statements);
+		statementToProcessorMap.keySet().retainAll(toKeep);
+	}
+
+	/**
+	 * Returns the number of cached statements
+	 * @return The number of cached statements
+	 */
+	public int size() {
+		return statementToProcessorMap.size();
+	}
+}
@@ -0,0 +1,20 @@
+package io.github.anon10w1z.anonlang;
+
+/**
+ * The kinds of statements in AnonLang
+ */
+public enum StatementKind {
+	WRITE,
+	WRITELN,
+	VARIABLE_DECLARATION,
+	GLOBAL_VARIABLE_DECLARATION,
+	INCREMENT,
+	DECREMENT,
+	REPEAT,
+	FOR,
+	READ,
+	IMPORT,
+	FUNCTION,
+	ASSIGNMENT,
+	COMMENT
+}
@@ -0,0 +1,402 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.exceptions.AnonLangException;
+import io.github.anon10w1z.anonlang.exceptions.IllegalAssignmentException;
+import io.github.anon10w1z.anonlang.exceptions.MalformedPrefixException;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A pass over the statements of a file, made before the file is executed, that infers the types of its values and local variables. <br>
+ * AnonLang decides the type of a value by parsing the text a statement produces after variables are substituted,
+ * so a type is only inferred when that text is certain to parse as it: <br>
+ * - values that reference no variables and call no nondeterministic function and no reduction are evaluated once, here <br>
+ * - values that start with a word that is not a function name are strings, since they can never evaluate as expressions <br>
+ * - values made only of integer literals, int variables, {@code +}, {@code -}, {@code *} and parentheses are numbers <br>
+ * Assignments and increments that are certain to fail because of these types are reported before execution starts.
+ * Local variables declared after an import are of unknown type, since the module may already have declared them.
+ * Values that name a function the file defines are of unknown type, since what they evaluate to depends on whether
+ * the function has been defined when they are evaluated. After an import, so are values with a word that is not the
+ * name of a builtin function, since the module may define a function of that name.
+ */
+public final class TypeInference {
+	/**
+	 * The types of values and variables
+	 */
+	public enum InferredType {
+		INT("Integer"),
+		DOUBLE("Double"),
+		/**
+		 * An int or a double
+		 */
+		NUMBER("number"),
+		STRING("String"),
+		/**
+		 * A type that is not known before execution
+		 */
+		UNKNOWN("unknown");
+
+		/**
+		 * The name of this type in error messages
+		 */
+		private final String displayName;
+
+		InferredType(String displayName) {
+			this.displayName = displayName;
+		}
+
+		/**
+		 * Returns whether or not values of this type are numbers
+		 * @return Whether or not values of this type are numbers
+		 */
+		public boolean isNumeric() {
+			return this == INT || this == DOUBLE || this == NUMBER;
+		}
+
+		/**
+		 * Returns whether or not a value of the given type can never be assigned to a variable of this type
+		 * @param valueType The type of the value
+		 * @return Whether or not the assignment always fails
+		 */
+		public boolean rejects(InferredType valueType) {
+			return (isNumeric() && valueType == STRING) || (this == STRING && valueType.isNumeric());
+		}
+
+		/**
+		 * Returns the type of the given value
+		 * @param value The value
+		 * @return The type of the value
+		 */
+		private static InferredType of(Object value) {
+			if (value instanceof Integer)
+				return INT;
+			if (value instanceof Double)
+				return DOUBLE;
+			return value instanceof String ? STRING : UNKNOWN;
+		}
+	}
+
+	/**
+	 * The most variable references a value may have for its type to be checked by evaluating it with every combination of signs
+	 */
+	private static final int MAXIMUM_CHECKED_REFERENCES = 4;
+
+	/**
+	 * The values of the statements whose values are constant, indexed by statement, or null for the other statements
+	 */
+	private final Object[] constantValues;
+	/**
+	 * The types of the values of the statements, indexed by statement
+	 */
+	private final InferredType[] valueTypes;
+	/**
+	 * Maps the names of the local variables declared by the file to their types
+	 */
+	private final Map<String, InferredType> variableTypes = new HashMap<>();
+	/**
+	 * Whether or not a module was imported by the statements inferred so far
+	 */
+	private boolean importsModules;
+	/**
+	 * The upper case names of the functions defined anywhere in the file
+	 */
+	private final Set<String> functionNames = new HashSet<>();
+
+	private TypeInference(int statementCount) {
+		this.constantValues = new Object[statementCount];
+		this.valueTypes = new InferredType[statementCount];
+	}
+
+	/**
+	 * Infers the types of the values and local variables of the given statements, in the order they are executed
+	 * @param statements The statements of the file, which are lexed here unless they were lexed when the file was loaded
+	 * @return The inferred types
+	 * @throws IllegalAssignmentException If a statement always assigns a value of the wrong type
+	 * @throws MalformedPrefixException   If a statement always increments or decrements a string
+	 */
+	public static TypeInference infer(List<String> statements) {
+		SourceStatements source = SourceStatements.of(null, statements);
+		SourceStatements.Cursor tokens = source.cursor();
+		TypeInference typeInference = new TypeInference(source.size());
+		for (int statementIndex = 0; statementIndex < source.size(); ++statementIndex) {
+			tokens.reset(statementIndex);
+			tokens.next();
+			if (tokens.isKeyword("function") && tokens.next() == AnonLexer.TokenKind.IDENTIFIER) {
+				String[] definition = AnonLang.parseFunctionDefinition(tokens.getRestOfStatement().trim());
+				if (definition != null)
+					typeInference.functionNames.add(definition[0].toUpperCase());
+			}
+		}
+		boolean inRepeatLoop = false;
+		for (int statementIndex = 0; statementIndex < source.size(); ++statementIndex) {
+			typeInference.valueTypes[statementIndex] = InferredType.UNKNOWN;
+			tokens.reset(statementIndex);
+			tokens.next();
+			try {
+				inRepeatLoop = typeInference.inferStatement(statementIndex, tokens, inRepeatLoop);
+			} catch (AnonLangException e) {
+				e.setPosition(tokens.getPosition());
+				throw e;
+			}
+		}
+		return typeInference;
+	}
+
+	/**
+	 * Infers the types of a single statement the same way its line processor would process it
+	 * @param statementIndex The index of the statement
+	 * @param tokens         The tokens of the statement, at its first token
+	 * @param inRepeatLoop   Whether or not the statement is executed by a repeat loop
+	 * @return Whether or not the next statement is executed by a repeat or for loop
+	 */
+	private boolean inferStatement(int statementIndex, SourceStatements.Cursor tokens, boolean inRepeatLoop) {
+		if (tokens.isKeyword("write") || tokens.isKeyword("repeat")) {
+			boolean isRepeat = tokens.isKeyword("repeat");
+			tokens.next();
+			inferValue(statementIndex, tokens.getRestOfStatement(), inRepeatLoop);
+			return isRepeat;
+		} else if (tokens.isKeyword("writeln")) {
+			if (tokens.next() != AnonLexer.TokenKind.END)
+				inferValue(statementIndex, tokens.getRestOfStatement(), inRepeatLoop);
+		} else if (tokens.isKeyword("var")) {
+			String variableName = lexTarget(tokens);
+			if (variableName != null && !variableTypes.containsKey(variableName)) {
+				InferredType valueType = inferValue(statementIndex, tokens.getRestOfStatement(), inRepeatLoop);
+				variableTypes.put(variableName, importsModules ? InferredType.UNKNOWN : valueType);
+			}
+		} else if (tokens.isKeyword("global")) {
+			tokens.next();
+			if (tokens.isKeyword("var") && lexTarget(tokens) != null)
+				inferValue(statementIndex, tokens.getRestOfStatement(), inRepeatLoop);
+		} else if (tokens.isOperator("++") || tokens.isOperator("--")) {
+			String operation = tokens.isOperator("++") ? "increment" : "decrement";
+			tokens.next();
+			String variableName = tokens.getRestOfStatement().trim();
+			if (variableTypes.get(variableName) == InferredType.STRING)
+				throw new MalformedPrefixException("Tried to " + operation + " non-numeric variable " + variableName);
+		} else if (tokens.isKeyword("read")) {
+			if (tokens.next() == AnonLexer.TokenKind.IDENTIFIER) {
+				if (!variableTypes.containsKey(tokens.getTokenText()))
+					variableTypes.put(tokens.getTokenText(), InferredType.UNKNOWN);
+			} else if (tokens.isOperator("=")) //an assignment to a variable named read
+				inferAssignment(statementIndex, "read", tokens, inRepeatLoop);
+		} else if (tokens.isKeyword("for")) {
+			String variableName = tokens.getTokenText();
+			if (tokens.next() == AnonLexer.TokenKind.IDENTIFIER) {
+				if (!variableTypes.containsKey(tokens.getTokenText()))
+					variableTypes.put(tokens.getTokenText(), importsModules ? InferredType.UNKNOWN : InferredType.STRING);
+				return true;
+			} else if (tokens.isOperator("=")) //an assignment to a variable named for
+				inferAssignment(statementIndex, variableName, tokens, inRepeatLoop);
+		} else if (tokens.isKeyword("import")) {
+			String variableName = tokens.getTokenText();
+			if (tokens.next() == AnonLexer.TokenKind.IDENTIFIER)
+				importsModules = true;
+			else if (tokens.isOperator("=")) //an assignment to a variable named import
+				inferAssignment(statementIndex, variableName, tokens, inRepeatLoop);
+		} else if (tokens.getTokenKind() == AnonLexer.TokenKind.IDENTIFIER || tokens.getTokenKind() == AnonLexer.TokenKind.KEYWORD) {
+			String variableName = tokens.getTokenText();
+			tokens.next();
+			if (tokens.isOperator("="))
+				inferAssignment(statementIndex, variableName, tokens, inRepeatLoop);
+		}
+		return false;
+	}
+
+	/**
+	 * Infers the type of the value of an assignment and checks that it can be assigned
+	 * @param statementIndex The index of the assignment
+	 * @param variableName   The name of the assigned variable
+	 * @param tokens         The tokens of the assignment, at its {@code =}
+	 * @param inRepeatLoop   Whether or not the assignment is executed by a repeat loop
+	 */
+	private void inferAssignment(int statementIndex, String variableName, SourceStatements.Cursor tokens, boolean inRepeatLoop) {
+		tokens.next();
+		InferredType valueType = inferValue(statementIndex, tokens.getRestOfStatement(), inRepeatLoop);
+		InferredType variableType = variableTypes.get(variableName);
+		if (variableType != null && variableType.rejects(valueType)) {
+			Object constantValue = constantValues[statementIndex];
+			String value = constantValue != null ? "value " + constantValue : "a value";
+			throw new IllegalAssignmentException("Variable " + variableName + " is of type " + variableType.displayName + " but is always assigned " + value + " of type " + valueType.displayName);
+		}
+	}
+
+	/**
+	 * Lexes the name and {@code =} of a declaration whose keywords have been lexed
+	 * @param tokens The tokens of the declaration
+	 * @return The name of the declared variable, or null if the declaration does not continue with a name followed by {@code =}
+	 */
+	private static String lexTarget(SourceStatements.Cursor tokens) {
+		if (tokens.next() != AnonLexer.TokenKind.IDENTIFIER)
+			return null;
+		String variableName = tokens.getTokenText();
+		if (tokens.next() != AnonLexer.TokenKind.OPERATOR || !tokens.isOperator("="))
+			return null;
+		tokens.next();
+		return variableName;
+	}
+
+	/**
+	 * Infers the type of the value of a statement, evaluating it if it is constant
+	 * @param statementIndex The index of the statement
+	 * @param valueString    The text of the value
+	 * @param inRepeatLoop   Whether or not the statement is executed by a repeat loop, in which case {@code loopCounter} is an int
+	 * @return The type of the value
+	 */
+	private InferredType inferValue(int statementIndex, String valueString, boolean inRepeatLoop) {
+		String string = valueString.trim();
+		InferredType type;
+		if (namesFunction(string))
+			type = InferredType.UNKNOWN;
+		else if (string.indexOf('&') == -1 && AnonExpression.isDeterministic(string) && !callsReduction(string)) {
+			Object value = AnonLang.parseSubstituted(string, false, null, new ExecutionMeter());
+			constantValues[statementIndex] = value;
+			type = InferredType.of(value);
+		} else if (startsWithPlainWord(string))
+			type = InferredType.STRING;
+		else if (isIntegerArithmetic(string, inRepeatLoop))
+			type = InferredType.NUMBER;
+		else type = InferredType.UNKNOWN;
+		valueTypes[statementIndex] = type;
+		return type;
+	}
+
+	/**
+	 * Returns whether or not the given value contains a word that names a function defined by the file, ignoring case,
+	 * or that may name a function of an imported module
+	 * @param string The trimmed value
+	 * @return Whether or not the value may name a user-defined function
+	 */
+	private boolean namesFunction(String string) {
+		if (functionNames.isEmpty() && !importsModules)
+			return false;
+		return containsWord(string, word -> functionNames.contains(word.toUpperCase()) || (importsModules && !AnonExpression.startsWithFunctionName(word)));
+	}
+
+	/**
+	 * Returns whether or not the given value contains a word that names a reduction, ignoring case. <br>
+	 * Such a value is not evaluated here, since its range may be long enough to take any time, and evaluating it here
+	 * would not count against the budget of the file.
+	 * @param string The trimmed value
+	 * @return Whether or not the value may call a reduction
+	 */
+	private static boolean callsReduction(String string) {
+		return containsWord(string, AnonExpression::startsWithReductionName);
+	}
+
+	/**
+	 * Returns whether or not the given value contains a word, which is not part of a longer word or number, that
+	 * matches the given predicate
+	 * @param string  The trimmed value
+	 * @param matches The predicate
+	 * @return Whether or not a word of the value matches the predicate
+	 */
+	private static boolean containsWord(String string, Predicate<String> matches) {
+		for (int start = 0; start < string.length(); ++start) {
+			if (!Character.isLetter(string.charAt(start)) || (start > 0 && Character.isLetterOrDigit(string.charAt(start - 1))))
+				continue;
+			int end = start;
+			while (end < string.length() && (Character.isLetterOrDigit(string.charAt(end)) || string.charAt(end) == '_'))
+				++end;
+			if (matches.test(string.substring(start, end)))
+				return true;
+			start = end;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether or not the given value starts with a word that is not the name of a function and that is not followed
+	 * by a variable reference. <br>
+	 * Such a value, and the first {@code &conc&} component of it, can never be evaluated as an expression, and the text
+	 * it produces can never be parsed as a number unless the word is {@code Infinity} or {@code NaN}.
+	 * @param string The trimmed value
+	 * @return Whether or not the value starts with such a word
+	 */
+	private static boolean startsWithPlainWord(String string) {
+		if (string.isEmpty() || !Character.isLetter(string.charAt(0)))
+			return false;
+		int end = 1;
+		while (end < string.length() && (Character.isLetterOrDigit(string.charAt(end)) || string.charAt(end) == '_'))
+			++end;
+		if (end < string.length() && string.charAt(end) == '&')
+			return false;
+		String word = string.substring(0, end);
+		return !word.equals("Infinity") && !word.equals("NaN") && !AnonExpression.startsWithFunctionName(word);
+	}
+
+	/**
+	 * Returns whether or not the given value is made only of integer literals, references to int variables, whitespace,
+	 * {@code +}, {@code -}, {@code *} and parentheses, and evaluates to a number whatever the signs of the variables are. <br>
+	 * Such a value always evaluates to a number, since these operators cannot fail and the digits of the variables do not
+	 * change how the value is tokenized.
+	 * @param string       The trimmed value
+	 * @param inRepeatLoop Whether or not {@code loopCounter} is an int
+	 * @return Whether or not the value always evaluates to a number
+	 */
+	private boolean isIntegerArithmetic(String string, boolean inRepeatLoop) {
+		List<String> parts = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < string.length(); ++i) {
+			char character = string.charAt(i);
+			if (character == '&') {
+				int end = string.indexOf('&', i + 1);
+				if (end == -1)
+					return false;
+				String variableName = string.substring(i + 1, end);
+				boolean isInt = variableName.equals("loopCounter") ? inRepeatLoop : variableTypes.get(variableName) == InferredType.INT;
+				if (!isInt || parts.size() / 2 == MAXIMUM_CHECKED_REFERENCES)
+					return false;
+				parts.add(literal.toString());
+				parts.add(null);
+				literal.setLength(0);
+				i = end;
+			} else if (Character.isDigit(character) || character == '+' || character == '-' || character == '*' || character == '(' || character == ')' || character == ' ')
+				literal.append(character);
+			else return false;
+		}
+		parts.add(literal.toString());
+		int references = parts.size() / 2;
+		if (references == 0)
+			return false;
+		ExecutionMeter executionMeter = new ExecutionMeter();
+		for (int signs = 0; signs < 1 << references; ++signs) {
+			StringBuilder sample = new StringBuilder();
+			int reference = 0;
+			for (String part : parts)
+				sample.append(part != null ? part : (signs & 1 << reference++) != 0 ? "-1" : "1");
+			if (!(AnonLang.parseSubstituted(sample.toString(), false, null, executionMeter) instanceof Number))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the value of the given statement if it is the same every time the statement is executed
+	 * @param statementIndex The index of the statement
+	 * @return The value of the statement, or null if it is not constant
+	 */
+	public Object getConstantValue(int statementIndex) {
+		return constantValues[statementIndex];
+	}
+
+	/**
+	 * Returns the inferred type of the value of the given statement
+	 * @param statementIndex The index of the statement
+	 * @return The type of the value, which is {@link InferredType#UNKNOWN} for statements without a value
+	 */
+	public InferredType getValueType(int statementIndex) {
+		return valueTypes[statementIndex];
+	}
+
+	/**
+	 * Returns the inferred type of the given local variable, which is the type of the value it is declared with
+	 * @param variableName The name of the variable
+	 * @return The type of the variable, or {@link InferredType#UNKNOWN} if the file does not declare it
+	 */
+	public InferredType getVariableType(String variableName) {
+		InferredType type = variableTypes.get(variableName);
+		return type == null ? InferredType.UNKNOWN : type;
+	}
+}
@@ -0,0 +1,167 @@
+package io.github.anon10w1z.anonlang;
+
+import io.github.anon10w1z.anonlang.metrics.AnonMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The value of a statement before its variable references are replaced, compiled with a slot for each reference. <br>
+ * While every reference names a local numeric variable, the value is evaluated by reading the variables into the slots
+ * of the compiled expression, so it is compiled once instead of once for each set of values the variables take. <br>
+ * Since references are replaced from left to right, the references of a value whose names all name variables are
+ * exactly the pairs of ampersands it is split into. Values that cannot be evaluated this way are left to {@link AnonLang#parseSubstituted(String, boolean, AnonExpression.UserFunctions, ExecutionMeter)}.
+ */
+final class ValueTemplate {
+	/**
+	 * The template of values without references, or whose references cannot become slots
+	 */
+	private static final ValueTemplate NONE = new ValueTemplate(null, null, true);
+	/**
+	 * The maximum number of references of a template, so that the signs of the values of its variables fit in an int
+	 */
+	private static final int MAXIMUM_REFERENCES = Integer.SIZE - 1;
+
+	/**
+	 * The text before, between and after the references
+	 */
+	private final String[] texts;
+	/**
+	 * The names of the referenced variables
+	 */
+	private final String[] names;
+	/**
+	 * Whether or not the value is deterministic with any numbers in place of its references
+	 */
+	private final boolean deterministic;
+	/**
+	 * Maps the combination of the signs of the values of the variables, with a bit set for each negative value, to the
+	 * value compiled for it, or to null if a slot is not a number of its own with these signs
+	 */
+	private final Map<Integer, AnonExpression> programs = new HashMap<>();
+	/**
+	 * The variables of the references while a value is evaluated
+	 */
+	private final AnonVariable[] slotVariables;
+	/**
+	 * The value with its references replaced while it is evaluated
+	 */
+	private final StringBuilder substituted = new StringBuilder();
+
+	/**
+	 * Constructs a template
+	 * @param texts         The text before, between and after the references
+	 * @param names         The names of the referenced variables
+	 * @param deterministic Whether or not the value is deterministic with any numbers in place of its references
+	 */
+	private ValueTemplate(String[] texts, String[] names, boolean deterministic) {
+		this.texts = texts;
+		this.names = names;
+		this.deterministic = deterministic;
+		this.slotVariables = names == null ? null : new AnonVariable[names.length];
+	}
+
+	/**
+	 * Splits the given value of a statement into the text around its references and the names they refer to
+	 * @param value The trimmed value, before its references are replaced
+	 * @return The template of the value
+	 */
+	static ValueTemplate of(String value) {
+		int count = 0;
+		for (int i = 0; i < value.length(); ++i)
+			if (value.charAt(i) == '&')
+				++count;
+		if (count == 0 || count % 2 != 0 || count / 2 > MAXIMUM_REFERENCES)
+			return NONE;
+		String[] texts = new String[count / 2 + 1];
+		String[] names = new String[count / 2];
+		StringBuilder withZeros = new StringBuilder(value.length());
+		int textStart = 0;
+		for (int i = 0; i < names.length; ++i) {
+			int opening = value.indexOf('&', textStart);
+			int closing = value.indexOf('&', opening + 1);
+			if (closing == opening + 1)
+				return NONE;
+			texts[i] = value.substring(textStart, opening);
+			names[i] = value.substring(opening + 1, closing);
+			withZeros.append(texts[i]).append('0');
+			textStart = closing + 1;
+		}
+		texts[names.length] = value.substring(textStart);
+		withZeros.append(texts[names.length]);
+		return new ValueTemplate(texts, names, AnonExpression.isDeterministic(withZeros.toString()));
+	}
+
+	/**
+	 * Returns whether or not the value is deterministic when its references are replaced by numbers
+	 * @return Whether or not the value is deterministic
+	 */
+	boolean isDeterministic() {
+		return deterministic;
+	}
+
+	/**
+	 * Evaluates the value with the current values of the variables it refers to, counting the evaluations as
+	 * {@link AnonLang#parseSubstituted(String, boolean, AnonExpression.UserFunctions, ExecutionMeter)} would
+	 * @param variables      The local variables
+	 * @param userFunctions  The user-defined functions the value may call
+	 * @param executionMeter The meter evaluations and string bytes are counted by
+	 * @return The evaluation result, or the value with its references replaced if it is not an expression, or null if
+	 * the value cannot be evaluated from slots with these variables
+	 */
+	String evaluate(Map<String, AnonVariable> variables, AnonExpression.UserFunctions userFunctions, ExecutionMeter executionMeter) {
+		if (names == null)
+			return null;
+		int signs = 0;
+		for (int i = 0; i < names.length; ++i) {
+			AnonVariable variable = variables.get(names[i]);
+			if (variable == null || !variable.isPlainNumber())
+				return null;
+			slotVariables[i] = variable;
+			if (variable.isNegative())
+				signs |= 1 << i;
+		}
+		AnonExpression program = programs.get(signs);
+		boolean cached = program != null || programs.containsKey(signs);
+		if (!cached) {
+			program = compile(signs, userFunctions);
+			programs.put(signs, program);
+		}
+		if (program == null)
+			return null;
+		substituted.setLength(0);
+		for (int i = 0; i < names.length; ++i) {
+			substituted.append(texts[i]);
+			slotVariables[i].appendTo(substituted);
+		}
+		substituted.append(texts[names.length]);
+		executionMeter.countEvaluation();
+		String result = program.evaluate(slotVariables);
+		AnonMetrics.recordExpressionEvaluated(cached);
+		if (result != null && !result.contentEquals(substituted))
+			return result;
+		executionMeter.countEvaluation(); //the value is not an expression, so it is evaluated again as its only component
+		executionMeter.countString(substituted.length());
+		return substituted.toString();
+	}
+
+	/**
+	 * Compiles the value with a slot for each reference, whose numbers have the given signs
+	 * @param signs         The combination of the signs of the numbers, with a bit set for each negative number
+	 * @param userFunctions The user-defined functions the value may call
+	 * @return The compiled value, or null if a slot is not a number of its own
+	 */
+	private AnonExpression compile(int signs, AnonExpression.UserFunctions userFunctions) {
+		StringBuilder expression = new StringBuilder();
+		int[] slotStarts = new int[names.length];
+		int[] slotEnds = new int[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			expression.append(texts[i]);
+			slotStarts[i] = expression.length();
+			expression.append((signs & 1 << i) != 0 ? "-1" : "1");
+			slotEnds[i] = expression.length();
+		}
+		expression.append(texts[names.length]);
+		return AnonExpression.compileWithSlots(expression.toString(), slotStarts, slotEnds, userFunctions);
+	}
+}
@@ -0,0 +1,269 @@
+package io.github.anon10w1z.anonlang;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the files of a batch in worker JVMs on the local machine, so that a file that exhausts the heap or crashes its
+ * JVM only fails itself, and so that a batch can use more cores than the garbage collector of a single JVM scales to. <br>
+ * Each worker is sent one file at a time over its standard input and sends the result back over its standard output.
+ * Workers take the next file as soon as they finish one, so a slow worker is given fewer files. When a worker dies,
+ * the file it was running is retried on a new worker, and fails once it has killed {@value #MAXIMUM_ATTEMPTS} workers.
+ */
+public final class WorkerPool {
+	/**
+	 * The number of times a file is run before a worker dying while running it counts as its failure
+	 */
+	private static final int MAXIMUM_ATTEMPTS = 2;
+	/**
+	 * How often the coordinator checks for files that exceeded their timeout, in milliseconds
+	 */
+	private static final long TIMEOUT_CHECK_MILLISECONDS = 100;
+
+	/**
+	 * The files of the batch
+	 */
+	private final List<Path> scripts;
+	/**
+	 * The command that starts a worker
+	 */
+	private final List<String> workerCommand;
+	/**
+	 * The number of nanoseconds a file may run before its worker is killed, or 0 if files may run forever
+	 */
+	private final long timeoutNanoseconds;
+	/**
+	 * The indices of the files that have not been sent to a worker yet
+	 */
+	private final Deque<Integer> pendingScripts = new ArrayDeque<>();
+	/**
+	 * The result of each file, or null if it has not finished yet
+	 */
+	private final AnonBatchRunner.ScriptResult[] results;
+	/**
+	 * The number of times each file was sent to a worker
+	 */
+	private final int[] attempts;
+
+	private WorkerPool(List<Path> scripts, List<String> workerCommand, long timeoutNanoseconds) {
+		this.scripts = scripts;
+		this.workerCommand = workerCommand;
+		this.timeoutNanoseconds = timeoutNanoseconds;
+		this.results = new AnonBatchRunner.ScriptResult[scripts.size()];
+		this.attempts = new int[scripts.size()];
+		for (int i = 0; i < scripts.size(); ++i)
+			pendingScripts.add(i);
+	}
+
+	/**
+	 * Runs a worker, which runs every file whose path it reads from standard input and writes each result to standard
+	 * output, until standard input ends. <br>
+	 * Anything else written to {@link System#out} goes to standard error instead, so it cannot corrupt the results.
+	 * @param arguments Ignored
+	 * @throws IOException If the coordinator could not be communicated with
+	 */
+	public static void main(String[] arguments) throws IOException {
+		DataInputStream requests = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream responses = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+		StatementCache statementCache = new StatementCache();
+		while (true) {
+			String script;
+			try {
+				script = CheckpointLog.readString(requests);
+			} catch (EOFException e) {
+				return; //the coordinator has no files left
+			}
+			AnonBatchRunner.ScriptResult result = AnonBatchRunner.runScript(Paths.get(script), statementCache);
+			responses.writeBoolean(result.getError() != null);
+			if (result.getError() != null)
+				CheckpointLog.writeString(responses, result.getError());
+			responses.writeLong(result.getDurationNanoseconds());
+			responses.writeLong(result.getStatementsExecuted());
+			CheckpointLog.writeString(responses, result.getOutput());
+			responses.flush();
+		}
+	}
+
+	/**
+	 * Runs the given AnonLang files in the given number of worker JVMs
+	 * @param scripts       The paths to the files
+	 * @param workers       The number of workers
+	 * @param workerHeap    The maximum heap size of each worker, as given to {@code -Xmx}, or null for the default
+	 * @param timeoutMillis The number of milliseconds a file may run before its worker is killed, or 0 if files may run forever
+	 * @return The result of each file, in the order the files were given
+	 */
+	public static List<AnonBatchRunner.ScriptResult> run(List<Path> scripts, int workers, String workerHeap, long timeoutMillis) {
+		List<String> workerCommand = new ArrayList<>();
+		workerCommand.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (workerHeap != null)
+			workerCommand.add("-Xmx" + workerHeap);
+		workerCommand.add("-cp");
+		workerCommand.add(System.getProperty("java.class.path"));
+		workerCommand.add(WorkerPool.class.getName());
+		WorkerPool workerPool = new WorkerPool(scripts, workerCommand, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+		List<Worker> workerList = new ArrayList<>();
+		for (int i = 0; i < Math.max(1, Math.min(workers, scripts.size())); ++i) {
+			Worker worker = workerPool.new Worker();
+			Thread thread = new Thread(worker, "AnonLang worker coordinator " + (i + 1));
+			thread.setDaemon(true);
+			worker.thread = thread;
+			workerList.add(worker);
+			thread.start();
+		}
+		try {
+			for (Worker worker : workerList) {
+				while (worker.thread.isAlive()) {
+					worker.thread.join(TIMEOUT_CHECK_MILLISECONDS);
+					for (Worker runningWorker : workerList)
+						runningWorker.killIfTimedOut();
+				}
+				if (worker.failure != null)
+					throw worker.failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			for (Worker worker : workerList)
+				worker.stop();
+		}
+		return Arrays.asList(workerPool.results);
+	}
+
+	/**
+	 * Returns the index of the next file to send to a worker
+	 * @return The index of the file, or -1 if every file has been sent
+	 */
+	private synchronized int nextScript() {
+		Integer scriptIndex = pendingScripts.pollFirst();
+		if (scriptIndex == null)
+			return -1;
+		++attempts[scriptIndex];
+		return scriptIndex;
+	}
+
+	/**
+	 * Handles a worker dying while running the given file, by sending the file to a worker again or failing it once it
+	 * has been sent {@value #MAXIMUM_ATTEMPTS} times
+	 * @param scriptIndex         The index of the file
+	 * @param timedOut            Whether or not the worker was killed because the file exceeded its timeout, in which case the file is not retried
+	 * @param exitCode            The exit code of the worker
+	 * @param durationNanoseconds How long the file ran before the worker died
+	 */
+	private synchronized void workerDied(int scriptIndex, boolean timedOut, int exitCode, long durationNanoseconds) {
+		if (timedOut)
+			results[scriptIndex] = AnonBatchRunner.ScriptResult.failed(scripts.get(scriptIndex), "Timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanoseconds) + " ms", durationNanoseconds);
+		else if (attempts[scriptIndex] >= MAXIMUM_ATTEMPTS)
+			results[scriptIndex] = AnonBatchRunner.ScriptResult.failed(scripts.get(scriptIndex), "Killed its worker " + attempts[scriptIndex] + " time(s), last with exit code " + exitCode, durationNanoseconds);
+		else pendingScripts.addFirst(scriptIndex);
+	}
+
+	/**
+	 * A worker JVM and the thread that sends it files
+	 */
+	private final class Worker implements Runnable {
+		/**
+		 * The thread that sends files to the worker
+		 */
+		private Thread thread;
+		/**
+		 * The worker JVM, or null if it has not been started or has died
+		 */
+		private volatile Process process;
+		/**
+		 * The time the file the worker is running was sent to it, or 0 if it is not running one
+		 */
+		private volatile long scriptStartTime;
+		/**
+		 * Whether or not the worker was killed because its file exceeded its timeout
+		 */
+		private volatile boolean timedOut;
+		/**
+		 * Why the worker could not be run, or null if it could
+		 */
+		private RuntimeException failure;
+
+		@Override
+		public void run() {
+			DataOutputStream requests = null;
+			DataInputStream responses = null;
+			int scriptIndex;
+			while ((scriptIndex = nextScript()) != -1) {
+				try {
+					if (process == null) {
+						process = new ProcessBuilder(workerCommand).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+						requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+						responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+					}
+				} catch (IOException e) {
+					failure = new UncheckedIOException("Could not start a worker", e);
+					return;
+				}
+				Path script = scripts.get(scriptIndex);
+				long startTime = System.nanoTime();
+				scriptStartTime = startTime;
+				try {
+					CheckpointLog.writeString(requests, script.toString());
+					requests.flush();
+					String error = responses.readBoolean() ? CheckpointLog.readString(responses) : null;
+					long durationNanoseconds = responses.readLong();
+					long statementsExecuted = responses.readLong();
+					String output = CheckpointLog.readString(responses);
+					results[scriptIndex] = new AnonBatchRunner.ScriptResult(script, error, durationNanoseconds, statementsExecuted, output);
+					scriptStartTime = 0;
+					if (timedOut) { //killed just as the file finished
+						stop();
+						timedOut = false;
+					}
+				} catch (IOException e) {
+					scriptStartTime = 0;
+					long durationNanoseconds = System.nanoTime() - startTime;
+					int exitCode = stop();
+					workerDied(scriptIndex, timedOut, exitCode, durationNanoseconds);
+					timedOut = false;
+				}
+			}
+		}
+
+		/**
+		 * Kills the worker if the file it is running has exceeded its timeout
+		 */
+		private void killIfTimedOut() {
+			long startTime = scriptStartTime;
+			Process runningProcess = process;
+			if (timeoutNanoseconds > 0 && startTime != 0 && runningProcess != null && System.nanoTime() - startTime > timeoutNanoseconds) {
+				timedOut = true;
+				runningProcess.destroyForcibly();
+			}
+		}
+
+		/**
+		 * Stops the worker, which finishes on its own once its input is closed
+		 * @return The exit code of the worker, or -1 if it was not running
+		 */
+		private int stop() {
+			Process runningProcess = process;
+			if (runningProcess == null)
+				return -1;
+			process = null;
+			try {
+				runningProcess.getOutputStream().close();
+			} catch (IOException e) {
+				//the worker has already died
+			}
+			try {
+				if (!runningProcess.waitFor(TIMEOUT_CHECK_MILLISECONDS, TimeUnit.MILLISECONDS))
+					runningProcess.destroyForcibly().waitFor();
+				return runningProcess.exitValue();
+			} catch (InterruptedException e) {
+				runningProcess.destroyForcibly();
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+	}
+}
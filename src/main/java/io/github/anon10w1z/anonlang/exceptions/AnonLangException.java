@@ -1,17 +1,46 @@
 package io.github.anon10w1z.anonlang.exceptions;
 
-import io.github.anon10w1z.anonlang.AnonLang;
-
 /**
  * An exception thrown by the interpreter
  */
 public class AnonLangException extends RuntimeException {
+	/**
+	 * The position in the source of what was being processed when this exception was thrown, or null if it is unknown
+	 */
+	private String position;
+
 	public AnonLangException(String message) {
 		super(message);
 	}
 
+	/**
+	 * Returns the position in the source of what was being processed when this exception was thrown
+	 * @return The line and column, and the file if it is known, or null if the position is unknown
+	 */
+	public String getPosition() {
+		return position;
+	}
+
+	/**
+	 * Sets the position in the source of what was being processed when this exception was thrown, unless it is already set
+	 * @param position The line and column, and the file if it is known
+	 */
+	public void setPosition(String position) {
+		if (this.position == null)
+			this.position = position;
+	}
+
+	/**
+	 * Describes this exception the way it is reported to the user
+	 * @return The name of this exception, the position and the message
+	 */
+	public String getReport() {
+		String report = position == null ? getClass().getSimpleName() : getClass().getSimpleName() + " at " + position;
+		return getLocalizedMessage() == null ? report : report + ": " + getLocalizedMessage();
+	}
+
 	@Override
 	public void printStackTrace() {
-		System.err.println(this.toString().replaceFirst("io.github.anon10w1z.anonlang.exceptions.", "").replaceFirst("Exception:", "Exception at line #" + (AnonLang.currentIndex + 1) + ":"));
+		System.err.println(getReport());
 	}
 }
@@ -0,0 +1,10 @@
+package io.github.anon10w1z.anonlang.exceptions;
+
+/**
+ * An exception thrown when a script exceeds its execution budget
+ */
+public class BudgetExceededException extends AnonLangException {
+	public BudgetExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,10 @@
+package io.github.anon10w1z.anonlang.exceptions;
+
+/**
+ * An exception thrown when a script reads more input than there is
+ */
+public class EndOfInputException extends AnonLangException {
+	public EndOfInputException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,10 @@
+package io.github.anon10w1z.anonlang.exceptions;
+
+/**
+ * An exception thrown due to an import statement whose module could not be loaded
+ */
+public class ImportException extends AnonLangException {
+	public ImportException(String message) {
+		super(message);
+	}
+}
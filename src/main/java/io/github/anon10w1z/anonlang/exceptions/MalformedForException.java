@@ -0,0 +1,10 @@
+package io.github.anon10w1z.anonlang.exceptions;
+
+/**
+ * An exception thrown due to an improper for statement
+ */
+public class MalformedForException extends AnonLangException {
+	public MalformedForException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,10 @@
+package io.github.anon10w1z.anonlang.exceptions;
+
+/**
+ * An exception thrown due to an improper function definition
+ */
+public class MalformedFunctionException extends AnonLangException {
+	public MalformedFunctionException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,313 @@
+package io.github.anon10w1z.anonlang.metrics;
+
+import io.github.anon10w1z.anonlang.StatementKind;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Live statistics of every interpreter in this JVM. <br>
+ * Counters are {@link LongAdder}s so that recording from many scripts at once does not contend,
+ * and they are exposed over JMX as {@value #OBJECT_NAME} and to any registered {@link MetricsListener}s.
+ */
+public final class AnonMetrics implements AnonMetricsMXBean {
+	/**
+	 * The name the metrics are registered under with the platform MBean server
+	 */
+	public static final String OBJECT_NAME = "io.github.anon10w1z.anonlang:type=Metrics";
+
+	/**
+	 * The statement kinds, indexed by ordinal
+	 */
+	private static final StatementKind[] statementKinds = StatementKind.values();
+	/**
+	 * The metrics of this JVM
+	 */
+	private static final AnonMetrics instance = new AnonMetrics();
+
+	/**
+	 * The registered listeners, replaced as a whole whenever a listener is added or removed
+	 */
+	private static volatile MetricsListener[] listeners = new MetricsListener[0];
+
+	/**
+	 * The number of statements executed, indexed by statement kind ordinal
+	 */
+	private final LongAdder[] statementsExecuted = new LongAdder[statementKinds.length];
+	/**
+	 * The number of statement cache hits
+	 */
+	private final LongAdder statementCacheHits = new LongAdder();
+	/**
+	 * The number of statement cache misses
+	 */
+	private final LongAdder statementCacheMisses = new LongAdder();
+	/**
+	 * The number of expressions evaluated
+	 */
+	private final LongAdder expressionEvaluations = new LongAdder();
+	/**
+	 * The number of expressions evaluated whose compiled form was cached
+	 */
+	private final LongAdder expressionCacheHits = new LongAdder();
+	/**
+	 * The number of characters of output written by scripts
+	 */
+	private final LongAdder outputCharactersWritten = new LongAdder();
+	/**
+	 * Maps builtin function names to their latency histograms
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> builtinLatencies = new ConcurrentHashMap<>();
+	/**
+	 * The local variable counts of all active scripts
+	 */
+	private final Set<IntSupplier> activeScripts = ConcurrentHashMap.newKeySet();
+
+	private AnonMetrics() {
+		for (int i = 0; i < statementsExecuted.length; ++i)
+			statementsExecuted[i] = new LongAdder();
+	}
+
+	/**
+	 * Returns the metrics of this JVM
+	 * @return The metrics of this JVM
+	 */
+	public static AnonMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server on a background thread, so that starting JMX does not delay execution. <br>
+	 * Registering more than once has no effect.
+	 */
+	public static void registerInBackground() {
+		Thread registerThread = new Thread(() -> {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+			} catch (InstanceAlreadyExistsException e) {
+				//already registered
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}, "AnonLang metrics registration");
+		registerThread.setDaemon(true);
+		registerThread.start();
+	}
+
+	/**
+	 * Adds a listener that receives every recorded event
+	 * @param listener The listener to add
+	 */
+	public static synchronized void addListener(MetricsListener listener) {
+		MetricsListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+
+	/**
+	 * Removes a listener
+	 * @param listener The listener to remove
+	 */
+	public static synchronized void removeListener(MetricsListener listener) {
+		List<MetricsListener> newListeners = new ArrayList<>(Arrays.asList(listeners));
+		newListeners.remove(listener);
+		listeners = newListeners.toArray(new MetricsListener[newListeners.size()]);
+	}
+
+	/**
+	 * Records that a script started executing
+	 * @param fileName      The name of the script
+	 * @param variableCount Supplies the number of local variables of the script while it is active
+	 */
+	public static void recordScriptStarted(String fileName, IntSupplier variableCount) {
+		instance.activeScripts.add(variableCount);
+		for (MetricsListener listener : listeners)
+			listener.scriptStarted(fileName);
+	}
+
+	/**
+	 * Records that a script finished executing
+	 * @param fileName      The name of the script
+	 * @param variableCount The supplier that was given when the script started
+	 */
+	public static void recordScriptFinished(String fileName, IntSupplier variableCount) {
+		instance.activeScripts.remove(variableCount);
+		for (MetricsListener listener : listeners)
+			listener.scriptFinished(fileName);
+	}
+
+	/**
+	 * Records that a statement was executed
+	 * @param kind The kind of the statement
+	 */
+	public static void recordStatementExecuted(StatementKind kind) {
+		instance.statementsExecuted[kind.ordinal()].increment();
+		for (MetricsListener listener : listeners)
+			listener.statementExecuted(kind);
+	}
+
+	/**
+	 * Records a statement cache lookup
+	 * @param hit Whether or not the statement was cached
+	 */
+	public static void recordStatementCacheLookup(boolean hit) {
+		(hit ? instance.statementCacheHits : instance.statementCacheMisses).increment();
+	}
+
+	/**
+	 * Records that an expression was evaluated
+	 * @param cacheHit Whether or not the compiled form of the expression was cached
+	 */
+	public static void recordExpressionEvaluated(boolean cacheHit) {
+		instance.expressionEvaluations.increment();
+		if (cacheHit)
+			instance.expressionCacheHits.increment();
+		for (MetricsListener listener : listeners)
+			listener.expressionEvaluated(cacheHit);
+	}
+
+	/**
+	 * Returns the latency histogram of the given builtin function, which callers may keep to avoid looking it up on every call
+	 * @param name The name of the function
+	 * @return The latency histogram of the function
+	 */
+	public static LatencyHistogram getBuiltinLatencyHistogram(String name) {
+		return instance.builtinLatencies.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * Records a call of a builtin function
+	 * @param name        The name of the function
+	 * @param histogram   The latency histogram of the function
+	 * @param nanoseconds How long the call took
+	 */
+	public static void recordBuiltinCall(String name, LatencyHistogram histogram, long nanoseconds) {
+		histogram.record(nanoseconds);
+		for (MetricsListener listener : listeners)
+			listener.builtinCalled(name, nanoseconds);
+	}
+
+	/**
+	 * Records that output was written by a script
+	 * @param characters The number of characters written
+	 */
+	public static void recordOutputWritten(int characters) {
+		instance.outputCharactersWritten.add(characters);
+		for (MetricsListener listener : listeners)
+			listener.outputWritten(characters);
+	}
+
+	@Override
+	public Map<String, Long> getStatementsExecuted() {
+		Map<String, Long> kindToCountMap = new LinkedHashMap<>();
+		for (StatementKind kind : statementKinds)
+			kindToCountMap.put(kind.name(), statementsExecuted[kind.ordinal()].sum());
+		return kindToCountMap;
+	}
+
+	@Override
+	public long getTotalStatementsExecuted() {
+		long total = 0;
+		for (LongAdder count : statementsExecuted)
+			total += count.sum();
+		return total;
+	}
+
+	@Override
+	public long getStatementCacheHits() {
+		return statementCacheHits.sum();
+	}
+
+	@Override
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.sum();
+	}
+
+	@Override
+	public long getExpressionEvaluations() {
+		return expressionEvaluations.sum();
+	}
+
+	@Override
+	public double getExpressionCacheHitRate() {
+		long evaluations = expressionEvaluations.sum();
+		return evaluations == 0 ? Double.NaN : (double) expressionCacheHits.sum() / evaluations;
+	}
+
+	@Override
+	public Map<String, Long> getBuiltinCalls() {
+		Map<String, Long> nameToCallsMap = new TreeMap<>();
+		builtinLatencies.forEach((name, histogram) -> nameToCallsMap.put(name, histogram.getCount()));
+		return nameToCallsMap;
+	}
+
+	@Override
+	public Map<String, Double> getBuiltinMeanLatencyNanoseconds() {
+		Map<String, Double> nameToLatencyMap = new TreeMap<>();
+		builtinLatencies.forEach((name, histogram) -> {
+			long count = histogram.getCount();
+			nameToLatencyMap.put(name, count == 0 ? 0 : (double) histogram.getTotalNanoseconds() / count);
+		});
+		return nameToLatencyMap;
+	}
+
+	@Override
+	public Map<String, Long> getBuiltinP99LatencyNanoseconds() {
+		Map<String, Long> nameToLatencyMap = new TreeMap<>();
+		builtinLatencies.forEach((name, histogram) -> nameToLatencyMap.put(name, histogram.getPercentileUpperBound(99)));
+		return nameToLatencyMap;
+	}
+
+	@Override
+	public Map<String, long[]> getBuiltinLatencyHistograms() {
+		Map<String, long[]> nameToHistogramMap = new TreeMap<>();
+		builtinLatencies.forEach((name, histogram) -> nameToHistogramMap.put(name, histogram.getCounts()));
+		return nameToHistogramMap;
+	}
+
+	@Override
+	public long getOutputCharactersWritten() {
+		return outputCharactersWritten.sum();
+	}
+
+	@Override
+	public long getVariablesInScope() {
+		long variables = 0;
+		for (IntSupplier variableCount : activeScripts)
+			variables += variableCount.getAsInt();
+		return variables;
+	}
+
+	@Override
+	public int getActiveScripts() {
+		return activeScripts.size();
+	}
+
+	@Override
+	public String dumpExecutionTraces() {
+		ByteArrayOutputStream dump = new ByteArrayOutputStream();
+		PrintStream dumpStream = new PrintStream(dump);
+		ExecutionTrace.dumpActive(dumpStream);
+		dumpStream.flush();
+		return dump.toString();
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder count : statementsExecuted)
+			count.reset();
+		statementCacheHits.reset();
+		statementCacheMisses.reset();
+		expressionEvaluations.reset();
+		expressionCacheHits.reset();
+		outputCharactersWritten.reset();
+		builtinLatencies.values().forEach(LatencyHistogram::reset);
+	}
+}
@@ -0,0 +1,98 @@
+package io.github.anon10w1z.anonlang.metrics;
+
+import java.util.Map;
+
+/**
+ * The live statistics of the interpreter, as exposed over JMX
+ */
+public interface AnonMetricsMXBean {
+	/**
+	 * Returns the number of statements executed, by statement kind
+	 * @return Maps statement kinds to the number of statements of that kind executed
+	 */
+	Map<String, Long> getStatementsExecuted();
+
+	/**
+	 * Returns the total number of statements executed
+	 * @return The total number of statements executed
+	 */
+	long getTotalStatementsExecuted();
+
+	/**
+	 * Returns the number of times a statement's kind was looked up in a statement cache and found
+	 * @return The number of statement cache hits
+	 */
+	long getStatementCacheHits();
+
+	/**
+	 * Returns the number of times a statement's kind was looked up in a statement cache and not found
+	 * @return The number of statement cache misses
+	 */
+	long getStatementCacheMisses();
+
+	/**
+	 * Returns the number of expressions evaluated
+	 * @return The number of expressions evaluated
+	 */
+	long getExpressionEvaluations();
+
+	/**
+	 * Returns the fraction of expression evaluations whose compiled form was cached
+	 * @return The expression cache hit rate between 0 and 1, or NaN if no expressions were evaluated
+	 */
+	double getExpressionCacheHitRate();
+
+	/**
+	 * Returns the number of calls of each builtin function
+	 * @return Maps function names to the number of calls
+	 */
+	Map<String, Long> getBuiltinCalls();
+
+	/**
+	 * Returns the mean latency of each builtin function
+	 * @return Maps function names to their mean latency in nanoseconds
+	 */
+	Map<String, Double> getBuiltinMeanLatencyNanoseconds();
+
+	/**
+	 * Returns the 99th percentile latency of each builtin function, rounded up to a power of two
+	 * @return Maps function names to an upper bound of their 99th percentile latency in nanoseconds
+	 */
+	Map<String, Long> getBuiltinP99LatencyNanoseconds();
+
+	/**
+	 * Returns the latency histogram of each builtin function
+	 * @return Maps function names to the number of calls in each bucket; bucket i counts calls that took less than 2^i nanoseconds
+	 */
+	Map<String, long[]> getBuiltinLatencyHistograms();
+
+	/**
+	 * Returns the number of characters of output written by scripts
+	 * @return The number of characters of output written by scripts
+	 */
+	long getOutputCharactersWritten();
+
+	/**
+	 * Returns the number of local variables of all active scripts
+	 * @return The number of local variables of all active scripts
+	 */
+	long getVariablesInScope();
+
+	/**
+	 * Returns the number of scripts that are executing
+	 * @return The number of scripts that are executing
+	 */
+	int getActiveScripts();
+
+	/**
+	 * Returns the most recent statements executed by each active script
+	 * @return The execution traces of all active scripts
+	 * @see ExecutionTrace
+	 */
+	String dumpExecutionTraces();
+
+	/**
+	 * Clears all counters
+	 */
+	void reset();
+}
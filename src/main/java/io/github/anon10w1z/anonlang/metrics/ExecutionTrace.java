@@ -0,0 +1,160 @@
+package io.github.anon10w1z.anonlang.metrics;
+
+import io.github.anon10w1z.anonlang.SourceStatements;
+import io.github.anon10w1z.anonlang.StatementKind;
+
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring buffer of the most recent statements executed by a script, used to find out how a failed script got where it failed. <br>
+ * Events are stored in preallocated primitive arrays, so recording one does not allocate or lock. Only the script's own thread records events;
+ * other threads may dump the trace at any time, in which case the event being recorded at that moment may be shown incompletely.
+ */
+public final class ExecutionTrace {
+	/**
+	 * The number of events a trace keeps by default
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The statement kinds, indexed by ordinal
+	 */
+	private static final StatementKind[] statementKinds = StatementKind.values();
+
+	/**
+	 * The traces of all active scripts
+	 */
+	private static final Set<ExecutionTrace> activeTraces = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The name of the traced script
+	 */
+	private final String fileName;
+	/**
+	 * The statements of the traced script
+	 */
+	private final SourceStatements statements;
+	/**
+	 * The index of the last slot of the buffer, which is also the mask that turns an event number into a slot
+	 */
+	private final int mask;
+	/**
+	 * The indices of the statements of the events
+	 */
+	private final int[] statementIndices;
+	/**
+	 * The ordinals of the kinds of the statements of the events
+	 */
+	private final byte[] kindOrdinals;
+	/**
+	 * The loop iterations of the events, or -1 for events outside of a repeat loop
+	 */
+	private final int[] loopIterations;
+	/**
+	 * The values of {@link System#nanoTime()} at the events
+	 */
+	private final long[] timestamps;
+	/**
+	 * The number of events recorded so far
+	 */
+	private final AtomicLong eventCount = new AtomicLong();
+
+	/**
+	 * Constructs an execution trace that keeps the given number of events
+	 * @param fileName   The name of the traced script
+	 * @param statements The statements of the traced script
+	 * @param capacity   The number of events to keep, which is rounded up to a power of two
+	 */
+	public ExecutionTrace(String fileName, SourceStatements statements, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(capacity + " is not a valid capacity");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.fileName = fileName;
+		this.statements = statements;
+		this.mask = size - 1;
+		this.statementIndices = new int[size];
+		this.kindOrdinals = new byte[size];
+		this.loopIterations = new int[size];
+		this.timestamps = new long[size];
+	}
+
+	/**
+	 * Records that a statement is about to be executed, overwriting the oldest event if the buffer is full
+	 * @param statementIndex The index of the statement
+	 * @param kind           The kind of the statement
+	 * @param loopIteration  The loop iteration of the statement, or -1 if it is not in a repeat loop
+	 */
+	public void record(int statementIndex, StatementKind kind, int loopIteration) {
+		long event = eventCount.get();
+		int slot = (int) event & mask;
+		statementIndices[slot] = statementIndex;
+		kindOrdinals[slot] = (byte) kind.ordinal();
+		loopIterations[slot] = loopIteration;
+		timestamps[slot] = System.nanoTime();
+		eventCount.lazySet(event + 1);
+	}
+
+	/**
+	 * Returns the number of events recorded so far, including those that have been overwritten
+	 * @return The number of events recorded so far
+	 */
+	public long getEventCount() {
+		return eventCount.get();
+	}
+
+	/**
+	 * Writes the kept events to the given stream, oldest first
+	 * @param out The stream to write to
+	 */
+	public void dump(PrintStream out) {
+		long end = eventCount.get();
+		long start = Math.max(0, end - (mask + 1));
+		out.println("Last " + (end - start) + " of " + end + " statements executed in file " + fileName + ":");
+		long lastTimestamp = start == end ? 0 : timestamps[(int) (end - 1) & mask];
+		for (long event = start; event < end; ++event) {
+			int slot = (int) event & mask;
+			int statementIndex = statementIndices[slot];
+			boolean known = statementIndex >= 0 && statementIndex < statements.size();
+			StringBuilder line = new StringBuilder("\t#").append(event + 1);
+			if (known)
+				line.append(" line ").append(statements.getLine(statementIndex)).append(", column ").append(statements.getColumn(statementIndex));
+			line.append(' ').append(statementKinds[kindOrdinals[slot]]);
+			if (loopIterations[slot] >= 0)
+				line.append(" iteration ").append(loopIterations[slot]);
+			line.append(" (").append(lastTimestamp - timestamps[slot]).append(" ns before the last event)");
+			if (known)
+				line.append(": ").append(statements.get(statementIndex));
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Makes this trace available to {@link #dumpActive(PrintStream)} until {@link #deactivate()} is called
+	 */
+	public void activate() {
+		activeTraces.add(this);
+	}
+
+	/**
+	 * Stops making this trace available to {@link #dumpActive(PrintStream)}
+	 */
+	public void deactivate() {
+		activeTraces.remove(this);
+	}
+
+	/**
+	 * Writes the traces of all active scripts to the given stream
+	 * @param out The stream to write to
+	 */
+	public static void dumpActive(PrintStream out) {
+		if (activeTraces.isEmpty())
+			out.println("No scripts are executing");
+		for (ExecutionTrace trace : activeTraces)
+			trace.dump(out);
+	}
+}
@@ -0,0 +1,98 @@
+package io.github.anon10w1z.anonlang.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies with one bucket per power of two nanoseconds, which can be recorded to from many threads
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of buckets, enough for latencies of up to about 18 minutes
+	 */
+	public static final int BUCKET_COUNT = 40;
+
+	/**
+	 * The number of latencies recorded in each bucket; bucket i holds latencies below 2^i nanoseconds
+	 */
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+	/**
+	 * The sum of all recorded latencies
+	 */
+	private final LongAdder totalNanoseconds = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+			buckets[i] = new LongAdder();
+	}
+
+	/**
+	 * Records a latency
+	 * @param nanoseconds The latency in nanoseconds
+	 */
+	public void record(long nanoseconds) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanoseconds));
+		buckets[Math.min(bucket, BUCKET_COUNT - 1)].increment();
+		totalNanoseconds.add(nanoseconds);
+	}
+
+	/**
+	 * Returns the number of latencies recorded in each bucket
+	 * @return The number of latencies recorded in each bucket
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; ++i)
+			counts[i] = buckets[i].sum();
+		return counts;
+	}
+
+	/**
+	 * Returns the number of recorded latencies
+	 * @return The number of recorded latencies
+	 */
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets)
+			count += bucket.sum();
+		return count;
+	}
+
+	/**
+	 * Returns the sum of all recorded latencies
+	 * @return The sum of all recorded latencies in nanoseconds
+	 */
+	public long getTotalNanoseconds() {
+		return totalNanoseconds.sum();
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile of the recorded latencies
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The upper bound of the bucket the percentile falls in, in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentileUpperBound(double percentile) {
+		long[] counts = getCounts();
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return 0;
+		long target = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += counts[i];
+			if (seen >= target && counts[i] > 0)
+				return 1L << i;
+		}
+		return 1L << (BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Clears all recorded latencies
+	 */
+	public void reset() {
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+		totalNanoseconds.reset();
+	}
+}
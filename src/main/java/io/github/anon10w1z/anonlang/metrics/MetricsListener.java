@@ -0,0 +1,58 @@
+package io.github.anon10w1z.anonlang.metrics;
+
+import io.github.anon10w1z.anonlang.StatementKind;
+
+/**
+ * Receives every event recorded by {@link AnonMetrics}, for forwarding to an external metrics system. <br>
+ * Listeners are called on the interpreter's thread and should return quickly.
+ */
+public interface MetricsListener {
+	/**
+	 * Called when a script starts executing
+	 * @param fileName The name of the script
+	 */
+	default void scriptStarted(String fileName) {
+
+	}
+
+	/**
+	 * Called when a script finishes executing
+	 * @param fileName The name of the script
+	 */
+	default void scriptFinished(String fileName) {
+
+	}
+
+	/**
+	 * Called when a statement has been executed
+	 * @param kind The kind of the statement
+	 */
+	default void statementExecuted(StatementKind kind) {
+
+	}
+
+	/**
+	 * Called when an expression has been evaluated
+	 * @param cacheHit Whether or not the compiled form of the expression was cached
+	 */
+	default void expressionEvaluated(boolean cacheHit) {
+
+	}
+
+	/**
+	 * Called when a builtin function has been called
+	 * @param name        The name of the function
+	 * @param nanoseconds How long the call took
+	 */
+	default void builtinCalled(String name, long nanoseconds) {
+
+	}
+
+	/**
+	 * Called when output has been written by a script
+	 * @param characters The number of characters written
+	 */
+	default void outputWritten(int characters) {
+
+	}
+}